@@ -7,59 +7,174 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import javax.naming.NamingException;
 
 /**
- * Class for reading the propierties format based configuration file
+ * Class for reading the propierties format based configuration file. The file
+ * is read once and reloaded automatically when it changes.
  *
  * @author Florian Fehring
  */
 public class Configuration {
 
+    // Used if the module name can not be looked up (e.g. on background threads)
+    private static final String DEFAULT_MODULE_NAME = "SmartData";
+    private static volatile Configuration instance = null;
+
     private String moduleName;
     private String fileName;
-    private boolean proploaded = false;
-    private Properties prop;
+    private WatchService watcher = null;
+    private volatile boolean proploaded = false;
+    private volatile Properties prop = new Properties();
+    // Pre parsed values
+    private volatile Integer hardLimit = null;
+    private volatile boolean mongo = false;
 
-    public Configuration() {
-        this.prop = new Properties();
+    private Configuration() {
         try {
             this.moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            this.fileName = this.moduleName + "_config.properties";
-            try ( InputStream inputStream = new FileInputStream(fileName)) {
-                // Loading the properties.
-                this.prop.load(inputStream);
-                this.proploaded = true;
-            } catch (IOException ex) {
-                String workingDir = new File(".").getAbsolutePath();
-                Message msg = new Message("Configuration", MessageLevel.ERROR, "Could not load properties file >" + workingDir + "/" + fileName + "<: " + ex.getLocalizedMessage());
+        } catch (NamingException ex) {
+            this.moduleName = DEFAULT_MODULE_NAME;
+            Message msg = new Message("Configuration", MessageLevel.WARNING, "Could not get module name, using >"
+                    + DEFAULT_MODULE_NAME + "<: " + ex.getLocalizedMessage());
+            Logger.addMessage(msg);
+        }
+        this.fileName = this.moduleName + "_config.properties";
+        this.load();
+        this.watch();
+    }
+
+    /**
+     * Gets the configuration. The file is only read on first access and when
+     * it was changed.
+     *
+     * @return Configuration
+     */
+    public static Configuration getInstance() {
+        Configuration conf = instance;
+        if (conf == null) {
+            synchronized (Configuration.class) {
+                conf = instance;
+                if (conf == null) {
+                    conf = new Configuration();
+                    instance = conf;
+                }
+            }
+        }
+        return conf;
+    }
+
+    /**
+     * Stops watching the properties file. Called on undeploy. The loaded
+     * properties stay available for listeners shutting down afterwards.
+     */
+    static void shutdown() {
+        synchronized (Configuration.class) {
+            if (instance != null && instance.watcher != null) {
+                try {
+                    instance.watcher.close();
+                } catch (IOException ex) {
+                    Message msg = new Message("Configuration", MessageLevel.WARNING, "Could not stop watching properties file: " + ex.getLocalizedMessage());
+                    Logger.addDebugMessage(msg);
+                }
+                instance.watcher = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the properties file and replaces the current properties
+     */
+    private void load() {
+        Properties newprop = new Properties();
+        try (InputStream inputStream = new FileInputStream(this.fileName)) {
+            // Loading the properties.
+            newprop.load(inputStream);
+        } catch (IOException ex) {
+            String workingDir = new File(".").getAbsolutePath();
+            Message msg = new Message("Configuration", MessageLevel.ERROR, "Could not load properties file >" + workingDir + "/" + this.fileName + "<: " + ex.getLocalizedMessage());
+            Logger.addMessage(msg);
+            return;
+        }
+        Integer newHardLimit = null;
+        String hardLimitStr = newprop.getProperty("hardLimit");
+        if (hardLimitStr != null) {
+            try {
+                newHardLimit = Integer.valueOf(hardLimitStr.trim());
+            } catch (NumberFormatException ex) {
+                Message msg = new Message("Configuration", MessageLevel.ERROR, "Invalid value >" + hardLimitStr + "< for hardLimit, ignoring it.");
                 Logger.addMessage(msg);
             }
-        } catch (NamingException ex) {
-            Message msg = new Message("Configuration", MessageLevel.ERROR, "Could not load properties file" + ex.getLocalizedMessage());
+        }
+        this.hardLimit = newHardLimit;
+        this.mongo = newprop.getProperty("mongo.url") != null;
+        this.prop = newprop;
+        this.proploaded = true;
+    }
+
+    /**
+     * Starts a background thread that reloads the properties file when it
+     * changes.
+     */
+    private void watch() {
+        Path file = new File(this.fileName).getAbsoluteFile().toPath();
+        Path dir = file.getParent();
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            Message msg = new Message("Configuration", MessageLevel.WARNING, "Could not watch properties file, changes need a restart: " + ex.getLocalizedMessage());
             Logger.addMessage(msg);
+            return;
         }
+        this.watcher = watcher;
+        Thread watchThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ClosedWatchServiceException ex) {
+                    // Stopped on undeploy
+                    break;
+                }
+                for (WatchEvent<?> curEvent : key.pollEvents()) {
+                    if (file.getFileName().equals(curEvent.context())) {
+                        this.load();
+                        Message msg = new Message("Configuration", MessageLevel.INFO, "Reloaded properties file >" + file + "<");
+                        Logger.addDebugMessage(msg);
+                    }
+                }
+                if (!key.reset()) {
+                    break;
+                }
+            }
+        }, "SmartData-ConfigurationWatch");
+        watchThread.setDaemon(true);
+        watchThread.start();
     }
 
     public String getModuleName() {
         return moduleName;
     }
 
-    public void setModuleName(String moduleName) {
-        this.moduleName = moduleName;
-    }
-
     public String getFileName() {
         return fileName;
     }
 
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
-    }
-
     public boolean isPropsloaded() {
         return proploaded;
     }
@@ -74,6 +189,58 @@ public class Configuration {
         return this.prop.getProperty(name);
     }
 
+    /**
+     * Gets a properties value as int
+     *
+     * @param name Name of the property
+     * @param defaultValue Value to use if the property is not set or invalid
+     * @return properties value
+     */
+    public int getIntProperty(String name, int defaultValue) {
+        String value = this.prop.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a properties value as boolean
+     *
+     * @param name Name of the property
+     * @param defaultValue Value to use if the property is not set
+     * @return properties value
+     */
+    public boolean getBooleanProperty(String name, boolean defaultValue) {
+        String value = this.prop.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Gets the maximum number of datasets delivered by one request
+     *
+     * @return hardLimit or null if there is no limit
+     */
+    public Integer getHardLimit() {
+        return hardLimit;
+    }
+
+    /**
+     * Checks if mongodb should be used as backend instead of postgres
+     *
+     * @return true if mongo.url is configured
+     */
+    public boolean isMongo() {
+        return mongo;
+    }
+
     public Set<Entry<Object, Object>> getAllProperties() {
         return this.prop.entrySet();
     }
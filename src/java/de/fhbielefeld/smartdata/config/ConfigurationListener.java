@@ -0,0 +1,20 @@
+package de.fhbielefeld.smartdata.config;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Stops watching the configuration file when the application is undeployed,
+ * so that the watch thread does not keep the old classloader alive.
+ *
+ * @author Florian Fehring
+ */
+@WebListener
+public class ConfigurationListener implements ServletContextListener {
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        Configuration.shutdown();
+    }
+}
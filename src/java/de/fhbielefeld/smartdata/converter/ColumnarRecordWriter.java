@@ -0,0 +1,279 @@
+package de.fhbielefeld.smartdata.converter;
+
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dynrecords.RecordCursor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes the datasets of a cursor in a compact columnar binary format. The
+ * datasets are written in batches, each column of a batch is one primitive
+ * array, so clients can load them without parsing (e.g. with
+ * numpy.frombuffer).
+ *
+ * Format (all numbers little endian):
+ * <pre>
+ * magic        8 bytes "SDCOL1\0\0"
+ * columns      int32
+ * per column   int32 name length, utf-8 name, int8 type
+ * batches      int32 rows (0 ends the stream), per column:
+ *              validity bitmap (ceil(rows / 8) bytes, bit set = not null,
+ *              least significant bit first), then the values:
+ *              fixed width types: rows * width bytes
+ *              utf8: int32 offsets[rows + 1], then the bytes
+ * </pre>
+ *
+ * Types: 1 int16, 2 int32, 3 int64, 4 float32, 5 float64, 6 bool (1 byte),
+ * 7 timestamp (int64 microseconds since epoch, UTC), 8 utf8, 9 date (int32
+ * days since epoch).
+ *
+ * @author Florian Fehring
+ */
+public class ColumnarRecordWriter {
+
+    public static final String MEDIA_TYPE = "application/x-smartdata-columnar";
+
+    private static final byte INT16 = 1;
+    private static final byte INT32 = 2;
+    private static final byte INT64 = 3;
+    private static final byte FLOAT32 = 4;
+    private static final byte FLOAT64 = 5;
+    private static final byte BOOL = 6;
+    private static final byte TIMESTAMP = 7;
+    private static final byte UTF8 = 8;
+    private static final byte DATE = 9;
+    // Only used internally, written as TIMESTAMP
+    private static final byte TIMESTAMPTZ = 10;
+
+    private final OutputStream out;
+    private final Map<String, Attribute> attributes;
+    private final int batchSize;
+
+    /**
+     * Creates a new writer
+     *
+     * @param out Stream to write to
+     * @param attributes Attributes of the collection, used for the column
+     * types. Columns without attribute are written as utf8.
+     * @param batchSize Maximum number of rows per batch
+     */
+    public ColumnarRecordWriter(OutputStream out, Map<String, Attribute> attributes, int batchSize) {
+        this.out = out;
+        this.attributes = attributes;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Gets the type code for a column
+     *
+     * @param name Name of the column
+     * @return Type code
+     */
+    private byte getType(String name) {
+        Attribute attr = this.attributes.get(name);
+        if (attr == null) {
+            return UTF8;
+        }
+        switch (attr.getType()) {
+            case "int2":
+                return INT16;
+            case "int4":
+                return INT32;
+            case "int8":
+                return INT64;
+            case "float4":
+            case "real":
+                return FLOAT32;
+            case "float8":
+            case "double":
+                return FLOAT64;
+            case "bool":
+                return BOOL;
+            case "timestamp":
+                return TIMESTAMP;
+            case "timestamptz":
+            case "timestamp with timezone":
+                return TIMESTAMPTZ;
+            case "date":
+                return DATE;
+            default:
+                return UTF8;
+        }
+    }
+
+    private static int getWidth(byte type) {
+        switch (type) {
+            case INT16:
+                return 2;
+            case INT32:
+            case FLOAT32:
+            case DATE:
+                return 4;
+            case BOOL:
+                return 1;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * Writes the header and all rows of the cursor
+     *
+     * @param cursor Cursor to read rows from (plain attributes)
+     * @return Number of written rows
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long write(RecordCursor cursor) throws SQLException, IOException {
+        ResultSet rs = cursor.getResultSet();
+        ResultSetMetaData meta = rs.getMetaData();
+        int cols = meta.getColumnCount();
+        byte[] types = new byte[cols];
+
+        // Header
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("SDCOL1\0\0".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(cols);
+        this.out.write(header.array());
+        for (int i = 0; i < cols; i++) {
+            String name = meta.getColumnLabel(i + 1);
+            types[i] = this.getType(name);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.writeInt(nameBytes.length);
+            this.out.write(nameBytes);
+            this.out.write(types[i] == TIMESTAMPTZ ? TIMESTAMP : types[i]);
+        }
+
+        // Column buffers of one batch
+        int bitmapSize = (this.batchSize + 7) / 8;
+        byte[][] validity = new byte[cols][bitmapSize];
+        ByteBuffer[] values = new ByteBuffer[cols];
+        ByteArrayOutputStream[] strings = new ByteArrayOutputStream[cols];
+        for (int i = 0; i < cols; i++) {
+            if (types[i] == UTF8) {
+                values[i] = ByteBuffer.allocate((this.batchSize + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+                strings[i] = new ByteArrayOutputStream();
+            } else {
+                values[i] = ByteBuffer.allocate(this.batchSize * getWidth(types[i])).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        long total = 0;
+        int rows = 0;
+        while (cursor.next()) {
+            for (int i = 0; i < cols; i++) {
+                this.readValue(rs, i + 1, types[i], rows, validity[i], values[i], strings[i]);
+            }
+            rows++;
+            if (rows == this.batchSize) {
+                this.writeBatch(rows, types, validity, values, strings);
+                total += rows;
+                rows = 0;
+            }
+        }
+        if (rows > 0) {
+            this.writeBatch(rows, types, validity, values, strings);
+            total += rows;
+        }
+        this.writeInt(0);
+        this.out.flush();
+        return total;
+    }
+
+    /**
+     * Reads one value into the column buffers
+     */
+    private void readValue(ResultSet rs, int col, byte type, int row, byte[] validity, ByteBuffer values, ByteArrayOutputStream strings) throws SQLException, IOException {
+        boolean valid = true;
+        switch (type) {
+            case INT16:
+                values.putShort(rs.getShort(col));
+                break;
+            case INT32:
+                values.putInt(rs.getInt(col));
+                break;
+            case INT64:
+                values.putLong(rs.getLong(col));
+                break;
+            case FLOAT32:
+                values.putFloat(rs.getFloat(col));
+                break;
+            case FLOAT64:
+                values.putDouble(rs.getDouble(col));
+                break;
+            case BOOL:
+                values.put((byte) (rs.getBoolean(col) ? 1 : 0));
+                break;
+            case TIMESTAMP:
+                // Timestamps without zone are taken as UTC
+                LocalDateTime ldt = rs.getObject(col, LocalDateTime.class);
+                values.putLong(ldt == null ? 0 : toMicros(ldt.toEpochSecond(ZoneOffset.UTC), ldt.getNano()));
+                break;
+            case TIMESTAMPTZ:
+                OffsetDateTime odt = rs.getObject(col, OffsetDateTime.class);
+                values.putLong(odt == null ? 0 : toMicros(odt.toEpochSecond(), odt.getNano()));
+                break;
+            case DATE:
+                java.sql.Date date = rs.getDate(col);
+                values.putInt(date == null ? 0 : (int) date.toLocalDate().toEpochDay());
+                break;
+            default:
+                if (row == 0) {
+                    values.putInt(0);
+                }
+                String str = rs.getString(col);
+                if (str != null) {
+                    strings.write(str.getBytes(StandardCharsets.UTF_8));
+                }
+                values.putInt(strings.size());
+                valid = str != null;
+        }
+        if (valid && type != UTF8) {
+            valid = !rs.wasNull();
+        }
+        if (valid) {
+            validity[row / 8] |= (byte) (1 << (row % 8));
+        }
+    }
+
+    /**
+     * Writes one batch and resets the column buffers
+     */
+    private void writeBatch(int rows, byte[] types, byte[][] validity, ByteBuffer[] values, ByteArrayOutputStream[] strings) throws IOException {
+        this.writeInt(rows);
+        int bitmapBytes = (rows + 7) / 8;
+        for (int i = 0; i < types.length; i++) {
+            this.out.write(validity[i], 0, bitmapBytes);
+            Arrays.fill(validity[i], (byte) 0);
+            this.out.write(values[i].array(), 0, values[i].position());
+            values[i].clear();
+            if (strings[i] != null) {
+                strings[i].writeTo(this.out);
+                strings[i].reset();
+            }
+        }
+    }
+
+    private static long toMicros(long epochSecond, int nanos) {
+        return epochSecond * 1000000L + nanos / 1000;
+    }
+
+    private void writeInt(int value) throws IOException {
+        this.out.write(value & 0xFF);
+        this.out.write((value >>> 8) & 0xFF);
+        this.out.write((value >>> 16) & 0xFF);
+        this.out.write((value >>> 24) & 0xFF);
+    }
+}
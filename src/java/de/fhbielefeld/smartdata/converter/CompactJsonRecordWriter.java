@@ -0,0 +1,160 @@
+package de.fhbielefeld.smartdata.converter;
+
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dynrecords.RecordCursor;
+import jakarta.json.Json;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Map;
+
+/**
+ * Writes the datasets of a cursor in compact json: the names and types of
+ * the attributes once as >columns< and every dataset as array of values in
+ * the same order as >rows<. Rows are written while fetched.
+ *
+ * Null values are written as null. Timestamps are written in ISO format,
+ * geometries as WKT.
+ *
+ * @author Florian Fehring
+ */
+public class CompactJsonRecordWriter {
+
+    private final Writer writer;
+    private final Map<String, Attribute> attributes;
+    private String[] names;
+    private String[] lastRow;
+
+    /**
+     * Creates a new writer
+     *
+     * @param writer Writer to write json to
+     * @param attributes Attributes of the collection, used for the column
+     * types
+     */
+    public CompactJsonRecordWriter(Writer writer, Map<String, Attribute> attributes) {
+        this.writer = writer;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Writes the columns and rows members (without surrounding braces)
+     *
+     * @param cursor Cursor to read rows from (plain attributes)
+     * @return Number of written rows
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long write(RecordCursor cursor) throws SQLException, IOException {
+        ResultSet rs = cursor.getResultSet();
+        ResultSetMetaData meta = rs.getMetaData();
+        int cols = meta.getColumnCount();
+        int[] types = new int[cols + 1];
+        String[] typeNames = new String[cols + 1];
+        this.names = new String[cols];
+
+        this.writer.write("\"columns\":[");
+        for (int i = 1; i <= cols; i++) {
+            types[i] = meta.getColumnType(i);
+            typeNames[i] = meta.getColumnTypeName(i);
+            String name = meta.getColumnLabel(i);
+            this.names[i - 1] = Json.createValue(name).toString();
+            Attribute attr = this.attributes.get(name);
+            String type = attr != null ? attr.getType() : typeNames[i];
+            if (i > 1) {
+                this.writer.write(',');
+            }
+            this.writer.write("{\"name\":");
+            this.writer.write(this.names[i - 1]);
+            this.writer.write(",\"type\":");
+            this.writer.write(Json.createValue(type).toString());
+            this.writer.write('}');
+        }
+        this.writer.write("],\"rows\":[");
+
+        long rows = 0;
+        String[] row = new String[cols];
+        while (cursor.next()) {
+            if (rows > 0) {
+                this.writer.write(',');
+            }
+            this.writer.write('[');
+            for (int i = 1; i <= cols; i++) {
+                if (i > 1) {
+                    this.writer.write(',');
+                }
+                row[i - 1] = this.getValue(rs, i, types[i], typeNames[i]);
+                this.writer.write(row[i - 1]);
+            }
+            this.writer.write(']');
+            rows++;
+        }
+        this.writer.write(']');
+        this.lastRow = rows > 0 ? row : null;
+        return rows;
+    }
+
+    /**
+     * Gets the last written row as json object
+     *
+     * @return Json object or null if no row was written
+     */
+    public String getLastRowAsObject() {
+        if (this.lastRow == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < this.names.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(this.names[i]).append(':').append(this.lastRow[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Gets the json representation of a value
+     *
+     * @return Json value
+     */
+    private String getValue(ResultSet rs, int col, int type, String typeName) throws SQLException {
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                boolean bool = rs.getBoolean(col);
+                return rs.wasNull() ? "null" : Boolean.toString(bool);
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                String num = rs.getString(col);
+                if (num == null) {
+                    return "null";
+                }
+                // NaN and Infinity are not valid in json
+                return Character.isDigit(num.charAt(num.length() - 1)) ? num : Json.createValue(num).toString();
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                String ts = rs.getString(col);
+                return ts == null ? "null" : Json.createValue(ts.replace(' ', 'T')).toString();
+            default:
+                String str = rs.getString(col);
+                if (str == null) {
+                    return "null";
+                }
+                // Json columns (e.g. from joins) are delivered as they are
+                if ("json".equals(typeName) || "jsonb".equals(typeName)) {
+                    return str;
+                }
+                return Json.createValue(str).toString();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package de.fhbielefeld.smartdata.converter;
+
+import de.fhbielefeld.smartdata.dynrecords.RecordCursor;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+
+/**
+ * Writes the datasets of a cursor as csv (RFC 4180) with a header line. Rows
+ * are written while fetched, so only one row is held in memory at a time.
+ *
+ * Geometry columns are expected to be allready converted to WKT by the query.
+ * Binary columns (bytea) are delivered as they are by the query and base64
+ * encoded here.
+ *
+ * @author Florian Fehring
+ */
+public class CsvRecordWriter {
+
+    private final Writer writer;
+
+    /**
+     * Creates a new writer
+     *
+     * @param writer Writer to write csv to
+     */
+    public CsvRecordWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Writes the header and all rows of the cursor
+     *
+     * @param cursor Cursor to read rows from
+     * @return Number of written rows
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long write(RecordCursor cursor) throws SQLException, IOException {
+        ResultSet rs = cursor.getResultSet();
+        ResultSetMetaData meta = rs.getMetaData();
+        int cols = meta.getColumnCount();
+        int[] types = new int[cols + 1];
+        // Header line
+        for (int i = 1; i <= cols; i++) {
+            types[i] = meta.getColumnType(i);
+            if (i > 1) {
+                this.writer.write(',');
+            }
+            this.writeField(meta.getColumnLabel(i));
+        }
+        this.writer.write("\r\n");
+
+        long rows = 0;
+        while (cursor.next()) {
+            for (int i = 1; i <= cols; i++) {
+                if (i > 1) {
+                    this.writer.write(',');
+                }
+                this.writeField(this.getValue(rs, i, types[i]));
+            }
+            this.writer.write("\r\n");
+            rows++;
+        }
+        this.writer.flush();
+        return rows;
+    }
+
+    /**
+     * Gets the csv representation of a value
+     *
+     * @param rs Result set positioned on the row
+     * @param col Column index
+     * @param type SQL type of the column
+     * @return Value as string or null
+     * @throws SQLException
+     */
+    private String getValue(ResultSet rs, int col, int type) throws SQLException {
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                boolean bool = rs.getBoolean(col);
+                return rs.wasNull() ? null : Boolean.toString(bool);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                byte[] bytes = rs.getBytes(col);
+                return bytes == null ? null : Base64.getEncoder().encodeToString(bytes);
+            default:
+                return rs.getString(col);
+        }
+    }
+
+    /**
+     * Writes one field, quoted if it contains separators, quotes or line
+     * breaks
+     *
+     * @param value Value to write (null is written as empty field)
+     * @throws IOException
+     */
+    private void writeField(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            this.writer.write(value);
+            return;
+        }
+        this.writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                this.writer.write('"');
+            }
+            this.writer.write(c);
+        }
+        this.writer.write('"');
+    }
+}
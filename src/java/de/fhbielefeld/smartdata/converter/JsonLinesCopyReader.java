@@ -0,0 +1,265 @@
+package de.fhbielefeld.smartdata.converter;
+
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import jakarta.json.JsonValue.ValueType;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reader that converts json-lines (one json object per line) into csv lines
+ * suitable for postgres COPY ... FROM STDIN WITH (FORMAT csv). Only one line
+ * is held in memory at a time.
+ *
+ * The column list of the COPY is fixed by the keys of the first line, so
+ * every line must contain exactly the same keys. Lines with other keys are
+ * rejected instead of losing their values. Geometries must be given as WKT
+ * or EWKT strings, GeoJSON objects can not be converted inside the COPY.
+ *
+ * @author Florian Fehring
+ */
+public class JsonLinesCopyReader extends Reader {
+
+    private final BufferedReader source;
+    private final List<Attribute> columns;
+    private String firstLine;
+    // Keys of the first line, every line must have the same keys
+    private Set<String> keys = null;
+    private long lineNo = 0;
+    private final StringBuilder current = new StringBuilder();
+    private int pos = 0;
+    private boolean eof = false;
+
+    /**
+     * Creates a new reader
+     *
+     * @param source Reader delivering json lines
+     * @param firstLine First json line, allready read from source (may be null)
+     * @param columns Attributes in the order of the COPY column list
+     */
+    public JsonLinesCopyReader(BufferedReader source, String firstLine, List<Attribute> columns) {
+        this.source = source;
+        this.firstLine = firstLine;
+        this.columns = columns;
+    }
+
+    /**
+     * Parses one json line into an object
+     *
+     * @param line Line containing one json object
+     * @return Json object
+     * @throws DynException
+     */
+    public static JsonObject parseLine(String line) throws DynException {
+        try (JsonReader jsonReader = Json.createReader(new StringReader(line))) {
+            return jsonReader.readObject();
+        } catch (JsonException | IllegalStateException ex) {
+            DynException de = new DynException("Could not parse json line: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (this.pos >= this.current.length()) {
+            if (this.eof || !this.nextLine()) {
+                this.eof = true;
+                return -1;
+            }
+        }
+        int n = Math.min(len, this.current.length() - this.pos);
+        this.current.getChars(this.pos, this.pos + n, cbuf, off);
+        this.pos += n;
+        return n;
+    }
+
+    /**
+     * Reads the next non empty json line and converts it into the current csv
+     * line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException
+     */
+    private boolean nextLine() throws IOException {
+        String line;
+        do {
+            if (this.firstLine != null) {
+                line = this.firstLine;
+                this.firstLine = null;
+            } else {
+                line = this.source.readLine();
+            }
+            if (line == null) {
+                return false;
+            }
+            this.lineNo++;
+        } while (line.isBlank());
+
+        this.current.setLength(0);
+        this.pos = 0;
+        try {
+            JsonObject json = parseLine(line);
+            this.checkKeys(json);
+            for (int i = 0; i < this.columns.size(); i++) {
+                if (i > 0) {
+                    this.current.append(',');
+                }
+                Attribute curCol = this.columns.get(i);
+                this.appendValue(curCol, json.get(curCol.getName()));
+            }
+        } catch (DynException ex) {
+            IOException ioe = new IOException("Line " + this.lineNo + ": " + ex.getLocalizedMessage());
+            ioe.addSuppressed(ex);
+            throw ioe;
+        }
+        this.current.append('\n');
+        return true;
+    }
+
+    /**
+     * Checks that a line has the same keys as the first line
+     *
+     * @param json Json object of the line
+     * @throws DynException if keys are missing or additional
+     */
+    private void checkKeys(JsonObject json) throws DynException {
+        if (this.keys == null) {
+            this.keys = new HashSet<>(json.keySet());
+            return;
+        }
+        if (this.keys.equals(json.keySet())) {
+            return;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String curKey : this.keys) {
+            if (!json.containsKey(curKey)) {
+                missing.add(curKey);
+            }
+        }
+        List<String> additional = new ArrayList<>();
+        for (String curKey : json.keySet()) {
+            if (!this.keys.contains(curKey)) {
+                additional.add(curKey);
+            }
+        }
+        String msg = "The attributes differ from the first line.";
+        if (!missing.isEmpty()) {
+            msg += " Missing: >" + String.join(",", missing) + "<.";
+        }
+        if (!additional.isEmpty()) {
+            msg += " Not in first line: >" + String.join(",", additional) + "<.";
+        }
+        throw new DynException(msg + " Give all attributes in every line, use null for empty values.");
+    }
+
+    /**
+     * Appends the csv representation of one value
+     *
+     * @param col Attribute the value belongs to
+     * @param value Json value (may be null)
+     * @throws DynException
+     */
+    private void appendValue(Attribute col, JsonValue value) throws DynException {
+        // Unquoted empty value is NULL in csv format
+        if (value == null || value.getValueType() == ValueType.NULL) {
+            return;
+        }
+        switch (col.getType()) {
+            case "json":
+            case "jsonb":
+                if (value.getValueType() == ValueType.STRING) {
+                    this.appendQuoted(((JsonString) value).getString());
+                } else {
+                    this.appendQuoted(value.toString());
+                }
+                break;
+            case "timestamp":
+            case "timestamptz":
+                this.appendQuoted(DataConverter.objectToLocalDateTime(this.stringValue(value)).toString());
+                break;
+            case "date":
+                this.appendQuoted(DataConverter.objectToLocalDate(this.stringValue(value)).toString());
+                break;
+            case "bytea":
+                String sbytea = this.stringValue(value);
+                if (sbytea.contains(";base64,")) {
+                    sbytea = sbytea.split(";base64,", 2)[1];
+                }
+                byte[] bytes;
+                try {
+                    bytes = Base64.getMimeDecoder().decode(sbytea);
+                } catch (IllegalArgumentException ex) {
+                    DynException de = new DynException("Could not decode base64 value for >" + col.getName() + "<: " + ex.getLocalizedMessage());
+                    de.addSuppressed(ex);
+                    throw de;
+                }
+                this.current.append("\\x");
+                for (byte b : bytes) {
+                    this.current.append(Character.forDigit((b >> 4) & 0xF, 16));
+                    this.current.append(Character.forDigit(b & 0xF, 16));
+                }
+                break;
+            case "geometry":
+                if (value.getValueType() != ValueType.STRING) {
+                    throw new DynException("The value for >" + col.getName()
+                            + "< must be a WKT or EWKT string, GeoJSON geometries are not supported by the bulk import.");
+                }
+                this.appendQuoted(this.stringValue(value));
+                break;
+            default:
+                this.appendQuoted(this.stringValue(value));
+        }
+    }
+
+    /**
+     * Gets the plain string of a json value (without quotes for strings)
+     *
+     * @param value Json value
+     * @return String representation
+     */
+    private String stringValue(JsonValue value) {
+        if (value.getValueType() == ValueType.STRING) {
+            return ((JsonString) value).getString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Appends a quoted csv value, doubleing contained quotes
+     *
+     * @param value Value to append
+     */
+    private void appendQuoted(String value) {
+        this.current.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                this.current.append('"');
+            }
+            this.current.append(c);
+        }
+        this.current.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+    }
+}
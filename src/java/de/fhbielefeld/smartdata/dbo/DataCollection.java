@@ -16,6 +16,8 @@ public class DataCollection {
 //    @XmlElementWrapper(name = "attributes")
 //    @XmlElement(name = "attributes")
     private ArrayList<Attribute> attributes = new ArrayList<>();
+    private ArrayList<Index> indexes = new ArrayList<>();
+    private Partitioning partitioning = null;
     
     public DataCollection() {
         
@@ -44,6 +46,26 @@ public class DataCollection {
     public void addAttribute(Attribute attribute) {
         this.attributes.add(attribute);
     }
+
+    public ArrayList<Index> getIndexes() {
+        return indexes;
+    }
+
+    public void setIndexes(ArrayList<Index> indexes) {
+        this.indexes = indexes;
+    }
+
+    public void addIndex(Index index) {
+        this.indexes.add(index);
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public void setPartitioning(Partitioning partitioning) {
+        this.partitioning = partitioning;
+    }
     
     /**
      * Returns the identity column of this collection
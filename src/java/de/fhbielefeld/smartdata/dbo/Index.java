@@ -0,0 +1,83 @@
+package de.fhbielefeld.smartdata.dbo;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents index information
+ *
+ * Supported methods are btree (default), brin (for append only data like
+ * timestamps), gist (for geometries) and trgm (trigram index for text
+ * search with cs, sw and ew filters).
+ *
+ * @author Florian Fehring
+ */
+@XmlRootElement
+public class Index {
+
+    private String name;
+    private List<String> attributes = new ArrayList<>();
+    private String method = "btree";
+    private boolean isUnique = false;
+    private boolean isPrimary = false;
+    // False if a concurrent build failed and left an unusable index behind
+    private boolean isValid = true;
+
+    public Index() {
+
+    }
+
+    public Index(String method, String... attributes) {
+        this.method = method;
+        this.attributes.addAll(List.of(attributes));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(List<String> attributes) {
+        this.attributes = attributes;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public boolean isUnique() {
+        return isUnique;
+    }
+
+    public void setIsUnique(boolean isUnique) {
+        this.isUnique = isUnique;
+    }
+
+    public boolean isPrimary() {
+        return isPrimary;
+    }
+
+    public void setIsPrimary(boolean isPrimary) {
+        this.isPrimary = isPrimary;
+    }
+
+    public boolean isValid() {
+        return isValid;
+    }
+
+    public void setIsValid(boolean isValid) {
+        this.isValid = isValid;
+    }
+}
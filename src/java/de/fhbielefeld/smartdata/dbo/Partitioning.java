@@ -0,0 +1,64 @@
+package de.fhbielefeld.smartdata.dbo;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Represents the partitioning of a collection by ranges of a timestamp
+ * attribute
+ *
+ * Supported intervals are day, week (starting on monday) and month.
+ * Partitions are created premake intervals ahead. With a retention greater
+ * than zero, partitions that ended more than retention intervals ago are
+ * dropped.
+ *
+ * @author Florian Fehring
+ */
+@XmlRootElement
+public class Partitioning {
+
+    private String attribute;
+    private String interval = "month";
+    private int premake = 3;
+    private int retention = 0;
+
+    public Partitioning() {
+
+    }
+
+    public Partitioning(String attribute, String interval) {
+        this.attribute = attribute;
+        this.interval = interval;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public void setAttribute(String attribute) {
+        this.attribute = attribute;
+    }
+
+    public String getInterval() {
+        return interval;
+    }
+
+    public void setInterval(String interval) {
+        this.interval = interval;
+    }
+
+    public int getPremake() {
+        return premake;
+    }
+
+    public void setPremake(int premake) {
+        this.premake = premake;
+    }
+
+    public int getRetention() {
+        return retention;
+    }
+
+    public void setRetention(int retention) {
+        this.retention = retention;
+    }
+}
@@ -0,0 +1,91 @@
+package de.fhbielefeld.smartdata.dbo;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a rollup: datasets of a collection pre-aggregated into time
+ * buckets, optionally per group (e.g. per sensor).
+ *
+ * For each value attribute min, max, sum and count are stored, so avg, min,
+ * max, sum and count can be derived for the bucket size of the rollup and
+ * for multiples of it.
+ *
+ * @author Florian Fehring
+ */
+@XmlRootElement
+public class Rollup {
+
+    private String name;
+    private String bucket;
+    private List<String> groupBy = new ArrayList<>();
+    private List<String> values = new ArrayList<>();
+
+    public Rollup() {
+
+    }
+
+    public Rollup(String name, String bucket) {
+        this.name = name;
+        this.bucket = bucket;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the bucket definition
+     *
+     * @return Timestamp attribute and bucket size (e.g. ts,1h)
+     */
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * Gets the name of the bucket attribute
+     *
+     * @return Attribute name or null if the bucket definition is not valid
+     */
+    public String getBucketAttribute() {
+        String[] parts = this.bucket != null ? this.bucket.split(",") : new String[0];
+        return parts.length == 2 ? parts[0].trim() : null;
+    }
+
+    /**
+     * Gets the bucket size
+     *
+     * @return Bucket size (e.g. 1h) or null if the bucket definition is not
+     * valid
+     */
+    public String getBucketInterval() {
+        String[] parts = this.bucket != null ? this.bucket.split(",") : new String[0];
+        return parts.length == 2 ? parts[1].trim() : null;
+    }
+
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(List<String> groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+}
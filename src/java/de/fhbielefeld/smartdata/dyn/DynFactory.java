@@ -28,8 +28,7 @@ public class DynFactory {
      * @throws DynException
      */
     public static DynCollection getDynCollection(String storage, String collection) throws DynException {
-        Configuration conf = new Configuration();
-        if (conf.getProperty("mongo.url") != null) {
+        if (Configuration.getInstance().isMongo()) {
             return new DynCollectionMongo(storage, collection);
         } else {
             return new DynCollectionPostgres(storage, collection);
@@ -45,8 +44,7 @@ public class DynFactory {
      * @throws DynException
      */
     public static DynRecords getDynRecords(String storage, String collection) throws DynException {
-        Configuration conf = new Configuration();
-        if (conf.getProperty("mongo.url") != null) {
+        if (Configuration.getInstance().isMongo()) {
             return new DynRecordsMongo();
         } else {
             return new DynRecordsPostgres(storage, collection);
@@ -60,8 +58,7 @@ public class DynFactory {
      * @throws DynException
      */
     public static DynStorage getDynStorage() throws DynException {
-        Configuration conf = new Configuration();
-        if (conf.getProperty("mongo.url") != null) {
+        if (Configuration.getInstance().isMongo()) {
             return new DynStorageMongo();
         } else {
             return new DynStoragePostgres();
@@ -76,7 +73,7 @@ public class DynFactory {
 //            dync = dynColCache.get(storage + "_" + collection);
 //            dynr = dynRecCache.get(storage + "_" + collection);
 //        } else {
-//            Configuration conf = new Configuration();
+//            Configuration conf = Configuration.getInstance();
 //                if (conf.getProperty("mongo.url") != null) {
 //                    dync = new DynCollectionMongo(storage, collection);
 //                    dynr = new DynRecordsMongo();
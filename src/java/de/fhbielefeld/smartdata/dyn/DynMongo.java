@@ -18,7 +18,7 @@ public class DynMongo implements Dyn {
     
     @Override
     public void connect() throws DynException {
-        Configuration conf = new Configuration();
+        Configuration conf = Configuration.getInstance();
         String mongourl = conf.getProperty("mongo.url");        
         this.client = MongoClients.create(mongourl);
     }
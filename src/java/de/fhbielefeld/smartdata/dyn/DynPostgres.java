@@ -9,7 +9,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
@@ -22,15 +23,22 @@ import javax.sql.DataSource;
 public class DynPostgres implements Dyn {
 
     protected Connection con;
-    protected static Semaphore commitlock;
     protected List<String> warnings = new ArrayList<>();
+    // Striped locks for ordering structural changes on the same collection
+    private static final ReentrantLock[] collectionLocks = new ReentrantLock[32];
+
+    static {
+        for (int i = 0; i < collectionLocks.length; i++) {
+            collectionLocks[i] = new ReentrantLock();
+        }
+    }
 
     @Override
     public void connect() throws DynException {
         try {
             // Only create new connection if there is no active one
             if (this.con == null || this.con.isClosed()) {
-                Configuration conf = new Configuration();
+                Configuration conf = Configuration.getInstance();
                 String jndi = conf.getProperty("postgres.jndi");
                 if (jndi == null) {
                     jndi = "jdbc/SmartData";
@@ -40,8 +48,6 @@ public class DynPostgres implements Dyn {
                     InitialContext ctx = new InitialContext();
                     DataSource ds = (DataSource) ctx.lookup(jndi);
                     this.con = ds.getConnection();
-                    // Create semaphore
-                    commitlock = new Semaphore(1);
                 } catch (NamingException ex) {
                     Message msg = new Message("", MessageLevel.ERROR, "Could not access connection pool: " + ex.getLocalizedMessage());
                     Logger.addMessage(msg);
@@ -84,6 +90,36 @@ public class DynPostgres implements Dyn {
         }
     }
 
+    /**
+     * Locks structural changes (DDL) on a collection or storage. Writing of
+     * datasets is not locked, it is isolated by the transaction of each
+     * connection. Locking can be disabled with ddl.locking=false
+     *
+     * @param schema Name of the schema
+     * @param name Name of the collection (null for locking the schema)
+     * @return Acquired lock or null if locking is disabled
+     */
+    protected static Lock lockCollection(String schema, String name) {
+        if (!Configuration.getInstance().getBooleanProperty("ddl.locking", true)) {
+            return null;
+        }
+        String key = schema + "." + (name != null ? name : "");
+        Lock lock = collectionLocks[Math.floorMod(key.hashCode(), collectionLocks.length)];
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Releases a lock got from lockCollection()
+     *
+     * @param lock Lock to release (may be null)
+     */
+    protected static void unlockCollection(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
     @Override
     public List<String> getWarnings() {
         return warnings;
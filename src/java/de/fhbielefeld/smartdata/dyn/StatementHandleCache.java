@@ -0,0 +1,171 @@
+package de.fhbielefeld.smartdata.dyn;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.postgresql.PGStatement;
+
+/**
+ * Prepares statements so that they can reuse server side statements of the
+ * physical database connection. The handles themselves are not kept across
+ * requests: pgjdbc caches the server side statements per connection (keyed by
+ * the sql) and removes them together with the connection. The size of that
+ * cache is configured on the connection pool with the driver properties
+ * preparedStatementCacheQueries and preparedStatementCacheSizeMiB, the number
+ * of executions before a server side statement is used with prepareThreshold
+ * (can be overwritten with statementhandles.preparethreshold).
+ *
+ * Records which executions used a server side statement to estimate the
+ * saved planning time.
+ *
+ * @author Florian Fehring
+ */
+public class StatementHandleCache {
+
+    /**
+     * Statement handle in use by a request. Must be closed after use, the
+     * server side statement stays in the drivers cache of the connection.
+     */
+    public static class Lease implements AutoCloseable {
+
+        private final String stmtId;
+        private final PreparedStatement statement;
+        private final boolean reused;
+
+        private Lease(String stmtId, PreparedStatement statement, boolean reused) {
+            this.stmtId = stmtId;
+            this.statement = statement;
+            this.reused = reused;
+        }
+
+        public PreparedStatement getStatement() {
+            return statement;
+        }
+
+        /**
+         * Checks if the statement is executed as an already prepared server
+         * side statement
+         *
+         * @return true if the server side statement is reused
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /**
+         * Notes the time needed to execute the statement for the planning
+         * time metrics
+         *
+         * @param nanos Execution time in nanoseconds
+         */
+        public void executed(long nanos) {
+            recordExecution(this.stmtId, this.reused, nanos);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            this.statement.close();
+        }
+    }
+
+    // Execution times per statement: fresh count, fresh nanos, reused count, reused nanos
+    private static final Map<String, long[]> executions = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final int MAX_TRACKED = 1000;
+
+    private StatementHandleCache() {
+    }
+
+    /**
+     * Gets a prepared statement for the given statement id. The driver reuses
+     * the server side statement of the connection, if the same sql was
+     * prepared often enough on it before.
+     *
+     * @param con Connection (may be a pooled connection)
+     * @param stmtId Id of the statement
+     * @param sql Sql of the statement
+     * @param keyColumns Names of columns to return as generated keys or null
+     * @return Lease of the statement, must be closed after use
+     * @throws SQLException
+     */
+    public static Lease prepare(Connection con, String stmtId, String sql, String[] keyColumns) throws SQLException {
+        PreparedStatement pstmt;
+        if (keyColumns != null) {
+            pstmt = con.prepareStatement(sql, keyColumns);
+        } else {
+            pstmt = con.prepareStatement(sql);
+        }
+        if (!pstmt.isWrapperFor(PGStatement.class)) {
+            return new Lease(stmtId, pstmt, false);
+        }
+        PGStatement pgstmt = pstmt.unwrap(PGStatement.class);
+        int prepareThreshold = Configuration.getInstance().getIntProperty("statementhandles.preparethreshold", -1);
+        if (prepareThreshold >= 0) {
+            pgstmt.setPrepareThreshold(prepareThreshold);
+        }
+        boolean reused = pgstmt.isUseServerPrepare();
+        if (reused) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return new Lease(stmtId, pstmt, reused);
+    }
+
+    /**
+     * Notes the execution time of a statement
+     *
+     * @param stmtId Id of the statement
+     * @param reused If the handle was reused
+     * @param nanos Execution time in nanoseconds
+     */
+    private static void recordExecution(String stmtId, boolean reused, long nanos) {
+        long[] times = executions.get(stmtId);
+        if (times == null) {
+            // Do not track more statements than could be cached on a connection
+            if (executions.size() >= MAX_TRACKED) {
+                return;
+            }
+            times = executions.computeIfAbsent(stmtId, k -> new long[4]);
+        }
+        synchronized (times) {
+            int offset = reused ? 2 : 0;
+            times[offset]++;
+            times[offset + 1] += nanos;
+        }
+    }
+
+    /**
+     * Gets the statistics of the statement reuse. The saved planning time is
+     * estimated from the difference of the average execution time of fresh
+     * and reused server side statements of each statement.
+     *
+     * @return Map with statistics
+     */
+    public static Map<String, Object> getStatistics() {
+        long savedNanos = 0;
+        for (long[] curTimes : executions.values()) {
+            synchronized (curTimes) {
+                if (curTimes[0] == 0 || curTimes[2] == 0) {
+                    continue;
+                }
+                long freshAvg = curTimes[1] / curTimes[0];
+                long reusedAvg = curTimes[3] / curTimes[2];
+                if (freshAvg > reusedAvg) {
+                    savedNanos += (freshAvg - reusedAvg) * curTimes[2];
+                }
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("estimatedPlanningSaved_ms", savedNanos / 1000000);
+        return stats;
+    }
+}
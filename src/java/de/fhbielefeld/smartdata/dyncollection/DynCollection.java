@@ -2,6 +2,9 @@ package de.fhbielefeld.smartdata.dyncollection;
 
 import de.fhbielefeld.smartdata.dbo.Attribute;
 import de.fhbielefeld.smartdata.dbo.DataCollection;
+import de.fhbielefeld.smartdata.dbo.Index;
+import de.fhbielefeld.smartdata.dbo.Partitioning;
+import de.fhbielefeld.smartdata.dbo.Rollup;
 import de.fhbielefeld.smartdata.dyn.Dyn;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import java.util.List;
@@ -159,4 +162,93 @@ public interface DynCollection extends Dyn {
          * @throws DynException 
          */
         public abstract String getReferences() throws DynException;
+
+    /**
+     * Gets the indexes of the collection
+     *
+     * @return List of indexes
+     * @throws DynException
+     */
+    public abstract List<Index> getIndexes() throws DynException;
+
+    /**
+     * Creates an index
+     *
+     * @param index Index definition, if no name is given one is generated
+     * @param concurrently If true the index is created without blocking
+     * writes (takes longer). Ignored for partitioned collections.
+     * @return Name of the created index
+     * @throws DynException
+     */
+    public abstract String createIndex(Index index, boolean concurrently) throws DynException;
+
+    /**
+     * Deletes an index
+     *
+     * @param name Name of the index
+     * @throws DynException
+     */
+    public abstract void dropIndex(String name) throws DynException;
+
+    /**
+     * Gets the correlation between the physical order of datasets and the
+     * values of an attribute, from the database statistics
+     *
+     * @param attribute Name of the attribute
+     * @return Correlation between -1 and 1, NaN if unknown
+     * @throws DynException
+     */
+    public abstract double getCorrelation(String attribute) throws DynException;
+
+    /**
+     * Gets the partitioning of the collection
+     *
+     * @return Partitioning or null if the collection is not partitioned
+     * @throws DynException
+     */
+    public abstract Partitioning getPartitioning() throws DynException;
+
+    /**
+     * Creates the partitions needed ahead and drops partitions outside the
+     * retention time. Datasets in the default partition that belong to a new
+     * partition are moved into it.
+     *
+     * @return Map with the names of created, dropped and failed partitions
+     * @throws DynException
+     */
+    public abstract Map<String, List<String>> maintainPartitions() throws DynException;
+
+    /**
+     * Gets the rollups of the collection
+     *
+     * @return List of rollups
+     * @throws DynException
+     */
+    public abstract List<Rollup> getRollups() throws DynException;
+
+    /**
+     * Creates a rollup and calculates it from the existing datasets
+     *
+     * @param rollup Rollup definition, if no name is given one is generated
+     * @return Name of the created rollup
+     * @throws DynException
+     */
+    public abstract String createRollup(Rollup rollup) throws DynException;
+
+    /**
+     * Deletes a rollup
+     *
+     * @param name Name of the rollup
+     * @throws DynException
+     */
+    public abstract void deleteRollup(String name) throws DynException;
+
+    /**
+     * Recalculates the buckets of all rollups that were changed since the
+     * last refresh
+     *
+     * @return Map of rollup names to the number of recalculated buckets
+     * @throws DynException
+     */
+    public abstract Map<String, Integer> refreshRollups() throws DynException;
 }
@@ -2,6 +2,9 @@ package de.fhbielefeld.smartdata.dyncollection;
 
 import de.fhbielefeld.smartdata.dbo.Attribute;
 import de.fhbielefeld.smartdata.dbo.DataCollection;
+import de.fhbielefeld.smartdata.dbo.Index;
+import de.fhbielefeld.smartdata.dbo.Partitioning;
+import de.fhbielefeld.smartdata.dbo.Rollup;
 import de.fhbielefeld.smartdata.dyn.DynMongo;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import java.util.ArrayList;
@@ -123,4 +126,54 @@ public class DynCollectionMongo extends DynMongo implements DynCollection {
     public String getReferences() throws DynException {
         throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
     }
+
+    @Override
+    public List<Index> getIndexes() throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public String createIndex(Index index, boolean concurrently) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void dropIndex(String name) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public double getCorrelation(String attribute) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Partitioning getPartitioning() throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Map<String, List<String>> maintainPartitions() throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public List<Rollup> getRollups() throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public String createRollup(Rollup rollup) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void deleteRollup(String name) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Map<String, Integer> refreshRollups() throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
 }
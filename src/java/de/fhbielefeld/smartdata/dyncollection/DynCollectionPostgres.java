@@ -5,17 +5,30 @@ import de.fhbielefeld.scl.logger.message.Message;
 import de.fhbielefeld.scl.logger.message.MessageLevel;
 import de.fhbielefeld.smartdata.dbo.Attribute;
 import de.fhbielefeld.smartdata.dbo.DataCollection;
+import de.fhbielefeld.smartdata.dbo.Index;
+import de.fhbielefeld.smartdata.dbo.Partitioning;
+import de.fhbielefeld.smartdata.dbo.Rollup;
 import de.fhbielefeld.smartdata.dyn.DynPostgres;
+import de.fhbielefeld.smartdata.dynrecords.DynRecordsPostgres;
+import de.fhbielefeld.smartdata.dynrecords.ResultCache;
+import de.fhbielefeld.smartdata.dynrecords.RollupManager;
 import de.fhbielefeld.smartdata.dynstorage.DynStoragePostgres;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import de.fhbielefeld.smartdata.dynstorage.DynStorage;
 
 /**
@@ -26,6 +39,9 @@ import de.fhbielefeld.smartdata.dynstorage.DynStorage;
 public final class DynCollectionPostgres extends DynPostgres implements DynCollection {
 
     protected String schema;
+    // Prefix of the table comment holding the partitioning settings
+    private static final String PARTITIONING_COMMENT = "smartdata.partitioning=";
+    private static final DateTimeFormatter PARTITION_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
     protected String name;
     protected Map<String, Attribute> attributes = new HashMap<>();
 
@@ -88,20 +104,29 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
         // Check if schema exists
         boolean schemaExists = this.exists();
         if (!schemaExists) {
+            Partitioning partitioning = table.getPartitioning();
+            if (partitioning != null) {
+                this.checkPartitioning(table, partitioning);
+            }
+            // The primary key of a partitioned table must contain the partition attribute
+            String pkdef = partitioning == null ? " PRIMARY KEY" : "";
+            Lock lock = null;
             try {
                 String sql = "CREATE TABLE \"" + this.schema + "\".\"" + this.name + "\"(";
                 // Add identity attribute
                 Attribute idcol = table.getIdentityColum();
+                String idname = "id";
                 if (idcol != null) {
+                    idname = idcol.getName();
                     sql += idcol.getName();
                     if (idcol.isIsAutoIncrement()) {
                         // Create autoincrement id column
-                        sql += " bigserial PRIMARY KEY";
+                        sql += " bigserial" + pkdef;
                     } else {
-                        sql += " " + idcol.getType() + " PRIMARY KEY";
+                        sql += " " + idcol.getType() + pkdef;
                     }
                 } else {
-                    sql += "id bigserial PRIMARY KEY";
+                    sql += "id bigserial" + pkdef;
                 }
                 String foreignKeys = "";
                 for (Attribute curCol : table.getAttributes()) {
@@ -162,14 +187,37 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
                 if (!foreignKeys.isEmpty()) {
                     sql += foreignKeys;
                 }
+                if (partitioning != null) {
+                    sql += ", PRIMARY KEY (" + idname + ", \"" + partitioning.getAttribute() + "\")";
+                }
                 sql += ")";
-                commitlock.acquire();
+                if (partitioning != null) {
+                    sql += " PARTITION BY RANGE (\"" + partitioning.getAttribute() + "\")";
+                }
+                lock = lockCollection(this.schema, this.name);
                 this.con.setAutoCommit(true);
                 try (Statement stmt = this.con.createStatement()) {
                     stmt.executeUpdate(sql);
+                    if (partitioning != null) {
+                        // Note partitioning settings for the partition maintenance
+                        stmt.executeUpdate("COMMENT ON TABLE \"" + this.schema + "\".\"" + this.name + "\" IS '"
+                                + PARTITIONING_COMMENT + partitioning.getAttribute() + ";" + partitioning.getInterval().toLowerCase()
+                                + ";" + partitioning.getPremake() + ";" + partitioning.getRetention() + "'");
+                        // Datasets outside the created partitions are stored in the default partition
+                        stmt.executeUpdate("CREATE TABLE \"" + this.schema + "\".\"" + getPartitionName(this.name, "default")
+                                + "\" PARTITION OF \"" + this.schema + "\".\"" + this.name + "\" DEFAULT");
+                    }
                     this.con.setAutoCommit(false);
                     created = true;
                 }
+                this.invalidateMetadata();
+                if (partitioning != null) {
+                    this.maintainPartitions();
+                }
+                // Create declared indexes, the new collection is empty so no need for concurrently
+                for (Index curIndex : table.getIndexes()) {
+                    this.createIndex(curIndex, false);
+                }
             } catch (SQLException ex) {
                 String msgstr = "Could not create collection >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage();
                 Message msg = new Message(msgstr, MessageLevel.ERROR);
@@ -192,7 +240,7 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
                             MessageLevel.ERROR, "Could not reset autocomit mode to true!");
                     Logger.addDebugMessage(msg);
                 }
-                commitlock.release();
+                unlockCollection(lock);
             }
         }
         return created;
@@ -210,8 +258,9 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
             sql += " ADD COLUMN \"" + curCol.getName() + "\" " + curCol.getType();
             i++;
         }
+        Lock lock = null;
         try {
-            commitlock.acquire();
+            lock = lockCollection(this.schema, this.name);
             this.con.setAutoCommit(true);
             try (Statement stmt = this.con.createStatement()) {
                 stmt.executeUpdate(sql);
@@ -236,7 +285,9 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
                         MessageLevel.ERROR, "Could not reset autocomit mode to true!");
                 Logger.addDebugMessage(msg);
             }
-            commitlock.release();
+            // Cached metadata and statements may reference changed attributes
+            this.invalidateMetadata();
+            unlockCollection(lock);
         }
 
         return created;
@@ -254,8 +305,9 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
             sql += " DROP COLUMN \"" + curCol.getName() + "\"";
             i++;
         }
+        Lock lock = null;
         try {
-            commitlock.acquire();
+            lock = lockCollection(this.schema, this.name);
             this.con.setAutoCommit(true);
             try (Statement stmt = this.con.createStatement()) {
                 stmt.executeUpdate(sql);
@@ -280,7 +332,9 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
                         MessageLevel.ERROR, "Could not reset autocomit mode to true!");
                 Logger.addDebugMessage(msg);
             }
-            commitlock.release();
+            // Cached metadata and statements may reference changed attributes
+            this.invalidateMetadata();
+            unlockCollection(lock);
         }
 
         return deleted;
@@ -291,6 +345,14 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
         if (!this.attributes.isEmpty()) {
             return this.attributes;
         }
+        // Use application wide cache if possible
+        MetadataCache.Entry cached = MetadataCache.get(this.schema, this.name);
+        if (cached != null) {
+            this.attributes = cached.getAttributes();
+            return this.attributes;
+        }
+        long version = MetadataCache.getVersion(this.schema, this.name);
+        Map<String, Attribute> loaded = new HashMap<>();
         try (Statement stmt = this.con.createStatement(); ResultSet rs = stmt.executeQuery(
                 "SELECT column_name, column_default, udt_name, is_nullable, is_identity FROM information_schema.columns "
                 + "WHERE table_schema = '" + this.schema + "' "
@@ -298,14 +360,17 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
             // Walk trough attributes
             while (rs.next()) {
                 Attribute curCol = this.getColumnObject(rs);
-                this.attributes.put(curCol.getName(), curCol);
+                loaded.put(curCol.getName(), curCol);
             }
             // Check if table does not exists when there is no column
-            if (this.attributes.isEmpty()) {
+            if (loaded.isEmpty()) {
                 if (!this.exists()) {
                     throw new DynException("Table >" + this.schema + "." + this.name + "< does not exists.");
                 }
+            } else {
+                MetadataCache.put(this.schema, this.name, version, loaded);
             }
+            this.attributes = loaded;
         } catch (SQLException ex) {
             DynException dex = new DynException("Could not get attributes: Could not get schema information: " + ex.getLocalizedMessage());
             dex.addSuppressed(ex);
@@ -321,6 +386,10 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
         if (this.attributes.containsKey(name)) {
             return this.attributes.get(name);
         }
+        // Load all attributes at once, if they can be cached application wide
+        if (MetadataCache.isEnabled()) {
+            return this.getAttributes().get(name);
+        }
 
         Attribute column = null;
         try (Statement stmt = this.con.createStatement(); ResultSet rs = stmt.executeQuery(
@@ -504,6 +573,22 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
 
     @Override
     public void changeAttributes(List<Attribute> columns) throws DynException {
+        Lock lock = lockCollection(this.schema, this.name);
+        try {
+            this.changeAttributesLocked(columns);
+        } finally {
+            this.invalidateMetadata();
+            unlockCollection(lock);
+        }
+    }
+
+    /**
+     * Changes the attributes, while holding the collection lock
+     *
+     * @param columns Attributes to change
+     * @throws DynException
+     */
+    private void changeAttributesLocked(List<Attribute> columns) throws DynException {
         for (Attribute curCol : columns) {
             try (Statement stmt = this.con.createStatement()) {
                 // Update type
@@ -527,6 +612,7 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
 
     @Override
     public void delete(boolean doCascade) throws DynException {
+        Lock lock = lockCollection(this.schema, this.name);
         try (Statement stmt = this.con.createStatement()) {
             if (doCascade) {
                 stmt.executeUpdate("DROP TABLE IF EXISTS \"" + this.schema + "\".\"" + this.name + "\" CASCADE");
@@ -538,11 +624,33 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
             DynException de = new DynException("Could not delete collection: " + ex.getLocalizedMessage());
             de.addSuppressed(ex);
             throw de;
+        } finally {
+            this.invalidateMetadata();
+            if (doCascade) {
+                // Cascade removes references from other collections
+                MetadataCache.invalidateAll();
+            }
+            unlockCollection(lock);
         }
     }
 
+    /**
+     * Drops all cached metadata and statements of this collection. Must be
+     * called after every structural change.
+     */
+    private void invalidateMetadata() {
+        this.attributes = new HashMap<>();
+        MetadataCache.invalidate(this.schema, this.name);
+        DynRecordsPostgres.invalidateStatements(this.schema, this.name);
+        ResultCache.invalidate(this.schema, this.name);
+    }
+
     @Override
     public List<String> getRefercingTablesOfAttribute(Attribute attribute) throws DynException {
+        MetadataCache.Entry cached = MetadataCache.get(this.schema, this.name);
+        if (cached != null && cached.getReferencingTables(attribute.getName()) != null) {
+            return cached.getReferencingTables(attribute.getName());
+        }
         List<String> tables = new ArrayList();
         try (Statement stmt = this.con.createStatement(); ResultSet rs = stmt.executeQuery(
                 "SELECT DISTINCT conrelid::regclass AS referencing_table\n"
@@ -574,6 +682,9 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
             de.addSuppressed(ex);
             throw de;
         }
+        if (cached != null) {
+            cached.putReferencingTables(attribute.getName(), tables);
+        }
         return tables;
     }
 
@@ -671,4 +782,476 @@ public final class DynCollectionPostgres extends DynPostgres implements DynColle
         }
         return null;
     }
+
+    @Override
+    public List<Index> getIndexes() throws DynException {
+        String sql = "SELECT i.relname AS name, am.amname AS method, ix.indisunique AS isunique, ix.indisprimary AS isprimary, "
+                + "ix.indisvalid AS isvalid, pg_get_indexdef(ix.indexrelid) AS definition, "
+                + "ARRAY(SELECT a.attname FROM unnest(ix.indkey) WITH ORDINALITY AS k(attnum, ord) "
+                + "JOIN pg_attribute a ON a.attrelid = ix.indrelid AND a.attnum = k.attnum ORDER BY k.ord)::text[] AS attributes "
+                + "FROM pg_index ix JOIN pg_class i ON i.oid = ix.indexrelid JOIN pg_am am ON am.oid = i.relam "
+                + "WHERE ix.indrelid = to_regclass(?) ORDER BY i.relname";
+        List<Index> indexes = new ArrayList<>();
+        try (PreparedStatement pstmt = this.con.prepareStatement(sql)) {
+            pstmt.setString(1, "\"" + this.schema + "\".\"" + this.name + "\"");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Index index = new Index();
+                    index.setName(rs.getString("name"));
+                    String method = rs.getString("method");
+                    if (method.equals("gin") && rs.getString("definition").contains("gin_trgm_ops")) {
+                        method = "trgm";
+                    }
+                    index.setMethod(method);
+                    index.setIsUnique(rs.getBoolean("isunique"));
+                    index.setIsPrimary(rs.getBoolean("isprimary"));
+                    index.setIsValid(rs.getBoolean("isvalid"));
+                    for (String curAttr : (String[]) rs.getArray("attributes").getArray()) {
+                        index.getAttributes().add(curAttr);
+                    }
+                    indexes.add(index);
+                }
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not get indexes of >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+        return indexes;
+    }
+
+    @Override
+    public String createIndex(Index index, boolean concurrently) throws DynException {
+        if (index.getAttributes() == null || index.getAttributes().isEmpty()) {
+            throw new DynException("The index does not contain attributes.");
+        }
+        String method = index.getMethod() != null ? index.getMethod().toLowerCase() : "btree";
+        String using;
+        String opclass = "";
+        switch (method) {
+            case "btree":
+            case "brin":
+            case "gist":
+                using = method;
+                break;
+            case "trgm":
+                using = "gin";
+                opclass = " gin_trgm_ops";
+                break;
+            default:
+                throw new DynException("The index method >" + method + "< is not supported. Use btree, brin, gist or trgm.");
+        }
+        Map<String, Attribute> attrs = this.getAttributes();
+        StringBuilder cols = new StringBuilder();
+        String name = index.getName();
+        if (name == null || name.isBlank()) {
+            name = this.name + "_" + String.join("_", index.getAttributes()) + "_" + method + "_idx";
+            // Identifiers are limited to 63 bytes
+            if (name.length() > 63) {
+                name = name.substring(0, 54) + "_" + Integer.toHexString(name.hashCode());
+            }
+        }
+        for (String curAttr : index.getAttributes()) {
+            if (!attrs.containsKey(curAttr)) {
+                throw new DynException("The attribute >" + curAttr + "< does not exist in >" + this.schema + "." + this.name + "<.");
+            }
+            if (cols.length() > 0) {
+                cols.append(", ");
+            }
+            cols.append("\"").append(curAttr).append("\"").append(opclass);
+        }
+        if (concurrently && this.isPartitionedTable()) {
+            // Postgres can not create indexes on partitioned tables concurrently
+            concurrently = false;
+            this.warnings.add("The index >" + name + "< is created without CONCURRENTLY, because >"
+                    + this.schema + "." + this.name + "< is partitioned. Writes are blocked while it is built.");
+        }
+        name = name.replace("\"", "");
+        // A failed concurrent build leaves an invalid index, that IF NOT EXISTS would keep
+        boolean dropInvalid = false;
+        for (Index curIndex : this.getIndexes()) {
+            if (curIndex.getName().equals(name) && !curIndex.isValid()) {
+                dropInvalid = true;
+            }
+        }
+        String sql = "CREATE " + (index.isUnique() ? "UNIQUE " : "") + "INDEX "
+                + (concurrently ? "CONCURRENTLY " : "") + "IF NOT EXISTS \"" + name + "\" ON \""
+                + this.schema + "\".\"" + this.name + "\" USING " + using + " (" + cols + ")";
+        try {
+            // Concurrent index creation is not possible inside a transaction
+            this.con.setAutoCommit(true);
+            try (Statement stmt = this.con.createStatement()) {
+                if (dropInvalid) {
+                    String dropSql = "DROP INDEX " + (concurrently ? "CONCURRENTLY " : "")
+                            + "IF EXISTS \"" + this.schema + "\".\"" + name + "\"";
+                    Message msg = new Message("Rebuilding invalid index >" + name + "<. SQL: " + dropSql, MessageLevel.WARNING);
+                    Logger.addMessage(msg);
+                    stmt.executeUpdate(dropSql);
+                    this.warnings.add("The invalid index >" + name + "< left by a failed build was dropped and is rebuilt.");
+                }
+                if (method.equals("trgm")) {
+                    stmt.executeUpdate("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+                }
+                Message msg = new Message("SQL: " + sql, MessageLevel.INFO);
+                Logger.addDebugMessage(msg);
+                stmt.executeUpdate(sql);
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not create index >" + name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+        return name;
+    }
+
+    @Override
+    public void dropIndex(String name) throws DynException {
+        boolean found = false;
+        for (Index curIndex : this.getIndexes()) {
+            if (curIndex.getName().equals(name)) {
+                if (curIndex.isPrimary()) {
+                    throw new DynException("The index >" + name + "< is the primary key and can not be deleted.");
+                }
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new DynException("The index >" + name + "< does not exist on >" + this.schema + "." + this.name + "<.");
+        }
+        // Indexes on partitioned tables can not be dropped concurrently
+        String concurrently = this.isPartitionedTable() ? "" : "CONCURRENTLY ";
+        try {
+            this.con.setAutoCommit(true);
+            try (Statement stmt = this.con.createStatement()) {
+                stmt.executeUpdate("DROP INDEX " + concurrently + "IF EXISTS \"" + this.schema + "\".\"" + name + "\"");
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not delete index >" + name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    /**
+     * Checks if the table of the collection is a partitioned table
+     *
+     * @return true if the table is partitioned
+     * @throws DynException
+     */
+    private boolean isPartitionedTable() throws DynException {
+        String sql = "SELECT relkind FROM pg_class WHERE oid = to_regclass(?)";
+        try (PreparedStatement pstmt = this.con.prepareStatement(sql)) {
+            pstmt.setString(1, "\"" + this.schema + "\".\"" + this.name + "\"");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && "p".equals(rs.getString("relkind"));
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not get kind of table >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    @Override
+    public double getCorrelation(String attribute) throws DynException {
+        String sql = "SELECT correlation FROM pg_stats WHERE schemaname = ? AND tablename = ? AND attname = ?";
+        try (PreparedStatement pstmt = this.con.prepareStatement(sql)) {
+            pstmt.setString(1, this.schema);
+            pstmt.setString(2, this.name);
+            pstmt.setString(3, attribute);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    double correlation = rs.getDouble("correlation");
+                    return rs.wasNull() ? Double.NaN : correlation;
+                }
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not get statistics of >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Checks if the partitioning fits to the collection definition
+     *
+     * @param table Collection definition
+     * @param partitioning Partitioning
+     * @throws DynException If the partitioning is not valid
+     */
+    private void checkPartitioning(DataCollection table, Partitioning partitioning) throws DynException {
+        if (partitioning.getInterval() == null
+                || !List.of("day", "week", "month").contains(partitioning.getInterval().toLowerCase())) {
+            throw new DynException("The partition interval >" + partitioning.getInterval() + "< is not supported. Use day, week or month.");
+        }
+        if (partitioning.getPremake() < 1) {
+            throw new DynException("The number of partitions to create ahead must be at least 1.");
+        }
+        if (partitioning.getRetention() < 0) {
+            throw new DynException("The retention must not be negative.");
+        }
+        for (Attribute curAttr : table.getAttributes()) {
+            if (curAttr.getName().equals(partitioning.getAttribute())) {
+                String type = curAttr.getType().toLowerCase();
+                if (!type.startsWith("timestamp") && !type.equals("date")) {
+                    throw new DynException("The partition attribute >" + partitioning.getAttribute()
+                            + "< must be of type timestamp, timestamptz or date.");
+                }
+                return;
+            }
+        }
+        throw new DynException("The partition attribute >" + partitioning.getAttribute() + "< is not defined.");
+    }
+
+    /**
+     * Gets the name of a partition. The name of the collection is shortened
+     * if needed to fit into the identifier length.
+     *
+     * @param table Name of the partitioned table
+     * @param suffix Suffix of the partition (start date or default)
+     * @return Name of the partition
+     */
+    private static String getPartitionName(String table, String suffix) {
+        String prefix = table.length() > 52 ? table.substring(0, 52) : table;
+        return prefix + "_p" + suffix;
+    }
+
+    /**
+     * Gets the start of the interval containing the given date
+     */
+    private static LocalDate getIntervalStart(LocalDate date, String interval) {
+        switch (interval) {
+            case "day":
+                return date;
+            case "week":
+                return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            default:
+                return date.withDayOfMonth(1);
+        }
+    }
+
+    /**
+     * Gets the start of the interval following the interval starting at the
+     * given date
+     */
+    private static LocalDate getNextIntervalStart(LocalDate start, String interval) {
+        switch (interval) {
+            case "day":
+                return start.plusDays(1);
+            case "week":
+                return start.plusWeeks(1);
+            default:
+                return start.plusMonths(1);
+        }
+    }
+
+    @Override
+    public Partitioning getPartitioning() throws DynException {
+        String sql = "SELECT obj_description(to_regclass(?), 'pg_class') AS comment";
+        try (PreparedStatement pstmt = this.con.prepareStatement(sql)) {
+            pstmt.setString(1, "\"" + this.schema + "\".\"" + this.name + "\"");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String comment = rs.getString("comment");
+                if (comment == null || !comment.startsWith(PARTITIONING_COMMENT)) {
+                    return null;
+                }
+                String[] parts = comment.substring(PARTITIONING_COMMENT.length()).split(";");
+                if (parts.length < 4) {
+                    return null;
+                }
+                Partitioning partitioning = new Partitioning(parts[0], parts[1]);
+                partitioning.setPremake(Integer.parseInt(parts[2]));
+                partitioning.setRetention(Integer.parseInt(parts[3]));
+                return partitioning;
+            }
+        } catch (SQLException | NumberFormatException ex) {
+            DynException de = new DynException("Could not get partitioning of >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> maintainPartitions() throws DynException {
+        Partitioning partitioning = this.getPartitioning();
+        if (partitioning == null) {
+            throw new DynException("The collection >" + this.schema + "." + this.name + "< is not partitioned.");
+        }
+        String interval = partitioning.getInterval();
+        String parent = "\"" + this.schema + "\".\"" + this.name + "\"";
+        String partPrefix = getPartitionName(this.name, "");
+        Map<String, List<String>> changes = new LinkedHashMap<>();
+        List<String> createdParts = new ArrayList<>();
+        List<String> droppedParts = new ArrayList<>();
+        List<String> failedParts = new ArrayList<>();
+        changes.put("created", createdParts);
+        changes.put("dropped", droppedParts);
+        changes.put("failed", failedParts);
+
+        Lock lock = null;
+        try {
+            // Get existing partitions
+            List<String> existing = new ArrayList<>();
+            try (PreparedStatement pstmt = this.con.prepareStatement(
+                    "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass(?)")) {
+                pstmt.setString(1, parent);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(rs.getString("relname"));
+                    }
+                }
+            }
+
+            lock = lockCollection(this.schema, this.name);
+            this.con.setAutoCommit(true);
+            try (Statement stmt = this.con.createStatement()) {
+                // Create current and upcoming partitions
+                LocalDate start = getIntervalStart(LocalDate.now(), interval);
+                for (int i = 0; i <= partitioning.getPremake(); i++) {
+                    LocalDate end = getNextIntervalStart(start, interval);
+                    String partName = partPrefix + start.format(PARTITION_DATE);
+                    if (!existing.contains(partName)) {
+                        String sql = "CREATE TABLE IF NOT EXISTS \"" + this.schema + "\".\"" + partName + "\" PARTITION OF "
+                                + parent + " FOR VALUES FROM ('" + start + "') TO ('" + end + "')";
+                        try {
+                            stmt.executeUpdate(sql);
+                            createdParts.add(partName);
+                        } catch (SQLException ex) {
+                            if (!"23514".equals(ex.getSQLState())) {
+                                throw ex;
+                            }
+                            // Default partition contains datasets of this range, move them into the new partition
+                            try {
+                                this.createPartitionFromDefault(parent, partName, start, end, partitioning.getAttribute());
+                                createdParts.add(partName);
+                            } catch (SQLException ex1) {
+                                failedParts.add(partName);
+                                this.warnings.add("Could not create partition >" + partName + "<: " + ex1.getLocalizedMessage());
+                            }
+                        }
+                    }
+                    start = end;
+                }
+
+                // Drop partitions ended before the retention time
+                if (partitioning.getRetention() > 0) {
+                    LocalDate cutoff = getIntervalStart(LocalDate.now(), interval);
+                    for (int i = 0; i < partitioning.getRetention(); i++) {
+                        cutoff = switch (interval) {
+                            case "day" ->
+                                cutoff.minusDays(1);
+                            case "week" ->
+                                cutoff.minusWeeks(1);
+                            default ->
+                                cutoff.minusMonths(1);
+                        };
+                    }
+                    for (String curPart : existing) {
+                        if (!curPart.startsWith(partPrefix)) {
+                            continue;
+                        }
+                        LocalDate partStart;
+                        try {
+                            partStart = LocalDate.parse(curPart.substring(partPrefix.length()), PARTITION_DATE);
+                        } catch (RuntimeException ex) {
+                            // Default partition or partition not managed by SmartData
+                            continue;
+                        }
+                        if (!getNextIntervalStart(partStart, interval).isAfter(cutoff)) {
+                            stmt.executeUpdate("DROP TABLE \"" + this.schema + "\".\"" + curPart + "\"");
+                            droppedParts.add(curPart);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not maintain partitions of >" + this.schema + "." + this.name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            unlockCollection(lock);
+        }
+        if (!droppedParts.isEmpty()) {
+            ResultCache.invalidate(this.schema, this.name);
+        }
+        if (!createdParts.isEmpty() || !droppedParts.isEmpty()) {
+            Message msg = new Message("Partitions of >" + this.schema + "." + this.name + "< created: " + createdParts
+                    + " dropped: " + droppedParts, MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+        }
+        return changes;
+    }
+
+    /**
+     * Creates a partition for a range that already has datasets in the
+     * default partition. The datasets are moved into a new table, that is
+     * then attached as partition. All is done in one transaction.
+     *
+     * @param parent Quoted name of the partitioned table
+     * @param partName Name of the new partition
+     * @param start Start of the range (inclusive)
+     * @param end End of the range (exclusive)
+     * @param attribute Partition attribute
+     * @throws SQLException
+     */
+    private void createPartitionFromDefault(String parent, String partName, LocalDate start, LocalDate end, String attribute) throws SQLException {
+        String part = "\"" + this.schema + "\".\"" + partName + "\"";
+        String defaultPart = "\"" + this.schema + "\".\"" + getPartitionName(this.name, "default") + "\"";
+        this.con.setAutoCommit(false);
+        try (Statement stmt = this.con.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE " + part + " (LIKE " + parent + " INCLUDING DEFAULTS)");
+            int moved = stmt.executeUpdate("WITH moved AS (DELETE FROM " + defaultPart + " WHERE \"" + attribute + "\" >= '" + start
+                    + "' AND \"" + attribute + "\" < '" + end + "' RETURNING *) INSERT INTO " + part + " SELECT * FROM moved");
+            stmt.executeUpdate("ALTER TABLE " + parent + " ATTACH PARTITION " + part
+                    + " FOR VALUES FROM ('" + start + "') TO ('" + end + "')");
+            this.con.commit();
+            Message msg = new Message("Moved " + moved + " datasets from the default partition of >" + this.schema + "." + this.name
+                    + "< into >" + partName + "<", MessageLevel.INFO);
+            Logger.addMessage(msg);
+        } catch (SQLException ex) {
+            this.con.rollback();
+            throw ex;
+        } finally {
+            this.con.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public List<Rollup> getRollups() throws DynException {
+        return RollupManager.getRollups(this.con, this.schema, this.name);
+    }
+
+    @Override
+    public String createRollup(Rollup rollup) throws DynException {
+        Lock lock = lockCollection(this.schema, this.name);
+        try {
+            return RollupManager.create(this.con, this.schema, this.name, this.getAttributes(), rollup);
+        } finally {
+            unlockCollection(lock);
+        }
+    }
+
+    @Override
+    public void deleteRollup(String name) throws DynException {
+        Lock lock = lockCollection(this.schema, this.name);
+        try {
+            RollupManager.drop(this.con, this.schema, this.name, name);
+        } finally {
+            unlockCollection(lock);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> refreshRollups() throws DynException {
+        Map<String, Integer> refreshed = new LinkedHashMap<>();
+        Map<String, Attribute> attributes = this.getAttributes();
+        for (Rollup curRollup : this.getRollups()) {
+            refreshed.put(curRollup.getName(), RollupManager.refresh(this.con, this.schema, this.name, attributes, curRollup, false));
+        }
+        return refreshed;
+    }
 }
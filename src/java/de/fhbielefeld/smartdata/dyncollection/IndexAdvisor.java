@@ -0,0 +1,303 @@
+package de.fhbielefeld.smartdata.dyncollection;
+
+import de.fhbielefeld.scl.logger.Logger;
+import de.fhbielefeld.scl.logger.message.Message;
+import de.fhbielefeld.scl.logger.message.MessageLevel;
+import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dbo.Index;
+import de.fhbielefeld.smartdata.dyn.DynFactory;
+import de.fhbielefeld.smartdata.dynrecords.filter.BetweenFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.BoundingBoxFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.ContainFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.EndsWithFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
+import de.fhbielefeld.smartdata.dynrecords.filter.GreaterOrEqualFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.GreaterThanFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.LowerOrEqualFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.LowerThanFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.RadiusFilter;
+import de.fhbielefeld.smartdata.dynrecords.filter.StartsWithFilter;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts which attributes are used in filters of which kind and recommends
+ * indexes for attributes that are filtered often but not indexed.
+ *
+ * Geometry filters are served best by a gist index, text search filters (cs,
+ * sw, ew) by a trigram index and range filters on timestamps that are
+ * stored in insertion order (correlation above 0.9) by a small brin index.
+ * All other filters get a btree index.
+ *
+ * An attribute is recommended after indexadvisor.minusage (default 1000)
+ * filtered queries. With indexadvisor.autocreate=true (default false) the
+ * recommended index is created concurrently in background as soon as the
+ * usage reaches this threshold. While the usage stays above the threshold the
+ * creation is attempted again at most every indexadvisor.retryinterval
+ * seconds (default 300), so failed creations are retried.
+ *
+ * @author Florian Fehring
+ */
+@WebListener
+public class IndexAdvisor implements ServletContextListener {
+
+    private static final Set<String> TEMPORAL_TYPES = Set.of("timestamp", "timestamptz",
+            "timestamp without time zone", "timestamp with time zone", "date");
+    // Usage counters per schema.table and attribute|method
+    private static final Map<String, Map<String, AtomicLong>> usages = new ConcurrentHashMap<>();
+    // Indexes already created automatically (schema.table|attribute|method)
+    private static final Set<String> autoCreated = ConcurrentHashMap.newKeySet();
+    // Collections (schema.table) with a creation running or queued
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // Time of the last creation attempt per collection (schema.table)
+    private static final Map<String, Long> lastAttempts = new ConcurrentHashMap<>();
+    private static ExecutorService executor = null;
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        synchronized (IndexAdvisor.class) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "SmartData-IndexAdvisor");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        synchronized (IndexAdvisor.class) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    private static long minUsage() {
+        return Configuration.getInstance().getIntProperty("indexadvisor.minusage", 1000);
+    }
+
+    private static boolean isAutoCreate() {
+        return Configuration.getInstance().getBooleanProperty("indexadvisor.autocreate", false);
+    }
+
+    private static long retryInterval() {
+        return Configuration.getInstance().getIntProperty("indexadvisor.retryinterval", 300) * 1000L;
+    }
+
+    /**
+     * Gets the index method fitting a filter
+     *
+     * @param filter Filter
+     * @return Index method (gist, trgm, range or btree), where range denotes a
+     * range filter that may be served by a brin index
+     */
+    private static String getMethod(Filter filter) {
+        if (filter.getClass().getSimpleName().endsWith("GeoFilter")
+                || filter instanceof RadiusFilter || filter instanceof BoundingBoxFilter) {
+            return "gist";
+        }
+        if (filter instanceof ContainFilter || filter instanceof StartsWithFilter
+                || filter instanceof EndsWithFilter) {
+            return "trgm";
+        }
+        if (filter instanceof BetweenFilter || filter instanceof GreaterThanFilter
+                || filter instanceof GreaterOrEqualFilter || filter instanceof LowerThanFilter
+                || filter instanceof LowerOrEqualFilter) {
+            return "range";
+        }
+        return "btree";
+    }
+
+    /**
+     * Notes the usage of filters in a query
+     *
+     * @param schema Name of the schema
+     * @param table Name of the table
+     * @param filters Used filters
+     */
+    public static void recordUsage(String schema, String table, Collection<Filter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return;
+        }
+        String collKey = schema + "." + table;
+        Map<String, AtomicLong> collUsages = usages.computeIfAbsent(collKey, k -> new ConcurrentHashMap<>());
+        long min = minUsage();
+        for (Filter curFilter : filters) {
+            String attr = curFilter.getAttribute();
+            if (attr == null) {
+                continue;
+            }
+            String key = attr + "|" + getMethod(curFilter);
+            long count = collUsages.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+            if (count >= min && isAutoCreate()) {
+                scheduleCreation(schema, table);
+            }
+        }
+    }
+
+    /**
+     * Creates the recommended indexes of a collection in background. Does
+     * nothing if a creation for the collection is already running or the last
+     * attempt is more recent than the retry interval.
+     *
+     * @param schema Name of the schema
+     * @param table Name of the table
+     */
+    private static void scheduleCreation(String schema, String table) {
+        String collKey = schema + "." + table;
+        long now = System.currentTimeMillis();
+        Long lastAttempt = lastAttempts.get(collKey);
+        if (lastAttempt != null && now - lastAttempt < retryInterval()) {
+            return;
+        }
+        if (!inFlight.add(collKey)) {
+            return;
+        }
+        synchronized (IndexAdvisor.class) {
+            if (executor == null) {
+                inFlight.remove(collKey);
+                return;
+            }
+            lastAttempts.put(collKey, now);
+            executor.submit(() -> {
+                try (DynCollection dync = DynFactory.getDynCollection(schema, table)) {
+                    for (Map<String, Object> curRecom : getRecommendations(schema, dync)) {
+                        String autoKey = schema + "." + table + "|" + curRecom.get("attribute") + "|" + curRecom.get("method");
+                        if (autoCreated.contains(autoKey)) {
+                            continue;
+                        }
+                        Index index = new Index((String) curRecom.get("method"), (String) curRecom.get("attribute"));
+                        try {
+                            String name = dync.createIndex(index, true);
+                            // Only noted on success, so failed creations are retried on the next occasion
+                            autoCreated.add(autoKey);
+                            Message msg = new Message("Created index >" + name + "< on >" + schema + "." + table + "<.", MessageLevel.INFO);
+                            Logger.addMessage(msg);
+                        } catch (DynException ex) {
+                            Message msg = new Message("Could not create recommended index on >" + schema + "." + table + "."
+                                    + curRecom.get("attribute") + "<: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                            Logger.addMessage(msg);
+                        }
+                    }
+                } catch (DynException | RuntimeException ex) {
+                    Message msg = new Message("Could not create recommended indexes on >" + schema + "." + table + "<: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                    Logger.addMessage(msg);
+                } finally {
+                    inFlight.remove(collKey);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the recommended indexes for a collection. Attributes that are
+     * already the first attribute of a fitting index are not recommended.
+     *
+     * @param schema Name of the schema the collection belongs to
+     * @param dync Collection to get recommendations for
+     * @return List of recommendations with attribute, method, usage and sql
+     * @throws DynException
+     */
+    public static List<Map<String, Object>> getRecommendations(String schema, DynCollection dync) throws DynException {
+        List<Map<String, Object>> recommendations = new ArrayList<>();
+        Map<String, AtomicLong> collUsages = usages.get(schema + "." + dync.getName());
+        if (collUsages == null) {
+            return recommendations;
+        }
+        long min = minUsage();
+        Map<String, Attribute> attributes = dync.getAttributes();
+        List<Index> indexes = dync.getIndexes();
+        // Indexes on partitioned tables can not be created concurrently
+        String concurrently = dync.getPartitioning() == null ? "CONCURRENTLY " : "";
+        for (Map.Entry<String, AtomicLong> curUsage : collUsages.entrySet()) {
+            long count = curUsage.getValue().get();
+            if (count < min) {
+                continue;
+            }
+            String[] parts = curUsage.getKey().split("\\|", 2);
+            String attr = parts[0];
+            String method = parts[1];
+            Attribute attribute = attributes.get(attr);
+            if (attribute == null) {
+                continue;
+            }
+            if (method.equals("range")) {
+                method = "btree";
+                String type = attribute.getType() != null ? attribute.getType().toLowerCase() : "";
+                if (TEMPORAL_TYPES.contains(type)) {
+                    double correlation = dync.getCorrelation(attr);
+                    if (!Double.isNaN(correlation) && Math.abs(correlation) > 0.9) {
+                        method = "brin";
+                    }
+                }
+            }
+            if (isCovered(indexes, attr, method)) {
+                continue;
+            }
+            Map<String, Object> recom = new LinkedHashMap<>();
+            recom.put("attribute", attr);
+            recom.put("method", method);
+            recom.put("usage", count);
+            String using = method.equals("trgm") ? "gin" : method;
+            String opclass = method.equals("trgm") ? " gin_trgm_ops" : "";
+            recom.put("sql", "CREATE INDEX " + concurrently + "ON \"" + schema + "\".\"" + dync.getName()
+                    + "\" USING " + using + " (\"" + attr + "\"" + opclass + ")");
+            recommendations.add(recom);
+        }
+        return recommendations;
+    }
+
+    /**
+     * Checks if an attribute is the first attribute of a valid index usable
+     * for the given method
+     */
+    private static boolean isCovered(List<Index> indexes, String attr, String method) {
+        for (Index curIndex : indexes) {
+            // Invalid indexes are left over from failed builds and not used by the planner
+            if (!curIndex.isValid()) {
+                continue;
+            }
+            if (curIndex.getAttributes().isEmpty() || !curIndex.getAttributes().get(0).equals(attr)) {
+                continue;
+            }
+            String idxMethod = curIndex.getMethod();
+            // A btree index also serves range filters that would fit a brin index
+            if (idxMethod.equals(method) || (method.equals("brin") && idxMethod.equals("btree"))
+                    || (method.equals("gist") && idxMethod.equals("spgist"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the statistics of the advisor
+     *
+     * @return Map with statistics
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("minUsage", minUsage());
+        stats.put("autoCreate", isAutoCreate());
+        stats.put("collections", usages.size());
+        stats.put("autoCreated", autoCreated.size());
+        return stats;
+    }
+}
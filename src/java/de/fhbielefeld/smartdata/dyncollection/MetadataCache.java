@@ -0,0 +1,204 @@
+package de.fhbielefeld.smartdata.dyncollection;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application wide cache for the metadata (attributes and references) of
+ * collections, keyed by storage.collection. Entries expire after
+ * metadatacache.ttl seconds (default 300, 0 disables the cache) and are
+ * invalidated when the structure of a collection changes.
+ *
+ * Every key has a version that is increased on invalidation. Metadata loaded
+ * while an invalidation happened is not stored, so the cache never holds
+ * metadata older than the last change.
+ *
+ * @author Florian Fehring
+ */
+public class MetadataCache {
+
+    /**
+     * Cached metadata of one collection
+     */
+    public static class Entry {
+
+        private final long version;
+        private final long loaded;
+        private final Map<String, Attribute> attributes;
+        private final Map<String, List<String>> referencingTables = new ConcurrentHashMap<>();
+
+        private Entry(long version, Map<String, Attribute> attributes) {
+            this.version = version;
+            this.loaded = System.currentTimeMillis();
+            this.attributes = Collections.unmodifiableMap(attributes);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Map<String, Attribute> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Gets the cached names of the tables referencing an attribute
+         *
+         * @param attribute Name of the attribute
+         * @return List of table names or null if not cached
+         */
+        public List<String> getReferencingTables(String attribute) {
+            return referencingTables.get(attribute);
+        }
+
+        public void putReferencingTables(String attribute, List<String> tables) {
+            referencingTables.put(attribute, Collections.unmodifiableList(tables));
+        }
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    private MetadataCache() {
+    }
+
+    /**
+     * Checks if the cache is enabled (metadatacache.ttl greater than 0)
+     *
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return ttl() > 0;
+    }
+
+    /**
+     * Gets the time to live from configuration
+     *
+     * @return Time to live in milliseconds
+     */
+    private static long ttl() {
+        return Configuration.getInstance().getIntProperty("metadatacache.ttl", 300) * 1000L;
+    }
+
+    private static String key(String schema, String name) {
+        return schema + "." + name;
+    }
+
+    /**
+     * Gets the cached metadata of a collection
+     *
+     * @param schema Name of the storage
+     * @param name Name of the collection
+     * @return Cached entry or null if there is no valid one
+     */
+    public static Entry get(String schema, String name) {
+        long ttl = ttl();
+        if (ttl <= 0) {
+            return null;
+        }
+        String key = key(schema, name);
+        Entry entry = entries.get(key);
+        if (entry == null
+                || entry.version != getVersion(schema, name)
+                || System.currentTimeMillis() - entry.loaded > ttl) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Gets the current version of the metadata of a collection. Must be read
+     * before loading the metadata from database.
+     *
+     * @param schema Name of the storage
+     * @param name Name of the collection
+     * @return Version
+     */
+    public static long getVersion(String schema, String name) {
+        return versions.computeIfAbsent(key(schema, name), k -> new AtomicLong()).get();
+    }
+
+    /**
+     * Stores the metadata of a collection, if there was no invalidation since
+     * the given version was read.
+     *
+     * @param schema Name of the storage
+     * @param name Name of the collection
+     * @param version Version read before loading the metadata
+     * @param attributes Attributes of the collection
+     * @return Created entry, or null if not stored
+     */
+    public static Entry put(String schema, String name, long version, Map<String, Attribute> attributes) {
+        if (!isEnabled() || version != getVersion(schema, name)) {
+            return null;
+        }
+        Entry entry = new Entry(version, new LinkedHashMap<>(attributes));
+        entries.put(key(schema, name), entry);
+        return entry;
+    }
+
+    /**
+     * Invalidates the metadata of a collection. Because references to the
+     * collection are stored at other collections, cached references of all
+     * collections are dropped too.
+     *
+     * @param schema Name of the storage
+     * @param name Name of the collection (null for all collections of the
+     * storage)
+     */
+    public static void invalidate(String schema, String name) {
+        invalidations.incrementAndGet();
+        if (name != null) {
+            versions.computeIfAbsent(key(schema, name), k -> new AtomicLong()).incrementAndGet();
+            entries.remove(key(schema, name));
+        } else {
+            String prefix = schema + ".";
+            for (Map.Entry<String, AtomicLong> curVersion : versions.entrySet()) {
+                if (curVersion.getKey().startsWith(prefix)) {
+                    curVersion.getValue().incrementAndGet();
+                    entries.remove(curVersion.getKey());
+                }
+            }
+        }
+        for (Entry curEntry : entries.values()) {
+            curEntry.referencingTables.clear();
+        }
+    }
+
+    /**
+     * Invalidates the metadata of all collections
+     */
+    public static void invalidateAll() {
+        invalidations.incrementAndGet();
+        for (AtomicLong curVersion : versions.values()) {
+            curVersion.incrementAndGet();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Gets the statistics of the cache
+     *
+     * @return Map with size, ttl, hits, misses and invalidations
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("ttl_s", ttl() / 1000);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+}
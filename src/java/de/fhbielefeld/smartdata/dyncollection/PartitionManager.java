@@ -0,0 +1,131 @@
+package de.fhbielefeld.smartdata.dyncollection;
+
+import de.fhbielefeld.scl.logger.Logger;
+import de.fhbielefeld.scl.logger.message.Message;
+import de.fhbielefeld.scl.logger.message.MessageLevel;
+import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.dyn.DynFactory;
+import de.fhbielefeld.smartdata.dynstorage.DynStorage;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains the partitions of partitioned collections in background: creates
+ * the partitions needed ahead and drops partitions outside the retention
+ * time.
+ *
+ * Runs every partitioning.checkinterval seconds (default 3600), starting
+ * shortly after deployment. Can be disabled with partitioning.enabled=false.
+ *
+ * @author Florian Fehring
+ */
+@WebListener
+public class PartitionManager implements ServletContextListener {
+
+    private static ScheduledExecutorService scheduler = null;
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long lastRun = 0;
+    // Collections whose last maintenance failed, with the reason
+    private static final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        Configuration conf = Configuration.getInstance();
+        if (!conf.getBooleanProperty("partitioning.enabled", true) || conf.isMongo()) {
+            return;
+        }
+        int interval = Math.max(conf.getIntProperty("partitioning.checkinterval", 3600), 60);
+        synchronized (PartitionManager.class) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "SmartData-PartitionManager");
+                    t.setDaemon(true);
+                    return t;
+                });
+                scheduler.scheduleWithFixedDelay(PartitionManager::maintainAll, 60, interval, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        synchronized (PartitionManager.class) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Maintains the partitions of all partitioned collections
+     */
+    public static void maintainAll() {
+        Map<String, List<String>> collections;
+        try (DynStorage dyns = DynFactory.getDynStorage()) {
+            collections = dyns.getPartitionedCollections();
+        } catch (DynException | RuntimeException ex) {
+            Message msg = new Message("Could not get partitioned collections: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+            Logger.addMessage(msg);
+            return;
+        }
+        for (Map.Entry<String, List<String>> curStorage : collections.entrySet()) {
+            for (String curCollection : curStorage.getValue()) {
+                String fullName = curStorage.getKey() + "." + curCollection;
+                try (DynCollection dync = DynFactory.getDynCollection(curStorage.getKey(), curCollection)) {
+                    Map<String, List<String>> changes = dync.maintainPartitions();
+                    created.addAndGet(changes.get("created").size());
+                    dropped.addAndGet(changes.get("dropped").size());
+                    // Failed partitions are errors, they are retried on every run until solved
+                    MessageLevel level = changes.get("failed").isEmpty() ? MessageLevel.WARNING : MessageLevel.ERROR;
+                    for (String curWarning : dync.getWarnings()) {
+                        Message msg = new Message(curWarning, level);
+                        Logger.addMessage(msg);
+                    }
+                    if (changes.get("failed").isEmpty()) {
+                        failures.remove(fullName);
+                    } else {
+                        failures.put(fullName, "Could not create partitions " + changes.get("failed"));
+                    }
+                } catch (DynException | RuntimeException ex) {
+                    // Do not let one collection stop the maintenance of the others (or of later runs)
+                    failures.put(fullName, ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage());
+                    Message msg = new Message("Could not maintain partitions of >" + fullName + "<: "
+                            + ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                    Logger.addMessage(msg);
+                }
+            }
+        }
+        runs.incrementAndGet();
+        lastRun = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the statistics of the partition maintenance
+     *
+     * @return Map with statistics
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", scheduler != null);
+        stats.put("runs", runs.get());
+        stats.put("lastRun", lastRun);
+        stats.put("created", created.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failures", new TreeMap<>(failures));
+        return stats;
+    }
+}
@@ -0,0 +1,101 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options for handling datasets that conflict with existing ones on insert:
+ * update the existing dataset (upsert) or ignore the new one. Compiles to
+ * INSERT ... ON CONFLICT, so duplicates are handled by the database in the
+ * same statement and batches are not aborted.
+ *
+ * @author Florian Fehring
+ */
+public class ConflictHandling {
+
+    private final boolean update;
+    private final List<String> key = new ArrayList<>();
+
+    /**
+     * Creates conflict handling options
+     *
+     * @param action update or ignore
+     * @param key Commata separated attributes of the unique constraint, null
+     * for the identity attributes
+     * @throws DynException If the options are not valid
+     */
+    public ConflictHandling(String action, String key) throws DynException {
+        if (action == null || !(action.equalsIgnoreCase("update") || action.equalsIgnoreCase("ignore"))) {
+            throw new DynException("The conflict action >" + action + "< is not supported. Use update or ignore.");
+        }
+        this.update = action.equalsIgnoreCase("update");
+        if (key != null) {
+            for (String curKey : key.split(",")) {
+                if (!curKey.isBlank()) {
+                    this.key.add(curKey.trim());
+                }
+            }
+        }
+    }
+
+    public boolean isUpdate() {
+        return update;
+    }
+
+    /**
+     * Gets the part of the statement id for this options
+     *
+     * @return Statement id part
+     */
+    public String getStatementId() {
+        return "_onconflict" + (this.update ? "update" : "ignore") + this.key;
+    }
+
+    /**
+     * Creates the ON CONFLICT clause
+     *
+     * @param columns Attributes of the collection
+     * @param insertCols Attributes set by the insert
+     * @return Sql clause
+     * @throws DynException If the key is not valid
+     */
+    public String getClause(Map<String, Attribute> columns, Collection<String> insertCols) throws DynException {
+        List<String> keyCols = new ArrayList<>(this.key);
+        if (keyCols.isEmpty()) {
+            for (Attribute curAttr : columns.values()) {
+                if (curAttr.isIdentity()) {
+                    keyCols.add(curAttr.getName());
+                }
+            }
+            if (keyCols.isEmpty()) {
+                throw new DynException("The collection has no primary key, give a conflictkey.");
+            }
+        }
+        for (String curKey : keyCols) {
+            if (!columns.containsKey(curKey)) {
+                throw new DynException("The conflict key attribute >" + curKey + "< does not exist.");
+            }
+        }
+        StringBuilder sb = new StringBuilder(" ON CONFLICT (\"");
+        sb.append(String.join("\",\"", keyCols)).append("\")");
+        if (!this.update) {
+            return sb.append(" DO NOTHING").toString();
+        }
+        List<String> sets = new ArrayList<>();
+        for (String curCol : insertCols) {
+            Attribute attr = columns.get(curCol);
+            if (attr != null && !keyCols.contains(curCol) && !attr.isIdentity()) {
+                sets.add("\"" + curCol + "\" = EXCLUDED.\"" + curCol + "\"");
+            }
+        }
+        if (sets.isEmpty()) {
+            // Nothing to update, but the existing dataset should be returned
+            sets.add("\"" + keyCols.get(0) + "\" = EXCLUDED.\"" + keyCols.get(0) + "\"");
+        }
+        return sb.append(" DO UPDATE SET ").append(String.join(", ", sets)).toString();
+    }
+}
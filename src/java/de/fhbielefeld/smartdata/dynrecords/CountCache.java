@@ -0,0 +1,128 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application wide cache for exact counts (countonly requests). Counts are
+ * cached per statement and bound filter values, independent of the
+ * ResultCache, because a COUNT(*) over a large collection costs as much as
+ * reading it, while the cached value is only a few bytes.
+ *
+ * Counts are stored with the write version of their collections (see
+ * ResultCache.getVersion()) and become invalid as soon as datasets are
+ * written through SmartData. Writes of other clients are noticed only after
+ * countcache.ttl seconds (default 30). This is accepted for counts, because
+ * they are used for paging controls and overviews, where an estimate would
+ * be served otherwise. Set countcache.enabled=false if counts must be exact
+ * at any time. At most countcache.maxentries (default 10000) counts are
+ * kept, least recently used counts are evicted first.
+ *
+ * @author Florian Fehring
+ */
+public class CountCache {
+
+    private static class Entry {
+
+        private final String json;
+        private final long version;
+        private final long created;
+
+        private Entry(String json, long version) {
+            this.json = json;
+            this.version = version;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private CountCache() {
+    }
+
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty("countcache.enabled", true);
+    }
+
+    private static long ttl() {
+        return Configuration.getInstance().getIntProperty("countcache.ttl", 30) * 1000L;
+    }
+
+    private static int maxEntries() {
+        return Configuration.getInstance().getIntProperty("countcache.maxentries", 10000);
+    }
+
+    /**
+     * Gets a cached count
+     *
+     * @param key Key of the count (statement id and bound values)
+     * @param schema Name of the schema
+     * @param tables Names of the tables the count was read from
+     * @return Count result or null if not cached, expired or the collection
+     * was written since
+     */
+    public static synchronized String get(String key, String schema, Collection<String> tables) {
+        Entry entry = entries.get(key);
+        if (entry != null && (System.currentTimeMillis() - entry.created > ttl()
+                || entry.version != ResultCache.getVersion(schema, tables))) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.json;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a count to the cache
+     *
+     * @param key Key of the count
+     * @param version Write version of the collections, read before counting
+     * @param json Count result
+     */
+    public static synchronized void put(String key, long version, String json) {
+        entries.put(key, new Entry(json, version));
+        // Evict least recently used counts
+        int max = maxEntries();
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > max && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all counts
+     */
+    public static synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the statistics of the cache
+     *
+     * @return Map with statistics
+     */
+    public static synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("size", entries.size());
+        stats.put("maxEntries", maxEntries());
+        stats.put("ttl_s", ttl() / 1000);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,260 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a series of points ordered by x to a given number of points while
+ * keeping its visual shape. Points are added one by one while they are read
+ * from database, so the series is never held in memory completely.
+ *
+ * Supported methods are Largest-Triangle-Three-Buckets (lttb), which holds
+ * the points of two buckets at a time, and min/max per bucket (minmax), which
+ * holds two points per bucket.
+ *
+ * @author Florian Fehring
+ */
+public abstract class Downsampler {
+
+    /**
+     * One point of the series
+     */
+    public static class Point {
+
+        private final double x;
+        private final String xjson;
+        private final double y;
+
+        public Point(double x, String xjson, double y) {
+            this.x = x;
+            this.xjson = xjson;
+            this.y = y;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        /**
+         * Gets the original x value as json (e.g. quoted timestamp)
+         *
+         * @return Json representation of x
+         */
+        public String getXJson() {
+            return xjson;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    protected final int points;
+    protected final long total;
+    protected final List<Point> selected = new ArrayList<>();
+
+    /**
+     * Creates a downsampler
+     *
+     * @param method lttb or minmax
+     * @param points Number of points to deliver
+     * @param total Expected number of points in the series
+     * @return Downsampler
+     */
+    public static Downsampler create(String method, int points, long total) {
+        if ("minmax".equalsIgnoreCase(method)) {
+            return new MinMax(points, total);
+        }
+        return new Lttb(points, total);
+    }
+
+    protected Downsampler(int points, long total) {
+        this.points = points;
+        this.total = total;
+    }
+
+    /**
+     * Adds the next point of the series
+     *
+     * @param point Point with x greater or equal to the previous one
+     */
+    public abstract void add(Point point);
+
+    /**
+     * Ends the series
+     *
+     * @return Selected points ordered by x
+     */
+    public abstract List<Point> finish();
+
+    /**
+     * Largest-Triangle-Three-Buckets. The first and last point are always
+     * selected, from every bucket in between the point forming the largest
+     * triangle with the point selected from the previous bucket and the
+     * average of the next bucket is selected.
+     */
+    private static class Lttb extends Downsampler {
+
+        private final double every;
+        private long index = 0;
+        // Last added point, routed to its bucket when the next point arrives
+        private Point pending = null;
+        private Point previous = null;
+        private int curBucket = 0;
+        private List<Point> cur = new ArrayList<>();
+        private List<Point> next = new ArrayList<>();
+
+        private Lttb(int points, long total) {
+            super(Math.max(points, 3), total);
+            this.every = (double) (total - 2) / (this.points - 2);
+        }
+
+        @Override
+        public void add(Point point) {
+            if (this.total <= this.points) {
+                this.selected.add(point);
+                return;
+            }
+            if (this.pending != null) {
+                this.route(this.pending, this.index - 1);
+            }
+            this.pending = point;
+            this.index++;
+        }
+
+        private void route(Point point, long idx) {
+            if (idx == 0) {
+                this.selected.add(point);
+                this.previous = point;
+                return;
+            }
+            int bucket = (int) Math.min((idx - 1) / this.every, this.points - 3);
+            if (bucket <= this.curBucket) {
+                this.cur.add(point);
+            } else if (bucket == this.curBucket + 1) {
+                this.next.add(point);
+            } else {
+                this.select(this.cur, average(this.next));
+                this.cur = this.next;
+                this.next = new ArrayList<>();
+                this.next.add(point);
+                this.curBucket++;
+            }
+        }
+
+        /**
+         * Selects the point of a bucket forming the largest triangle
+         */
+        private void select(List<Point> bucket, Point following) {
+            if (bucket.isEmpty()) {
+                return;
+            }
+            Point best = bucket.get(0);
+            double maxArea = -1;
+            for (Point curPoint : bucket) {
+                double area = Math.abs((this.previous.x - following.x) * (curPoint.y - this.previous.y)
+                        - (this.previous.x - curPoint.x) * (following.y - this.previous.y));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = curPoint;
+                }
+            }
+            this.selected.add(best);
+            this.previous = best;
+        }
+
+        private static Point average(List<Point> bucket) {
+            double sumx = 0;
+            double sumy = 0;
+            for (Point curPoint : bucket) {
+                sumx += curPoint.x;
+                sumy += curPoint.y;
+            }
+            return new Point(sumx / bucket.size(), null, sumy / bucket.size());
+        }
+
+        @Override
+        public List<Point> finish() {
+            if (this.pending == null) {
+                return this.selected;
+            }
+            if (this.previous == null) {
+                // Only one point
+                this.selected.add(this.pending);
+                return this.selected;
+            }
+            if (!this.next.isEmpty()) {
+                this.select(this.cur, average(this.next));
+                this.select(this.next, this.pending);
+            } else {
+                this.select(this.cur, this.pending);
+            }
+            this.selected.add(this.pending);
+            return this.selected;
+        }
+    }
+
+    /**
+     * Delivers the points with minimum and maximum y of every bucket, so
+     * peaks are always visible.
+     */
+    private static class MinMax extends Downsampler {
+
+        private final double every;
+        private long index = 0;
+        private long curBucket = -1;
+        private Point min = null;
+        private Point max = null;
+
+        private MinMax(int points, long total) {
+            super(Math.max(points, 2), total);
+            this.every = (double) total / (this.points / 2);
+        }
+
+        @Override
+        public void add(Point point) {
+            if (this.total <= this.points) {
+                this.selected.add(point);
+                return;
+            }
+            long bucket = Math.min((long) (this.index / this.every), this.points / 2 - 1);
+            this.index++;
+            if (bucket != this.curBucket) {
+                this.flush();
+                this.curBucket = bucket;
+                this.min = point;
+                this.max = point;
+                return;
+            }
+            if (point.y < this.min.y) {
+                this.min = point;
+            }
+            if (point.y > this.max.y) {
+                this.max = point;
+            }
+        }
+
+        private void flush() {
+            if (this.min == null) {
+                return;
+            }
+            if (this.min == this.max) {
+                this.selected.add(this.min);
+            } else if (this.min.x <= this.max.x) {
+                this.selected.add(this.min);
+                this.selected.add(this.max);
+            } else {
+                this.selected.add(this.max);
+                this.selected.add(this.min);
+            }
+            this.min = null;
+            this.max = null;
+        }
+
+        @Override
+        public List<Point> finish() {
+            this.flush();
+            return this.selected;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import de.fhbielefeld.smartdata.dyn.Dyn;
 import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import jakarta.json.JsonObject;
+import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.util.Collection;
 import java.util.List;
@@ -73,6 +74,124 @@ public interface DynRecords extends Dyn {
      */
     public abstract String get(String includes, Collection<Filter> filters, int size, String page, String order, boolean countOnly, String unique, boolean deflatt, String geojsonattr, String geotransform, Collection<String> joins) throws DynException;
 
+    /**
+     * Gets datasets aggregated into time buckets
+     *
+     * @param bucket Timestamp attribute and bucket size (attribute,interval
+     * e.g. ts,15m) units are s, m, h, d, w, mon and y
+     * @param aggregates Commata separated aggregates (e.g.
+     * avg(value),max(value)) functions are avg, min, max, sum and count,
+     * default is count(*)
+     * @param filters Filters to apply
+     * @param size Maximum number of buckets
+     *
+     * @return JSON array with one object per bucket
+     * @throws DynException
+     */
+    public abstract String getBuckets(String bucket, String aggregates, Collection<Filter> filters, int size) throws DynException;
+
+    /**
+     * Gets a series of datasets reduced to the given number of points while
+     * keeping its visual shape (for charts)
+     *
+     * @param xattr Attribute for the x axis (timestamp or numeric)
+     * @param yattr Attribute for the y axis (numeric)
+     * @param filters Filters to apply
+     * @param points Number of points to deliver
+     * @param method lttb (Largest-Triangle-Three-Buckets, default) or minmax
+     * (minimum and maximum of each bucket)
+     *
+     * @return JSON array with one object per point
+     * @throws DynException
+     */
+    public abstract String getDownsampled(String xattr, String yattr, Collection<Filter> filters, int points, String method) throws DynException;
+
+    /**
+     * Estimates the number of datasets from the database statistics, without
+     * counting them
+     *
+     * @param filters Filters to apply
+     *
+     * @return Estimated number of datasets
+     * @throws DynException
+     */
+    public abstract long estimateCount(Collection<Filter> filters) throws DynException;
+
+    /**
+     * Gets a Mapbox Vector Tile with the datasets intersecting the tile
+     *
+     * @param geoattr Geometry attribute, null for the first geometry attribute
+     * @param includes Attributes to add to the features, null for the
+     * identity attribute only
+     * @param filters Filters to apply
+     * @param z Zoom level
+     * @param x Tile column
+     * @param y Tile row
+     *
+     * @return Tile (empty if no dataset intersects the tile)
+     * @throws DynException
+     */
+    public abstract byte[] getTile(String geoattr, String includes, Collection<Filter> filters, int z, int x, int y) throws DynException;
+
+    /**
+     * Executes the query for a list of datasets with EXPLAIN ANALYZE
+     *
+     * @param includes Attributes to include
+     * @param filters Filters to apply
+     * @param size Maximum number of datasets
+     * @param order Order attribute and kind
+     *
+     * @return Query plan as JSON (PostgreSQL EXPLAIN format)
+     * @throws DynException
+     */
+    public abstract String explain(String includes, Collection<Filter> filters, int size, String order) throws DynException;
+
+    /**
+     * Sets how geometries are delivered by following queries
+     *
+     * @param output Simplification and precision options, null for full
+     * geometries
+     * @throws DynException
+     */
+    public abstract void setGeometryOutput(GeometryOutput output) throws DynException;
+
+    /**
+     * Sets how following inserts handle datasets conflicting with existing
+     * ones
+     *
+     * @param handling Conflict handling, null for failing on conflicts
+     * @throws DynException
+     */
+    public abstract void setConflictHandling(ConflictHandling handling) throws DynException;
+
+    /**
+     * Gets the cache entry of the result last delivered by get()
+     *
+     * @return Entry or null if the result is not cached
+     */
+    public abstract ResultCache.Entry getCachedResult();
+
+    /**
+     * Opens a cursor over the datasets, for streaming large results without
+     * holding them in memory.
+     *
+     * @param includes Name of the attributes that should be included, if not given
+     * all available attributes are delivered
+     * @param filters Filters to apply
+     * @param size Maximum number of datasets
+     * @param page Page to fetch from database (pageno[,pagesize])
+     * @param order Order to order after (attribute[,[ASC|DESC]])
+     * @param geotransform Type of the transform that should be applied to geometry columns (EPSG code or 'latlon')
+     * @param joins Join expressions
+     * @param asJson If true every row contains one column >json< with the
+     * dataset as json object, otherwise the plain attributes are delivered
+     * (geometry as WKT, binary data base64 encoded)
+     *
+     * @return Cursor, must be closed after use
+     * @throws DynException
+     */
+    public abstract RecordCursor openCursor(String includes, Collection<Filter> filters, int size, String page, String order, String geotransform, Collection<String> joins, boolean asJson) throws DynException;
+
     /**
      * Prepares the code for insertion of data
      *
@@ -102,6 +221,32 @@ public interface DynRecords extends Dyn {
      * @throws DynException
      */
     public abstract Object create(JsonObject json) throws DynException;
+
+    /**
+     * Creates multiple datasets in batches. Records with the same attributes
+     * are inserted together and commited once per batch. Records that could
+     * not be saved are reported as warnings and do not abort the other ones.
+     *
+     * @param records List of json objects with one-level hierarchy
+     *
+     * @return Ids of the new created datasets in order of the given records
+     * (null for records that could not be saved)
+     * @throws DynException
+     */
+    public abstract List<Object> createBatch(List<JsonObject> records) throws DynException;
+
+    /**
+     * Streams datasets into the collection without holding them in memory.
+     * The first line determines the attributes (csv header or keys of the
+     * first json object).
+     *
+     * @param data Stream with csv or json-lines (one json object per line)
+     * @param format Format of the data (csv or jsonl)
+     *
+     * @return Number of created datasets
+     * @throws DynException
+     */
+    public abstract long createBulk(InputStream data, String format) throws DynException;
     
     /**
      * GEt a prepared query for updateing datasets.
@@ -4,6 +4,7 @@ import de.fhbielefeld.smartdata.dyn.DynMongo;
 import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import jakarta.json.JsonObject;
+import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.util.Collection;
 import java.util.List;
@@ -20,6 +21,51 @@ public class DynRecordsMongo extends DynMongo implements DynRecords {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public String getBuckets(String bucket, String aggregates, Collection<Filter> filters, int size) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public String getDownsampled(String xattr, String yattr, Collection<Filter> filters, int points, String method) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public long estimateCount(Collection<Filter> filters) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public byte[] getTile(String geoattr, String includes, Collection<Filter> filters, int z, int x, int y) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public String explain(String includes, Collection<Filter> filters, int size, String order) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void setGeometryOutput(GeometryOutput output) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void setConflictHandling(ConflictHandling handling) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public ResultCache.Entry getCachedResult() {
+        return null;
+    }
+
+    @Override
+    public RecordCursor openCursor(String includes, Collection<Filter> filters, int size, String page, String order, String geotransform, Collection<String> joins, boolean asJson) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public PreparedStatement setQueryClauses(String stmtid, Collection<Filter> filters, int size, String page) throws DynException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -45,6 +91,16 @@ public class DynRecordsMongo extends DynMongo implements DynRecords {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public List<Object> createBatch(List<JsonObject> records) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public long createBulk(InputStream data, String format) throws DynException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public String getPreparedUpdate(JsonObject json, Long id) throws DynException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
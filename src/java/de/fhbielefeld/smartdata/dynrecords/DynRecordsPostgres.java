@@ -5,21 +5,30 @@ import de.fhbielefeld.scl.logger.message.Message;
 import de.fhbielefeld.scl.logger.message.MessageLevel;
 import de.fhbielefeld.smartdata.config.Configuration;
 import de.fhbielefeld.smartdata.converter.DataConverter;
+import de.fhbielefeld.smartdata.converter.JsonLinesCopyReader;
 import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dbo.Rollup;
 import de.fhbielefeld.smartdata.dyn.DynPostgres;
+import de.fhbielefeld.smartdata.dyn.StatementHandleCache;
 import de.fhbielefeld.smartdata.dyncollection.CollectionRelationship;
 import static de.fhbielefeld.smartdata.dyncollection.CollectionRelationship.ManyToMany;
 import static de.fhbielefeld.smartdata.dyncollection.CollectionRelationship.ManyToOne;
 import static de.fhbielefeld.smartdata.dyncollection.CollectionRelationship.OneToMany;
 import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
 import de.fhbielefeld.smartdata.dynrecords.filter.FilterException;
+import de.fhbielefeld.smartdata.dynrecords.filter.KeysetFilter;
 import de.fhbielefeld.smartdata.dyncollection.DynCollectionPostgres;
 import de.fhbielefeld.smartdata.exceptions.DynException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -27,9 +36,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import de.fhbielefeld.smartdata.dyncollection.DynCollection;
+import de.fhbielefeld.smartdata.dyncollection.IndexAdvisor;
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonArrayBuilder;
@@ -49,10 +60,16 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.time.LocalDate;
 import java.sql.Date;
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.util.Base64;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 /**
  * Dynamic data access for postgres databases
@@ -66,10 +83,19 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
     protected String lastStmtId = null;
 
     protected DynCollection dyncollection = null;
-    protected static final Map<String, String> preparedStatements = new HashMap<>();
-    protected static final Map<String, Map<String, Integer>> preparedPlaceholders = new HashMap<>();
-    protected static final Map<String, List<String>> preparedWarnings = new HashMap<>();
-    protected static final Map<String, DynCollection> usedDynCollections = new HashMap<>();
+    protected static final StatementCache statementCache = new StatementCache(getStatementCacheSize());
+    // Templates used by this instance, kept here so they can not be evicted while in use
+    protected final Map<String, StatementCache.Template> usedTemplates = new HashMap<>();
+    protected static final Map<String, DynCollection> usedDynCollections = new ConcurrentHashMap<>();
+    // Statement handle of the last query
+    protected StatementHandleCache.Lease queryLease = null;
+    // Cache entry of the last result delivered by get()
+    protected ResultCache.Entry cachedResult = null;
+    // Simplification and precision of delivered geometries
+    protected GeometryOutput geometryOutput = null;
+    protected ConflictHandling conflictHandling = null;
+    static final Pattern BUCKET_INTERVAL = Pattern.compile("^(\\d+)(s|m|h|d|w|mon|y)$");
+    static final Pattern AGGREGATE = Pattern.compile("^(avg|min|max|sum|count)\\((\\*|[^()]+)\\)$");
 
     public DynRecordsPostgres(String schema, String table) throws DynException {
         this.schema = schema;
@@ -80,8 +106,104 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         this.dyncollection = new DynCollectionPostgres(this.schema, this.table, this.con);
     }
 
+    /**
+     * Gets the maximum number of cached statement templates from configuration
+     * (statementcache.size, default 1000)
+     *
+     * @return Maximum number of templates
+     */
+    private static int getStatementCacheSize() {
+        return Configuration.getInstance().getIntProperty("statementcache.size", 1000);
+    }
+
+    /**
+     * Removes all cached statement templates of a collection. Must be called
+     * when the attributes of the collection change.
+     *
+     * @param schema Name of the schema
+     * @param table Name of the table (null for all tables of the schema)
+     */
+    public static void invalidateStatements(String schema, String table) {
+        statementCache.invalidate(schema, table);
+    }
+
+    /**
+     * Removes all cached statement templates
+     */
+    public static void invalidateAllStatements() {
+        statementCache.clear();
+    }
+
+    /**
+     * Gets the statistics of the statement template cache
+     *
+     * @return Map with size, maxSize, hits, misses and evictions
+     */
+    public static Map<String, Object> getStatementCacheStatistics() {
+        return statementCache.getStatistics();
+    }
+
+    /**
+     * Looks up a statement template in the cache and notes it as used by this
+     * instance.
+     *
+     * @param stmtId Id of the statement
+     * @return true if the template was found
+     */
+    private boolean useCachedTemplate(String stmtId) {
+        StatementCache.Template template = statementCache.get(stmtId);
+        if (template == null) {
+            return false;
+        }
+        this.usedTemplates.put(stmtId, template);
+        return true;
+    }
+
+    /**
+     * Adds a new statement template to the cache and notes it as used by this
+     * instance.
+     *
+     * @param stmtId Id of the statement
+     * @param sql Sql statement
+     * @param placeholders Positions of the placeholders
+     * @param stmtWarnings Warnings that occured while building the statement
+     */
+    private void cacheTemplate(String stmtId, String sql, Map<String, Integer> placeholders, List<String> stmtWarnings) {
+        StatementCache.Template template = new StatementCache.Template(this.schema, this.table, sql, placeholders, stmtWarnings);
+        statementCache.put(stmtId, template);
+        this.usedTemplates.put(stmtId, template);
+    }
+
+    /**
+     * Gets a template used by this instance
+     *
+     * @param stmtId Id of the statement
+     * @return Template
+     * @throws DynException If the statement was not prepared before
+     */
+    private StatementCache.Template getUsedTemplate(String stmtId) throws DynException {
+        StatementCache.Template template = this.usedTemplates.get(stmtId);
+        if (template == null) {
+            throw new DynException("Statement >" + stmtId + "< was not prepared.");
+        }
+        return template;
+    }
+
     @Override
     public String getPreparedQuery(String includes, Collection<Filter> filters, int size, String page, String order, boolean countOnly, String unique, boolean deflatt, String geojsonattr, String geotransform, Collection<String> joins) throws DynException {
+        return this.getPreparedQuery(includes, filters, size, page, order, countOnly, unique, deflatt, geojsonattr, geotransform, joins, null);
+    }
+
+    /**
+     * Prepares a query
+     *
+     * @param rowMode null for delivering all datasets as one json array, "json"
+     * for one json object per row, "rows" for plain attributes per row
+     * @see #getPreparedQuery(java.lang.String, java.util.Collection, int,
+     * java.lang.String, java.lang.String, boolean, java.lang.String, boolean,
+     * java.lang.String, java.lang.String, java.util.Collection)
+     */
+    private String getPreparedQuery(String includes, Collection<Filter> filters, int size, String page, String order, boolean countOnly, String unique, boolean deflatt, String geojsonattr, String geotransform, Collection<String> joins, String rowMode) throws DynException {
 
         // Build statement id string
         String stmtId = "";
@@ -89,8 +211,13 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         if (includes != null) {
             stmtId += includes;
         }
+        KeysetFilter keyset = null;
         if (filters != null) {
             for (Filter curFilter : filters) {
+                if (curFilter instanceof KeysetFilter) {
+                    keyset = (KeysetFilter) curFilter;
+                    stmtId += "_keyset";
+                }
                 if (!curFilter.getPrepareCode().isEmpty()) {
                     stmtId += curFilter.getPrepareCode();
                 }
@@ -99,11 +226,12 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         if (order != null) {
             stmtId += order;
         }
-        if (size > 0) {
-            stmtId += size;
-        }
+        // Only the presence of offset and limit changes the statement, values are placeholders
         if (page != null) {
-            stmtId += page;
+            stmtId += "_offset";
+        }
+        if (size > 0 || page != null) {
+            stmtId += "_limit";
         }
         if (geojsonattr != null) {
             stmtId += "_geo" + geojsonattr;
@@ -111,6 +239,9 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         if (geotransform != null) {
             stmtId += "_geot" + geotransform;
         }
+        if (this.geometryOutput != null) {
+            stmtId += this.geometryOutput.getStatementId();
+        }
         if (joins != null) {
             stmtId += joins;
         }
@@ -119,11 +250,14 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         }
 
         stmtId += countOnly;
+        if (rowMode != null) {
+            stmtId += "_" + rowMode;
+        }
         this.lastStmtId = stmtId;
 
         // Create sql statement
-        if (!this.preparedStatements.containsKey(stmtId)) {
-            this.preparedWarnings.put(stmtId, new ArrayList<>());
+        if (!this.useCachedTemplate(stmtId)) {
+            List<String> stmtWarnings = new ArrayList<>();
             // Get available attributes
             Map<String, Attribute> attributes = this.dyncollection.getAttributes();
 
@@ -231,15 +365,24 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                     } else if (curColumn.getType().equalsIgnoreCase("geometry") && geotransform != null) {
                         // Convert to latlon output
                         if (geotransform.equalsIgnoreCase("latlon")) {
-                            queryColExpressions.add("ST_X(ST_TRANSFORM(\""
-                                    + curColumn.getName() + "\",4674)) "
-                                    + curColumn.getName() + "_lon, ST_Y(ST_TRANSFORM(\""
-                                    + curColumn.getName() + "\",4674)) " + curColumn.getName() + "_lat");
+                            String latlonGeom = this.getGeometryExpression("ST_TRANSFORM(\"" + curColumn.getName() + "\",4674)", 4674);
+                            queryColExpressions.add("ST_X(" + latlonGeom + ") "
+                                    + curColumn.getName() + "_lon, ST_Y(" + latlonGeom + ") " + curColumn.getName() + "_lat");
                         } else {
                             // Treat as EPSG code
-                            queryColExpressions.add("ST_TRANSFORM(\""
-                                    + curColumn.getName() + "\"," + geotransform + ") " + curColumn.getName());
+                            String transGeom = this.getGeometryExpression("ST_TRANSFORM(\""
+                                    + curColumn.getName() + "\"," + geotransform + ")", parseSrid(geotransform, curColumn.getSrid()));
+                            if ("rows".equals(rowMode)) {
+                                // Plain rows deliver WKT
+                                transGeom = "ST_AsText(" + transGeom + ")";
+                            }
+                            queryColExpressions.add(transGeom + " " + curColumn.getName());
                         }
+                    } else if (curColumn.getType().equalsIgnoreCase("geometry") && "rows".equals(rowMode)) {
+                        // Plain rows deliver geometry as WKT
+                        queryColExpressions.add("ST_AsText(" + this.getGeometryExpression("\"" + this.table + "\".\"" + curColumn.getName() + "\"", curColumn.getSrid()) + ") " + curColumn.getName());
+                    } else if (curColumn.getType().equalsIgnoreCase("geometry") && this.geometryOutput != null) {
+                        queryColExpressions.add(this.getGeometryExpression("\"" + this.table + "\".\"" + curColumn.getName() + "\"", curColumn.getSrid()) + " \"" + curColumn.getName() + "\"");
                     } else {
                         queryColExpressions.add("\"" + this.table + "\".\"" + curColumn.getName() + "\"");
                     }
@@ -253,7 +396,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                             + requestedAttr + "< are not available.";
                     Message msg = new Message(msgstr, MessageLevel.WARNING);
                     Logger.addDebugMessage(msg);
-                    this.preparedWarnings.get(stmtId).add(msgstr);
+                    stmtWarnings.add(msgstr);
                 }
 
                 String namesstr = String.join(",", queryColExpressions);
@@ -297,31 +440,17 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
 
             }
 
-            if (filters != null && !filters.isEmpty()) {
-                int i = 0;
-                for (Filter curFilter : filters) {
-                    if (curFilter.getPrepareCode().isEmpty()) {
-                        continue;
-                    }
-                    if (i == 0) {
-                        frombuilder.append(" WHERE ");
-                    }
-                    if (i > 0) {
-                        frombuilder.append(" AND ");
-                    }
-                    String prepcode = curFilter.getPrepareCode();
-                    placeholders.put(curFilter.getPrepareCode(), placeholderNo);
-                    placeholderNo += curFilter.getNumberOfPlaceholders();
-                    frombuilder.append(prepcode);
-                    i++;
-                }
-            }
+            placeholderNo = this.appendFilters(frombuilder, filters, placeholders, placeholderNo);
 
             // Adding order by
             String orderbystmt = null;
             if (orderby != null && !orderby.isEmpty() && countOnly == false) {
                 if (orderByAvailable) {
                     orderbystmt = "\"" + orderby + "\" " + orderkind;
+                    // Identity as tie breaker, so the keyset position is unique
+                    if (keyset != null && !orderby.equals(keyset.getIdAttribute())) {
+                        orderbystmt += " " + keyset.getNullsOrder() + ", \"" + keyset.getIdAttribute() + "\" " + orderkind;
+                    }
                     if (unique == null) {
                         frombuilder.append(" ORDER BY ");
                         frombuilder.append(orderbystmt);
@@ -332,7 +461,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                             + " order. Data will be unordered.";
                     Message msg = new Message(warningtxt, MessageLevel.WARNING);
                     Logger.addDebugMessage(msg);
-                    this.preparedWarnings.get(stmtId).add(warningtxt);
+                    stmtWarnings.add(warningtxt);
                 }
             }
 
@@ -389,19 +518,32 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
 //                newsqlsb.append(") as t");
 //                selectbuilder = newsqlsb;
 //            }
-            // Remove null values
-            StringBuilder rnullsqlsb = new StringBuilder();
-            rnullsqlsb.append("SELECT json_strip_nulls(array_to_json(array_agg(row_to_json(t)");
-            if (orderbystmt != null) {
-                rnullsqlsb.append(" ORDER BY t.");
-                rnullsqlsb.append(orderbystmt);
-            }
-            rnullsqlsb.append("))) AS json from (");
-            rnullsqlsb.append(prespecsql);
-            rnullsqlsb.append(") t");
-            selectbuilder = rnullsqlsb;
-
-            if (geojsonattr != null) {
+            if ("json".equals(rowMode)) {
+                // One json object per row, without null values
+                StringBuilder rowsqlsb = new StringBuilder();
+                rowsqlsb.append("SELECT json_strip_nulls(row_to_json(t)) AS json FROM (");
+                rowsqlsb.append(prespecsql);
+                rowsqlsb.append(") t");
+                if (orderbystmt != null) {
+                    rowsqlsb.append(" ORDER BY t.");
+                    rowsqlsb.append(orderbystmt);
+                }
+                selectbuilder = rowsqlsb;
+            } else if (rowMode == null) {
+                // Remove null values
+                StringBuilder rnullsqlsb = new StringBuilder();
+                rnullsqlsb.append("SELECT json_strip_nulls(array_to_json(array_agg(row_to_json(t)");
+                if (orderbystmt != null) {
+                    rnullsqlsb.append(" ORDER BY t.");
+                    rnullsqlsb.append(orderbystmt);
+                }
+                rnullsqlsb.append("))) AS json from (");
+                rnullsqlsb.append(prespecsql);
+                rnullsqlsb.append(") t");
+                selectbuilder = rnullsqlsb;
+            }
+
+            if (geojsonattr != null && rowMode == null) {
                 // Get geojsonattr information
                 Attribute geoattr = attributes.get(geojsonattr);
                 StringBuilder newsqlsb = new StringBuilder();
@@ -412,26 +554,25 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                 // Add type: "feature"
                 newsqlsb.append("SELECT 'Feature' AS type");
                 // Add geometry information
-                newsqlsb.append(", ST_AsGeoJSON(");
+                String geojsonGeom = "\"" + geojsonattr + "\"";
+                int geojsonSrid = geoattr.getDimension() == 3 ? 4979 : 4326;
                 // Add transformation if needed
                 if (geoattr.getDimension() == 2 && geoattr.getSrid() != 4326) {
-                    newsqlsb.append("ST_Transform(");
+                    geojsonGeom = "ST_Transform(" + geojsonGeom + ",4326)";
                 }
                 if (geoattr.getDimension() == 3 && geoattr.getSrid() != 4979) {
-                    newsqlsb.append("ST_Transform(");
-                }
-                newsqlsb.append("\"");
-                newsqlsb.append(geojsonattr);
-                newsqlsb.append("\"");
-
-                // Add transformation if needed
-                if (geoattr.getDimension() == 2 && geoattr.getSrid() != 4326) {
-                    newsqlsb.append(",4326)");
+                    geojsonGeom = "ST_Transform(" + geojsonGeom + ",4979)";
                 }
-                if (geoattr.getDimension() == 3 && geoattr.getSrid() != 4979) {
-                    newsqlsb.append(",4979)");
+                newsqlsb.append(", ST_AsGeoJSON(");
+                if (this.geometryOutput != null) {
+                    // Simplify after transformation, precision by maxdecimaldigits
+                    newsqlsb.append(this.geometryOutput.wrap(geojsonGeom, geojsonSrid, false));
+                    if (this.geometryOutput.getPrecision() != null) {
+                        newsqlsb.append(",").append(this.geometryOutput.getPrecision());
+                    }
+                } else {
+                    newsqlsb.append(geojsonGeom);
                 }
-
                 newsqlsb.append(")::json as geometry");
 
                 // Add properties attribute
@@ -450,20 +591,56 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             String stmt = selectbuilder.toString();
             Message msg = new Message("SQL: " + stmt, MessageLevel.INFO);
             Logger.addDebugMessage(msg);
-            this.preparedStatements.put(stmtId, stmt);
-            this.preparedPlaceholders.put(stmtId, placeholders);
+            this.cacheTemplate(stmtId, stmt, placeholders, stmtWarnings);
         }
 
         return stmtId;
     }
 
+    /**
+     * Appends the WHERE clause for the given filters
+     *
+     * @param sb Builder to append to
+     * @param filters Filters to apply
+     * @param placeholders Map where to note the positions of the placeholders
+     * @param placeholderNo Position of the next placeholder
+     * @return Position of the next placeholder after the filters
+     */
+    private int appendFilters(StringBuilder sb, Collection<Filter> filters, Map<String, Integer> placeholders, int placeholderNo) {
+        if (filters == null || filters.isEmpty()) {
+            return placeholderNo;
+        }
+        int i = 0;
+        for (Filter curFilter : filters) {
+            if (curFilter.getPrepareCode().isEmpty()) {
+                continue;
+            }
+            if (i == 0) {
+                sb.append(" WHERE ");
+            }
+            if (i > 0) {
+                sb.append(" AND ");
+            }
+            String prepcode = curFilter.getPrepareCode();
+            placeholders.put(curFilter.getPrepareCode(), placeholderNo);
+            placeholderNo += curFilter.getNumberOfPlaceholders();
+            sb.append(prepcode);
+            i++;
+        }
+        return placeholderNo;
+    }
+
     @Override
     public PreparedStatement setQueryClauses(String stmtid, Collection<Filter> filters, int size, String page) throws DynException {
-        String stmt = this.preparedStatements.get(stmtid);
-        Map<String, Integer> placeholders = this.preparedPlaceholders.get(stmtid);
+        StatementCache.Template template = this.getUsedTemplate(stmtid);
+        String stmt = template.getSql();
+        Map<String, Integer> placeholders = template.getPlaceholders();
+        IndexAdvisor.recordUsage(this.schema, this.table, filters);
 
         try {
-            PreparedStatement pstmt = this.con.prepareStatement(stmt);
+            this.releaseQueryStatement();
+            this.queryLease = StatementHandleCache.prepare(this.con, stmtid, stmt, null);
+            PreparedStatement pstmt = this.queryLease.getStatement();
 
             for (Filter curFilter : filters) {
                 if (curFilter.getPrepareCode().isEmpty()) {
@@ -514,20 +691,35 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         // Reset warnings for new get
         this.warnings = new ArrayList<>();
 
-        Configuration conf = new Configuration();
-        String hardLimitStr = conf.getProperty("hardLimit");
-        if (hardLimitStr != null) {
-            int hardLimit = Integer.parseInt(hardLimitStr);
-            if (size <= 0 || size > hardLimit) {
-                size = hardLimit;
+        size = this.applyHardLimit(size);
+        // Prepare query or get allready prepeared one
+        String stmtid = this.getPreparedQuery(includes, filters, size, page, order, countOnly, unique, deflatt, geojsonattr, geotransform, joins);
+
+        // Look for cached result
+        this.cachedResult = null;
+        String cacheKey = null;
+        String countKey = null;
+        List<String> tables = null;
+        long version = 0;
+        if (countOnly && CountCache.isEnabled()) {
+            // Exact counts have their own cache, independent of the result cache
+            countKey = this.getResultCacheKey(stmtid, filters, size, page, deflatt);
+            tables = this.getQueryTables(joins);
+            String cachedCount = CountCache.get(countKey, this.schema, tables);
+            if (cachedCount != null) {
+                return cachedCount;
             }
-            // Add warning message
-            if (size > hardLimit) {
-                this.warnings.add("The given limit of >" + size + "< exeeds the maximum of >" + hardLimit + "<. You will recive a maximum of >" + hardLimit + "< datasets.");
+            version = ResultCache.getVersion(this.schema, tables);
+        } else if (ResultCache.isEnabled()) {
+            cacheKey = this.getResultCacheKey(stmtid, filters, size, page, deflatt);
+            tables = this.getQueryTables(joins);
+            ResultCache.Entry cached = ResultCache.get(cacheKey);
+            if (cached != null) {
+                this.cachedResult = cached;
+                return cached.getJson();
             }
+            version = ResultCache.getVersion(this.schema, tables);
         }
-        // Prepare query or get allready prepeared one
-        String stmtid = this.getPreparedQuery(includes, filters, size, page, order, countOnly, unique, deflatt, geojsonattr, geotransform, joins);
         // Fill prepared query with data
         PreparedStatement pstmt;
         try {
@@ -535,7 +727,9 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         } catch (DynException ex) {
             throw ex;
         }
+        long execStart = System.nanoTime();
         try (ResultSet rs = pstmt.executeQuery()) {
+            this.queryLease.executed(System.nanoTime() - execStart);
             String json = "{}";
             if (rs.next()) {
                 String dbjson = rs.getString("json");
@@ -547,6 +741,12 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                 }
             }
             rs.close();
+            if (cacheKey != null) {
+                this.cachedResult = ResultCache.put(cacheKey, this.schema, tables, version, json);
+            }
+            if (countKey != null) {
+                CountCache.put(countKey, version, json);
+            }
             return json;
         } catch (SQLException ex) {
             DynException de = new DynException("SQL error fetching data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
@@ -562,198 +762,914 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             DynException de = new DynException("Exception fetching data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
             de.addSuppressed(ex);
             throw de;
+        } finally {
+            this.releaseQueryStatement();
         }
     }
 
-    public String getHierarchically() {
-
-//        "WITH RECURSIVE hierarchy AS (\n" +
-//"    SELECT id, parent_id, name, ARRAY[id] as path\n" +
-//"    FROM tbl_observedobject\n" +
-//"    WHERE parent_id IS NULL  -- Start with the root nodes\n" +
-//"    UNION ALL\n" +
-//"    SELECT t.id, t.parent_id, t.name, h.path || t.id\n" +
-//"    FROM tbl_observedobject t\n" +
-//"    INNER JOIN hierarchy h ON t.parent_id = h.id\n" +
-//")\n" +
-//"SELECT * FROM hierarchy order by path limit 10 offset 10;"
-        return "";
-    }
+    @Override
+    public String getBuckets(String bucket, String aggregates, Collection<Filter> filters, int size) throws DynException {
+        // Reset warnings for new get
+        this.warnings = new ArrayList<>();
+        this.cachedResult = null;
+        size = this.applyHardLimit(size);
 
-    /**
-     * Creates deflatted json representation of flatted datasets
-     *
-     * @return
-     */
-    private String deflatt(String json) {
-        Map<Integer, Map<String, JsonValue>> newdatamap = new HashMap<>();
-        // Parse json
-        JsonParser parser = Json.createParser(new StringReader(json));
-        parser.next();
-        JsonArray dataArr = parser.getArray();
-        for (JsonValue curVal : dataArr) {
-            JsonObject curDataset = (JsonObject) curVal;
-            for (Entry<String, JsonValue> curAttr : curDataset.entrySet()) {
-                String attrcall = curAttr.getKey();
-                // Get last digit position from the end
-                int i = attrcall.length();
-                while (i > 0 && Character.isDigit(attrcall.charAt(i - 1))) {
-                    i--;
-                }
-                // When there is a digit at the end
-                if (i != attrcall.length()) {
-                    String attrname = attrcall.substring(0, i);
-                    int deflattedId = Integer.parseInt(attrcall.substring(i));
-                    // Create place for dataset in map if not exists
-                    if (!newdatamap.containsKey(deflattedId)) {
-                        newdatamap.put(deflattedId, new HashMap<>());
-                    }
-                    Map<String, JsonValue> setmap = newdatamap.get(deflattedId);
-                    setmap.put(attrname, curAttr.getValue());
-                }
-            }
+        if (aggregates == null || aggregates.isBlank()) {
+            aggregates = "count(*)";
         }
-
-        // New json array
-        JsonArrayBuilder newdataarr = Json.createArrayBuilder();
-        for (Entry<Integer, Map<String, JsonValue>> curVal : newdatamap.entrySet()) {
-            JsonObjectBuilder newdataset = Json.createObjectBuilder();
-            newdataset.add("id", curVal.getKey());
-            for (Entry<String, JsonValue> curAttr : curVal.getValue().entrySet()) {
-                newdataset.add(curAttr.getKey(), curAttr.getValue());
+        // Answer from a rollup if there is a fitting one
+        Map<String, Attribute> attributes = this.dyncollection.getAttributes();
+        Rollup rollup = RollupManager.findRollup(RollupManager.getRollups(this.con, this.schema, this.table),
+                bucket, aggregates, filters, attributes);
+
+        String stmtId = "bucket_" + this.schema + '_' + this.table + '_' + bucket + '_' + aggregates;
+        if (rollup != null) {
+            stmtId += "_rollup_" + rollup.getName();
+            RollupManager.countRouted();
+        }
+        if (filters != null) {
+            for (Filter curFilter : filters) {
+                stmtId += curFilter.getPrepareCode();
             }
-            newdataarr.add(newdataset);
         }
-
-        Map<String, Object> properties = new HashMap<>(1);
-        properties.put(JsonGenerator.PRETTY_PRINTING, false);
-        JsonWriterFactory writerFactory = Json.createWriterFactory(properties);
-        StringWriter sw = new StringWriter();
-        try (JsonWriter jsonWriter = writerFactory.createWriter(sw)) {
-            jsonWriter.writeArray(newdataarr.build());
+        if (size > 0) {
+            stmtId += "_limit";
         }
-        return sw.toString();
-    }
-
-    @Override
-    public String getPreparedInsert(JsonObject json) throws DynException {
-        String pstmtid = "insert_" + String.join("_", json.keySet());
-        this.lastStmtId = pstmtid;
-
-        if (!this.preparedStatements.containsKey(pstmtid)) {
-            this.preparedWarnings.put(pstmtid, new ArrayList<>());
-            Map<String, Attribute> columns = this.dyncollection.getAttributes();
-            Map<String, Integer> placeholders = new HashMap<>();
-
-            // Build up insert statement
-            StringBuilder sqlbuilder = new StringBuilder();
-            sqlbuilder.append("INSERT INTO ");
-            sqlbuilder.append("\"");
-            sqlbuilder.append(this.schema);
-            sqlbuilder.append("\"");
-            sqlbuilder.append(".");
-            sqlbuilder.append("\"");
-            sqlbuilder.append(this.table);
-            sqlbuilder.append("\"");
-            sqlbuilder.append(" (\"");
-
-            StringBuilder colsstr = new StringBuilder();
-            StringBuilder valuestr = new StringBuilder();
-            int foundCols = 0;
-            for (String curKey : json.keySet()) {
-                pstmtid += curKey;
-                // Check if table expects that data
-                if (!columns.containsKey(curKey)) {
-                    System.out.println("Data recived for not existing column: >" + curKey + "<");
-                    continue;
-                }
-                // Get definition for current column
-                Attribute attr = columns.get(curKey);
+        this.lastStmtId = stmtId;
 
-                if (foundCols > 0) {
-                    colsstr.append("\",\"");
-                    valuestr.append(",");
+        if (!this.useCachedTemplate(stmtId)) {
+            // Parse bucket definition (attribute,interval)
+            String[] bucketParts = bucket.split(",");
+            if (bucketParts.length != 2) {
+                throw new DynException("The bucket definition >" + bucket + "< is not valid. Use attribute,interval (e.g. ts,15m).");
+            }
+            Attribute bucketAttr = attributes.get(bucketParts[0]);
+            if (bucketAttr == null) {
+                throw new DynException("The bucket attribute >" + bucketParts[0] + "< does not exist.");
+            }
+            String bucketCol = "\"" + this.table + "\".\"" + bucketAttr.getName() + "\"";
+            List<String> stmtWarnings = new ArrayList<>();
+            StringBuilder innersb = new StringBuilder();
+            if (rollup == null) {
+                String bucketExpr = getTypedBucketExpression(bucketParts[1], bucketCol, bucketAttr);
+                innersb.append("SELECT ").append(bucketExpr).append(" AS \"").append(bucketAttr.getName()).append("\"");
+                for (String curAgg : aggregates.split(",")) {
+                    innersb.append(", ").append(this.getAggregateExpression(curAgg.trim(), attributes));
                 }
-                colsstr.append(curKey);
-
-                // Add placeholder depending on type
-                switch (attr.getType()) {
-                    case "json":
-                        valuestr.append("to_json(?::json)");
-                        break;
-                    case "geometry":
-                        valuestr.append("ST_GeomFromText(?)");
-                        break;
-                    default:
-                        valuestr.append("?");
+                innersb.append(" FROM \"").append(this.schema).append("\".\"").append(this.table).append("\"");
+            } else {
+                // Rollup rows are named like the collection, so filters apply unchanged
+                String bucketExpr = getTypedBucketExpression(bucketParts[1], bucketCol, RollupManager.getBucketColumn(rollup, attributes));
+                innersb.append("SELECT ").append(bucketExpr).append(" AS \"").append(bucketAttr.getName()).append("\"");
+                for (String curAgg : aggregates.split(",")) {
+                    innersb.append(", ").append(RollupManager.getRollupAggregateExpression(curAgg.trim(), this.table));
                 }
-
-                foundCols++;
-                // Note placeholder
-                placeholders.put(curKey, foundCols);
+                // Filters on the bucket attribute are only routed here when they select whole buckets
+                innersb.append(" FROM (").append(RollupManager.getRollupRows(this.schema, this.table, attributes, rollup))
+                        .append(") \"").append(this.table).append("\"");
             }
-            // Check if there is no data to insert
-            if (foundCols < 1) {
-                throw new DynException("There is no data to insert");
+            Map<String, Integer> placeholders = new HashMap<>();
+            int placeholderNo = this.appendFilters(innersb, filters, placeholders, 1);
+            innersb.append(" GROUP BY 1 ORDER BY 1");
+            if (size > 0) {
+                innersb.append(" LIMIT ?");
+                placeholders.put("limit", placeholderNo);
             }
 
-            // Put together
-            sqlbuilder.append(colsstr);
-            sqlbuilder.append("\") VALUES (");
-            sqlbuilder.append(valuestr);
-            sqlbuilder.append(")");
-
-            String sql = sqlbuilder.toString();
-            Message msg = new Message("SQL: " + sql, MessageLevel.INFO);
+            String stmt = "SELECT json_strip_nulls(array_to_json(array_agg(row_to_json(t) ORDER BY t.\""
+                    + bucketAttr.getName() + "\"))) AS json FROM (" + innersb + ") t";
+            Message msg = new Message("SQL: " + stmt, MessageLevel.INFO);
             Logger.addDebugMessage(msg);
+            this.cacheTemplate(stmtId, stmt, placeholders, stmtWarnings);
+        }
 
-            this.preparedStatements.put(pstmtid, sql);
-            this.preparedPlaceholders.put(pstmtid, placeholders);
-
-            // Build up primary key query
-            StringBuilder sqlbuilderid = new StringBuilder();
-            sqlbuilderid.append("SELECT ");
-            sqlbuilderid.append(" \"");
-
-            int foundIds = 0;
-            String firstidColumn = null;
-            for (Attribute curColumn : columns.values()) {
-                if (curColumn.isIdentity()) {
-                    if (foundIds == 0) {
-                        firstidColumn = curColumn.getName();
-                    }
-                    if (foundIds > 0) {
-                        sqlbuilderid.append("\",\"");
-                    }
-                    sqlbuilderid.append(curColumn.getName());
-                    foundIds++;
-                }
-            }
-
-            if (firstidColumn != null) {
-                sqlbuilderid.append("\" FROM ");
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(this.schema);
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(".");
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(this.table);
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(" ORDER BY ");
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(firstidColumn);
-                sqlbuilderid.append("\"");
-                sqlbuilderid.append(" DESC LIMIT 1");
-                String idsql = sqlbuilderid.toString();
-                this.preparedStatements.put("id_" + pstmtid, idsql);
+        PreparedStatement pstmt = this.setQueryClauses(stmtId, filters, size, null);
+        long execStart = System.nanoTime();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            this.queryLease.executed(System.nanoTime() - execStart);
+            String json = null;
+            if (rs.next()) {
+                json = rs.getString("json");
             }
+            return json != null ? json : "[]";
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error fetching data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.releaseQueryStatement();
         }
-        return pstmtid;
     }
 
     @Override
-    public List<Object> create(String json) throws DynException {
-        // Reset warnings for new create
+    public String getDownsampled(String xattr, String yattr, Collection<Filter> filters, int points, String method) throws DynException {
+        // Reset warnings for new get
+        this.warnings = new ArrayList<>();
+        this.cachedResult = null;
+        if (points < 3) {
+            throw new DynException("Downsampling needs at least 3 points.");
+        }
+
+        String stmtId = "downsample_" + this.schema + '_' + this.table + '_' + xattr + '_' + yattr;
+        if (filters != null) {
+            for (Filter curFilter : filters) {
+                stmtId += curFilter.getPrepareCode();
+            }
+        }
+        String countStmtId = stmtId + "_count";
+        this.lastStmtId = stmtId;
+
+        if (!this.useCachedTemplate(stmtId) || !this.useCachedTemplate(countStmtId)) {
+            Map<String, Attribute> attributes = this.dyncollection.getAttributes();
+            Attribute xAttribute = attributes.get(xattr);
+            if (xAttribute == null) {
+                throw new DynException("The x attribute >" + xattr + "< does not exist.");
+            }
+            Attribute yAttribute = attributes.get(yattr);
+            if (yAttribute == null) {
+                throw new DynException("The y attribute >" + yattr + "< does not exist.");
+            }
+            if (!isNumericType(yAttribute.getType())) {
+                throw new DynException("The y attribute >" + yattr + "< of type >" + yAttribute.getType() + "< is not numeric.");
+            }
+            String xcol = "\"" + this.table + "\".\"" + xAttribute.getName() + "\"";
+            String ycol = "\"" + this.table + "\".\"" + yAttribute.getName() + "\"";
+            String xnum;
+            switch (xAttribute.getType()) {
+                case "timestamp":
+                case "timestamptz":
+                case "timestamp with timezone":
+                case "date":
+                    xnum = "EXTRACT(EPOCH FROM " + xcol + ")::float8";
+                    break;
+                default:
+                    if (!isNumericType(xAttribute.getType())) {
+                        throw new DynException("The x attribute >" + xattr + "< of type >" + xAttribute.getType() + "< is neither a timestamp nor numeric.");
+                    }
+                    xnum = xcol + "::float8";
+            }
+
+            StringBuilder fromsb = new StringBuilder();
+            fromsb.append(" FROM \"").append(this.schema).append("\".\"").append(this.table).append("\"");
+            Map<String, Integer> placeholders = new HashMap<>();
+            int filterStart = fromsb.length();
+            this.appendFilters(fromsb, filters, placeholders, 1);
+            fromsb.append(fromsb.length() == filterStart ? " WHERE " : " AND ");
+            fromsb.append(xcol).append(" IS NOT NULL AND ").append(ycol).append(" IS NOT NULL");
+
+            String stmt = "SELECT " + xnum + " AS x, to_json(" + xcol + ")::text AS xjson, "
+                    + ycol + "::float8 AS y" + fromsb + " ORDER BY " + xcol;
+            String countStmt = "SELECT COUNT(*) AS count" + fromsb;
+            Message msg = new Message("SQL: " + stmt, MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+            this.cacheTemplate(stmtId, stmt, placeholders, new ArrayList<>());
+            this.cacheTemplate(countStmtId, countStmt, placeholders, new ArrayList<>());
+        }
+
+        // Count points for calculating the bucket sizes
+        long total = 0;
+        PreparedStatement countPstmt = this.setQueryClauses(countStmtId, filters, 0, null);
+        try (ResultSet rs = countPstmt.executeQuery()) {
+            if (rs.next()) {
+                total = rs.getLong("count");
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error counting data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.releaseQueryStatement();
+        }
+
+        // Stream points through the downsampler
+        Downsampler sampler = Downsampler.create(method, points, total);
+        PreparedStatement pstmt = this.setQueryClauses(stmtId, filters, 0, null);
+        try {
+            this.con.setAutoCommit(false);
+            pstmt.setFetchSize(Configuration.getInstance().getIntProperty("stream.fetchsize", 1000));
+            long execStart = System.nanoTime();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                this.queryLease.executed(System.nanoTime() - execStart);
+                while (rs.next()) {
+                    double y = rs.getDouble("y");
+                    if (Double.isFinite(y)) {
+                        sampler.add(new Downsampler.Point(rs.getDouble("x"), rs.getString("xjson"), y));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error fetching data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.closeCursor();
+        }
+
+        // Build json
+        StringBuilder json = new StringBuilder("[");
+        String xname = Json.createValue(xattr).toString();
+        String yname = Json.createValue(yattr).toString();
+        for (Downsampler.Point curPoint : sampler.finish()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('{').append(xname).append(':').append(curPoint.getXJson())
+                    .append(',').append(yname).append(':').append(curPoint.getY()).append('}');
+        }
+        json.append(']');
+        if (total > points) {
+            this.warnings.add("Downsampled >" + total + "< datasets to >" + points + "< points.");
+        }
+        return json.toString();
+    }
+
+    @Override
+    public long estimateCount(Collection<Filter> filters) throws DynException {
+        // Reset warnings for new get
+        this.warnings = new ArrayList<>();
+        this.cachedResult = null;
+
+        boolean filtered = false;
+        String stmtId = "estimate_" + this.schema + '_' + this.table;
+        if (filters != null) {
+            for (Filter curFilter : filters) {
+                if (!curFilter.getPrepareCode().isEmpty()) {
+                    stmtId += curFilter.getPrepareCode();
+                    filtered = true;
+                }
+            }
+        }
+        this.lastStmtId = stmtId;
+
+        // Without filters the statistics of the table are enough
+        if (!filtered) {
+            String sql = "SELECT reltuples::bigint AS estimate FROM pg_class WHERE oid = to_regclass(?)";
+            try (PreparedStatement pstmt = this.con.prepareStatement(sql)) {
+                pstmt.setString(1, "\"" + this.schema + "\".\"" + this.table + "\"");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    // Tables never analyzed have no statistics (-1)
+                    if (rs.next() && rs.getLong("estimate") >= 0) {
+                        return rs.getLong("estimate");
+                    }
+                }
+            } catch (SQLException ex) {
+                DynException de = new DynException("SQL error estimating count: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+                de.addSuppressed(ex);
+                throw de;
+            }
+        }
+
+        // Ask the planner for the number of rows
+        if (!this.useCachedTemplate(stmtId)) {
+            StringBuilder sqlsb = new StringBuilder();
+            sqlsb.append("EXPLAIN (FORMAT JSON) SELECT 1 FROM \"").append(this.schema).append("\".\"").append(this.table).append("\"");
+            Map<String, Integer> placeholders = new HashMap<>();
+            this.appendFilters(sqlsb, filters, placeholders, 1);
+            this.cacheTemplate(stmtId, sqlsb.toString(), placeholders, new ArrayList<>());
+        }
+        PreparedStatement pstmt = this.setQueryClauses(stmtId, filters, 0, null);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new DynException("Could not estimate count: No query plan.");
+            }
+            try (JsonReader reader = Json.createReader(new StringReader(rs.getString(1)))) {
+                JsonObject plan = reader.readArray().getJsonObject(0).getJsonObject("Plan");
+                return plan.getJsonNumber("Plan Rows").longValue();
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error estimating count: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.releaseQueryStatement();
+        }
+    }
+
+    @Override
+    public byte[] getTile(String geoattr, String includes, Collection<Filter> filters, int z, int x, int y) throws DynException {
+        // Reset warnings for new get
+        this.warnings = new ArrayList<>();
+        this.cachedResult = null;
+
+        String stmtId = "tile_" + this.schema + '_' + this.table + '_' + geoattr + '_' + includes;
+        if (filters != null) {
+            for (Filter curFilter : filters) {
+                stmtId += curFilter.getPrepareCode();
+            }
+        }
+        this.lastStmtId = stmtId;
+
+        List<String> tables = this.getQueryTables(null);
+        String cacheKey = this.getResultCacheKey(stmtId, filters, 0, null, false) + '|' + z + '/' + x + '/' + y;
+        if (TileCache.isEnabled()) {
+            byte[] cached = TileCache.get(cacheKey, this.schema, tables);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long version = ResultCache.getVersion(this.schema, tables);
+
+        if (!this.useCachedTemplate(stmtId)) {
+            Map<String, Attribute> attributes = this.dyncollection.getAttributes();
+            Attribute geoAttr = null;
+            if (geoattr != null) {
+                geoAttr = attributes.get(geoattr);
+                if (geoAttr == null || !geoAttr.getType().equalsIgnoreCase("geometry")) {
+                    throw new DynException("The attribute >" + geoattr + "< does not exist or is not a geometry.");
+                }
+            } else {
+                List<Attribute> geoAttrs = this.dyncollection.getGeoAttributes();
+                if (geoAttrs.isEmpty()) {
+                    throw new DynException("The collection >" + this.table + "< has no geometry attribute.");
+                }
+                geoAttr = geoAttrs.get(0);
+            }
+            if (geoAttr.getSrid() == null || geoAttr.getSrid() <= 0) {
+                throw new DynException("The geometry attribute >" + geoAttr.getName() + "< has no srid, tiles can not be created.");
+            }
+
+            // Only the requested attributes are encoded into the tile
+            StringBuilder colsb = new StringBuilder();
+            if (includes == null || includes.isBlank()) {
+                for (Attribute curAttr : this.dyncollection.getIdentityAttributes()) {
+                    colsb.append(", \"").append(this.table).append("\".\"").append(curAttr.getName()).append("\"");
+                }
+            } else {
+                for (String curInclude : includes.split(",")) {
+                    Attribute curAttr = attributes.get(curInclude.trim());
+                    if (curAttr == null) {
+                        throw new DynException("The attribute >" + curInclude + "< does not exist.");
+                    }
+                    if (curAttr.getType().equalsIgnoreCase("geometry")) {
+                        continue;
+                    }
+                    colsb.append(", \"").append(this.table).append("\".\"").append(curAttr.getName()).append("\"");
+                }
+            }
+
+            String geoCol = "\"" + this.table + "\".\"" + geoAttr.getName() + "\"";
+            String mvtGeom = geoAttr.getSrid() == 3857 ? geoCol : "ST_Transform(" + geoCol + ", 3857)";
+            String bboxGeom = geoAttr.getSrid() == 3857 ? "bounds.geom" : "ST_Transform(bounds.geom, " + geoAttr.getSrid() + ")";
+
+            StringBuilder innersb = new StringBuilder();
+            innersb.append("SELECT ST_AsMVTGeom(").append(mvtGeom).append(", bounds.geom, 4096, 64, true) AS mvtgeom");
+            innersb.append(colsb);
+            innersb.append(" FROM \"").append(this.schema).append("\".\"").append(this.table).append("\", bounds");
+            Map<String, Integer> placeholders = new HashMap<>();
+            int filterStart = innersb.length();
+            // Placeholders 1 to 3 are the tile coordinates
+            this.appendFilters(innersb, filters, placeholders, 4);
+            innersb.append(innersb.length() > filterStart ? " AND " : " WHERE ");
+            // Uses the spatial index of the geometry column
+            innersb.append(geoCol).append(" && ").append(bboxGeom);
+
+            String stmt = "WITH bounds AS (SELECT ST_TileEnvelope(?, ?, ?) AS geom) "
+                    + "SELECT ST_AsMVT(t, '" + this.table.replace("'", "''") + "', 4096, 'mvtgeom') AS tile FROM (" + innersb + ") t";
+            Message msg = new Message("SQL: " + stmt, MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+            this.cacheTemplate(stmtId, stmt, placeholders, new ArrayList<>());
+        }
+
+        PreparedStatement pstmt = this.setQueryClauses(stmtId, filters, 0, null);
+        long execStart = System.nanoTime();
+        try {
+            pstmt.setInt(1, z);
+            pstmt.setInt(2, x);
+            pstmt.setInt(3, y);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                this.queryLease.executed(System.nanoTime() - execStart);
+                byte[] tile = null;
+                if (rs.next()) {
+                    tile = rs.getBytes("tile");
+                }
+                if (tile == null) {
+                    tile = new byte[0];
+                }
+                if (TileCache.isEnabled()) {
+                    TileCache.put(cacheKey, version, tile);
+                }
+                return tile;
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error creating tile: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.releaseQueryStatement();
+        }
+    }
+
+    /**
+     * Creates the sql expression for the start of the time bucket of a
+     * timestamp attribute
+     *
+     * @param interval Bucket size (e.g. 15m)
+     * @param column Sql expression of the attribute
+     * @param attr Attribute
+     * @return Sql expression
+     * @throws DynException If the interval is not valid or the attribute is
+     * not a timestamp
+     */
+    static String getTypedBucketExpression(String interval, String column, Attribute attr) throws DynException {
+        switch (attr.getType()) {
+            case "timestamp":
+                return getBucketExpression(interval, column, "TIMESTAMP '2000-01-01'");
+            case "timestamptz":
+            case "timestamp with timezone":
+                return getBucketExpression(interval, column, "TIMESTAMPTZ '2000-01-01 00:00:00+00'");
+            case "date":
+                return getBucketExpression(interval, column + "::timestamp", "TIMESTAMP '2000-01-01'");
+            default:
+                throw new DynException("The bucket attribute >" + attr.getName() + "< of type >" + attr.getType() + "< is not a timestamp.");
+        }
+    }
+
+    /**
+     * Gets the length of a bucket as sql interval
+     *
+     * @param interval Bucket size (e.g. 15m)
+     * @return Sql interval expression
+     * @throws DynException If the interval is not valid
+     */
+    static String getBucketInterval(String interval) throws DynException {
+        Matcher matcher = matchBucketInterval(interval);
+        return "INTERVAL '" + Long.parseLong(matcher.group(1)) + " " + getBucketUnit(matcher.group(2)) + "'";
+    }
+
+    /**
+     * Creates the sql expression placing a timestamp into its bucket
+     *
+     * @param interval Bucket size, number with unit s, m, h, d, w or 1mon,
+     * 1y for calendar months and years
+     * @param column Column expression
+     * @param origin Start of the first bucket
+     * @return Sql expression
+     * @throws DynException If the interval is not valid
+     */
+    private static String getBucketExpression(String interval, String column, String origin) throws DynException {
+        Matcher matcher = matchBucketInterval(interval);
+        long count = Long.parseLong(matcher.group(1));
+        if (count < 1) {
+            throw new DynException("The bucket interval >" + interval + "< must be greater than zero.");
+        }
+        switch (matcher.group(2)) {
+            case "mon":
+            case "y":
+                // Calendar units have no fixed length, so they can not be binned
+                if (count != 1) {
+                    throw new DynException("Months and years are only supported as single bucket (1mon, 1y).");
+                }
+                return "date_trunc('" + (matcher.group(2).equals("y") ? "year" : "month") + "', " + column + ")";
+            default:
+                return "date_bin('" + count + " " + getBucketUnit(matcher.group(2)) + "', " + column + ", " + origin + ")";
+        }
+    }
+
+    /**
+     * Parses a bucket size
+     *
+     * @param interval Bucket size (e.g. 15m)
+     * @return Matcher with the number as group 1 and the unit as group 2
+     * @throws DynException If the interval is not valid
+     */
+    private static Matcher matchBucketInterval(String interval) throws DynException {
+        Matcher matcher = BUCKET_INTERVAL.matcher(interval.trim());
+        if (!matcher.matches()) {
+            throw new DynException("The bucket interval >" + interval + "< is not valid. Use a number and one of the units s, m, h, d, w, mon, y (e.g. 15m).");
+        }
+        return matcher;
+    }
+
+    /**
+     * Gets the sql interval unit for a bucket unit
+     *
+     * @param unit Bucket unit (s, m, h, d, w, mon or y)
+     * @return Sql interval unit
+     */
+    private static String getBucketUnit(String unit) {
+        switch (unit) {
+            case "s":
+                return "seconds";
+            case "m":
+                return "minutes";
+            case "h":
+                return "hours";
+            case "d":
+                return "days";
+            case "w":
+                return "weeks";
+            case "mon":
+                return "months";
+            default:
+                return "years";
+        }
+    }
+
+    /**
+     * Creates the sql expression for an aggregate definition
+     *
+     * @param aggregate Aggregate (function(attribute), e.g. avg(value) or
+     * count(*))
+     * @param attributes Available attributes
+     * @return Sql expression named function_attribute
+     * @throws DynException If the aggregate is not valid
+     */
+    private String getAggregateExpression(String aggregate, Map<String, Attribute> attributes) throws DynException {
+        Matcher matcher = AGGREGATE.matcher(aggregate.toLowerCase());
+        if (!matcher.matches()) {
+            throw new DynException("The aggregate >" + aggregate + "< is not valid. Use avg, min, max, sum or count with an attribute (e.g. avg(value)).");
+        }
+        String function = matcher.group(1);
+        // Attribute names are case sensitive, so take them from the original expression
+        String attrname = aggregate.substring(function.length() + 1, aggregate.length() - 1).trim();
+        if (attrname.equals("*")) {
+            if (!function.equals("count")) {
+                throw new DynException("Only count can be used with >*<.");
+            }
+            return "COUNT(*) AS \"count\"";
+        }
+        Attribute attr = attributes.get(attrname);
+        if (attr == null) {
+            throw new DynException("The aggregate attribute >" + attrname + "< does not exist.");
+        }
+        if ((function.equals("avg") || function.equals("sum")) && !isNumericType(attr.getType())) {
+            throw new DynException("The aggregate >" + function + "< needs a numeric attribute, >" + attrname + "< is of type >" + attr.getType() + "<.");
+        }
+        return function.toUpperCase() + "(\"" + this.table + "\".\"" + attr.getName() + "\") AS \"" + function + "_" + attr.getName() + "\"";
+    }
+
+    static boolean isNumericType(String type) {
+        switch (type) {
+            case "int2":
+            case "int4":
+            case "int8":
+            case "float4":
+            case "float8":
+            case "numeric":
+            case "real":
+            case "double":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates the key for the result cache from the statement and the values
+     * bound to it
+     *
+     * @return Key of the result
+     */
+    private String getResultCacheKey(String stmtid, Collection<Filter> filters, int size, String page, boolean deflatt) {
+        StringBuilder key = new StringBuilder(stmtid);
+        if (filters != null) {
+            for (Filter curFilter : filters) {
+                if (!curFilter.getPrepareCode().isEmpty()) {
+                    key.append('|').append(curFilter.getFiltercode());
+                }
+            }
+        }
+        key.append('|').append(size).append('|').append(page).append('|').append(deflatt);
+        return key.toString();
+    }
+
+    /**
+     * Gets the names of all tables a query reads from
+     *
+     * @param joins Join expressions of the query
+     * @return Names of the tables
+     */
+    private List<String> getQueryTables(Collection<String> joins) {
+        List<String> tables = new ArrayList<>();
+        tables.add(this.table);
+        if (joins != null) {
+            for (String curJoins : joins) {
+                tables.addAll(Arrays.asList(curJoins.split(",")));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Removes cached results of this collection, must be called after writing
+     * datasets
+     */
+    private void invalidateResults() {
+        ResultCache.invalidate(this.schema, this.table);
+    }
+
+    @Override
+    public String explain(String includes, Collection<Filter> filters, int size, String order) throws DynException {
+        String queryId = this.getPreparedQuery(includes, filters, size, null, order, false, null, false, null, null, null);
+        String stmtId = "explain_" + queryId;
+        if (!this.useCachedTemplate(stmtId)) {
+            StatementCache.Template query = this.getUsedTemplate(queryId);
+            this.cacheTemplate(stmtId, "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + query.getSql(),
+                    query.getPlaceholders(), new ArrayList<>());
+        }
+        PreparedStatement pstmt = this.setQueryClauses(stmtId, filters, size, null);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new DynException("Could not explain query: No query plan.");
+            }
+            return rs.getString(1);
+        } catch (SQLException ex) {
+            DynException de = new DynException("SQL error explaining query: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.releaseQueryStatement();
+        }
+    }
+
+    @Override
+    public void setGeometryOutput(GeometryOutput output) {
+        this.geometryOutput = output;
+    }
+
+    @Override
+    public void setConflictHandling(ConflictHandling handling) {
+        this.conflictHandling = handling;
+    }
+
+    /**
+     * Applies the geometry output options to a geometry expression
+     *
+     * @param geomExpr Sql expression of the geometry
+     * @param srid Reference system of the expression
+     * @return Sql expression
+     */
+    private String getGeometryExpression(String geomExpr, Integer srid) {
+        if (this.geometryOutput == null) {
+            return geomExpr;
+        }
+        return this.geometryOutput.wrap(geomExpr, srid, true);
+    }
+
+    /**
+     * Gets the srid from a geotransform parameter
+     *
+     * @param geotransform EPSG code
+     * @param defaultSrid Srid to use if the code is not a number
+     * @return Srid
+     */
+    private static Integer parseSrid(String geotransform, Integer defaultSrid) {
+        try {
+            return Integer.valueOf(geotransform.replaceAll("(?i)^epsg:", ""));
+        } catch (NumberFormatException ex) {
+            return defaultSrid;
+        }
+    }
+
+    @Override
+    public ResultCache.Entry getCachedResult() {
+        return this.cachedResult;
+    }
+
+    /**
+     * Limits the size to the configured hardLimit
+     *
+     * @param size Requested size
+     * @return Size to use
+     */
+    private int applyHardLimit(int size) {
+        Integer hardLimit = Configuration.getInstance().getHardLimit();
+        if (hardLimit != null) {
+            if (size <= 0 || size > hardLimit) {
+                size = hardLimit;
+            }
+            // Add warning message
+            if (size > hardLimit) {
+                this.warnings.add("The given limit of >" + size + "< exeeds the maximum of >" + hardLimit + "<. You will recive a maximum of >" + hardLimit + "< datasets.");
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public RecordCursor openCursor(String includes, Collection<Filter> filters, int size, String page, String order, String geotransform, Collection<String> joins, boolean asJson) throws DynException {
+        // Reset warnings for new get
+        this.warnings = new ArrayList<>();
+
+        size = this.applyHardLimit(size);
+        String stmtid = this.getPreparedQuery(includes, filters, size, page, order, false, null, false, null, geotransform, joins, asJson ? "json" : "rows");
+        PreparedStatement pstmt = this.setQueryClauses(stmtid, filters, size, page);
+        try {
+            // Postgres only uses a cursor for fetching in chunks inside a transaction
+            this.con.setAutoCommit(false);
+            pstmt.setFetchSize(Configuration.getInstance().getIntProperty("stream.fetchsize", 1000));
+            long execStart = System.nanoTime();
+            ResultSet rs = pstmt.executeQuery();
+            this.queryLease.executed(System.nanoTime() - execStart);
+            return new RecordCursor(rs, this::closeCursor);
+        } catch (SQLException ex) {
+            this.closeCursor();
+            DynException de = new DynException("SQL error fetching data: " + ex.getLocalizedMessage().replaceAll("\\p{Cc}", ""));
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    /**
+     * Ends the transaction of a cursor and releases its statement
+     */
+    private void closeCursor() {
+        this.releaseQueryStatement();
+        try {
+            this.con.commit();
+            this.con.setAutoCommit(true);
+        } catch (SQLException ex) {
+            Message msg = new Message("Could not reset autocomit mode to true!",
+                    MessageLevel.ERROR);
+            Logger.addDebugMessage(msg);
+        }
+    }
+
+    /**
+     * Releases the statement handle of the last query. The server side
+     * statement stays cached on the connection.
+     */
+    private void releaseQueryStatement() {
+        if (this.queryLease == null) {
+            return;
+        }
+        try {
+            this.queryLease.close();
+        } catch (SQLException ex) {
+            Message msg = new Message("Could not close query statement: " + ex.getLocalizedMessage(), MessageLevel.WARNING);
+            Logger.addDebugMessage(msg);
+        }
+        this.queryLease = null;
+    }
+
+    public String getHierarchically() {
+
+//        "WITH RECURSIVE hierarchy AS (\n" +
+//"    SELECT id, parent_id, name, ARRAY[id] as path\n" +
+//"    FROM tbl_observedobject\n" +
+//"    WHERE parent_id IS NULL  -- Start with the root nodes\n" +
+//"    UNION ALL\n" +
+//"    SELECT t.id, t.parent_id, t.name, h.path || t.id\n" +
+//"    FROM tbl_observedobject t\n" +
+//"    INNER JOIN hierarchy h ON t.parent_id = h.id\n" +
+//")\n" +
+//"SELECT * FROM hierarchy order by path limit 10 offset 10;"
+        return "";
+    }
+
+    /**
+     * Creates deflatted json representation of flatted datasets
+     *
+     * @return
+     */
+    private String deflatt(String json) {
+        Map<Integer, Map<String, JsonValue>> newdatamap = new HashMap<>();
+        // Parse json
+        JsonParser parser = Json.createParser(new StringReader(json));
+        parser.next();
+        JsonArray dataArr = parser.getArray();
+        for (JsonValue curVal : dataArr) {
+            JsonObject curDataset = (JsonObject) curVal;
+            for (Entry<String, JsonValue> curAttr : curDataset.entrySet()) {
+                String attrcall = curAttr.getKey();
+                // Get last digit position from the end
+                int i = attrcall.length();
+                while (i > 0 && Character.isDigit(attrcall.charAt(i - 1))) {
+                    i--;
+                }
+                // When there is a digit at the end
+                if (i != attrcall.length()) {
+                    String attrname = attrcall.substring(0, i);
+                    int deflattedId = Integer.parseInt(attrcall.substring(i));
+                    // Create place for dataset in map if not exists
+                    if (!newdatamap.containsKey(deflattedId)) {
+                        newdatamap.put(deflattedId, new HashMap<>());
+                    }
+                    Map<String, JsonValue> setmap = newdatamap.get(deflattedId);
+                    setmap.put(attrname, curAttr.getValue());
+                }
+            }
+        }
+
+        // New json array
+        JsonArrayBuilder newdataarr = Json.createArrayBuilder();
+        for (Entry<Integer, Map<String, JsonValue>> curVal : newdatamap.entrySet()) {
+            JsonObjectBuilder newdataset = Json.createObjectBuilder();
+            newdataset.add("id", curVal.getKey());
+            for (Entry<String, JsonValue> curAttr : curVal.getValue().entrySet()) {
+                newdataset.add(curAttr.getKey(), curAttr.getValue());
+            }
+            newdataarr.add(newdataset);
+        }
+
+        Map<String, Object> properties = new HashMap<>(1);
+        properties.put(JsonGenerator.PRETTY_PRINTING, false);
+        JsonWriterFactory writerFactory = Json.createWriterFactory(properties);
+        StringWriter sw = new StringWriter();
+        try (JsonWriter jsonWriter = writerFactory.createWriter(sw)) {
+            jsonWriter.writeArray(newdataarr.build());
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Creates the part of a statement id identifying the given attributes.
+     * The names are quoted, so that names containing the separator (e.g.
+     * a_b,c and a,b_c) do not give the same id.
+     *
+     * @param names Attribute names
+     * @return Key for the statement id
+     */
+    private static String getAttributesKey(Collection<String> names) {
+        return "\"" + String.join("\",\"", names) + "\"";
+    }
+
+    @Override
+    public String getPreparedInsert(JsonObject json) throws DynException {
+        String pstmtid = "insert_" + this.schema + '_' + this.table + "_" + getAttributesKey(json.keySet());
+        if (this.conflictHandling != null) {
+            pstmtid += this.conflictHandling.getStatementId();
+        }
+        this.lastStmtId = pstmtid;
+
+        if (!this.useCachedTemplate(pstmtid)) {
+            Map<String, Attribute> columns = this.dyncollection.getAttributes();
+            Map<String, Integer> placeholders = new HashMap<>();
+
+            // Build up insert statement
+            StringBuilder sqlbuilder = new StringBuilder();
+            sqlbuilder.append("INSERT INTO ");
+            sqlbuilder.append("\"");
+            sqlbuilder.append(this.schema);
+            sqlbuilder.append("\"");
+            sqlbuilder.append(".");
+            sqlbuilder.append("\"");
+            sqlbuilder.append(this.table);
+            sqlbuilder.append("\"");
+            sqlbuilder.append(" (\"");
+
+            StringBuilder colsstr = new StringBuilder();
+            StringBuilder valuestr = new StringBuilder();
+            List<String> insertCols = new ArrayList<>();
+            int foundCols = 0;
+            for (String curKey : json.keySet()) {
+                // Check if table expects that data
+                if (!columns.containsKey(curKey)) {
+                    System.out.println("Data recived for not existing column: >" + curKey + "<");
+                    continue;
+                }
+                // Get definition for current column
+                Attribute attr = columns.get(curKey);
+
+                if (foundCols > 0) {
+                    colsstr.append("\",\"");
+                    valuestr.append(",");
+                }
+                colsstr.append(curKey);
+                insertCols.add(curKey);
+
+                // Add placeholder depending on type
+                switch (attr.getType()) {
+                    case "json":
+                        valuestr.append("to_json(?::json)");
+                        break;
+                    case "geometry":
+                        valuestr.append("ST_GeomFromText(?)");
+                        break;
+                    default:
+                        valuestr.append("?");
+                }
+
+                foundCols++;
+                // Note placeholder
+                placeholders.put(curKey, foundCols);
+            }
+            // Check if there is no data to insert
+            if (foundCols < 1) {
+                throw new DynException("There is no data to insert");
+            }
+
+            // Put together
+            sqlbuilder.append(colsstr);
+            sqlbuilder.append("\") VALUES (");
+            sqlbuilder.append(valuestr);
+            sqlbuilder.append(")");
+            if (this.conflictHandling != null) {
+                sqlbuilder.append(this.conflictHandling.getClause(columns, insertCols));
+            }
+
+            String sql = sqlbuilder.toString();
+            Message msg = new Message("SQL: " + sql, MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+
+            this.cacheTemplate(pstmtid, sql, placeholders, new ArrayList<>());
+        }
+        return pstmtid;
+    }
+
+    @Override
+    public List<Object> create(String json) throws DynException {
+        // Reset warnings for new create
         this.warnings = new ArrayList<>();
         JsonReader jsonReader = Json.createReader(new StringReader(json));
         List<Object> ids = new ArrayList<>();
@@ -762,22 +1678,20 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             JsonObject jsonobject = jsonReader.readObject();
             jsonReader.close();
             JsonArray featurearray = jsonobject.getJsonArray("features");
+            List<JsonObject> records = new ArrayList<>(featurearray.size());
             for (int i = 0; i < featurearray.size(); i++) {
-                ids.add(this.createFromGeojson(featurearray.getJsonObject(i)));
+                records.add(this.convertGeojsonFeature(featurearray.getJsonObject(i)));
             }
+            ids.addAll(this.createBatch(records));
         } else if (json.startsWith("{\"records\":")) {
             JsonObject jsonobject = jsonReader.readObject();
             jsonReader.close();
             JsonArray jsonarray = jsonobject.getJsonArray("records");
-            for (int i = 0; i < jsonarray.size(); i++) {
-                ids.add(this.create(jsonarray.getJsonObject(i)));
-            }
+            ids.addAll(this.createBatch(jsonarray.getValuesAs(JsonObject.class)));
         } else if (json.startsWith("[")) {
             JsonArray jsonarray = jsonReader.readArray();
             jsonReader.close();
-            for (int i = 0; i < jsonarray.size(); i++) {
-                ids.add(this.create(jsonarray.getJsonObject(i)));
-            }
+            ids.addAll(this.createBatch(jsonarray.getValuesAs(JsonObject.class)));
         } else {
             JsonObject jsonobject = jsonReader.readObject();
             jsonReader.close();
@@ -786,6 +1700,407 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
         return ids;
     }
 
+    @Override
+    public List<Object> createBatch(List<JsonObject> records) throws DynException {
+        Object[] ids = new Object[records.size()];
+        if (records.isEmpty()) {
+            return Arrays.asList(ids);
+        }
+
+        int batchsize = Configuration.getInstance().getIntProperty("insert.batchsize", 1000);
+
+        // Group records by their set of attributes, each group uses one insert statement
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            JsonObject curRecord = records.get(i);
+            if (curRecord.isEmpty()) {
+                this.warnings.add("Could not save record >" + i + "<: Given json is empty");
+                continue;
+            }
+            List<String> groupkey = new ArrayList<>(curRecord.keySet());
+            groups.computeIfAbsent(groupkey, k -> new ArrayList<>()).add(i);
+        }
+
+        // Get name of the identity column, used for returning the ids
+        String idcol = null;
+        List<Attribute> idattrs = this.dyncollection.getIdentityAttributes();
+        if (!idattrs.isEmpty()) {
+            idcol = idattrs.get(0).getName();
+        } else {
+            this.warnings.add("Table >" + this.table + "< does not have a primary key. You should add a primary key to get id in response when creating new datasets.");
+        }
+
+        for (List<Integer> curGroup : groups.values()) {
+            String pstmtid = this.getPreparedInsert(records.get(curGroup.get(0)));
+            for (int start = 0; start < curGroup.size(); start += batchsize) {
+                List<Integer> chunk = curGroup.subList(start, Math.min(start + batchsize, curGroup.size()));
+                this.createChunk(pstmtid, idcol, records, chunk, ids);
+            }
+        }
+        return Arrays.asList(ids);
+    }
+
+    @Override
+    public long createBulk(InputStream data, String format) throws DynException {
+        // Reset warnings for new create
+        this.warnings = new ArrayList<>();
+        Map<String, Attribute> attributes = this.dyncollection.getAttributes();
+
+        int buffersize = Configuration.getInstance().getIntProperty("bulk.buffersize", 65536);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(data, StandardCharsets.UTF_8), buffersize);
+        try {
+            // First line gives the attributes (csv header or keys of the first json object)
+            String firstLine = reader.readLine();
+            while (firstLine != null && firstLine.isBlank()) {
+                firstLine = reader.readLine();
+            }
+            if (firstLine == null) {
+                throw new DynException("There is no data to insert");
+            }
+            List<String> names = new ArrayList<>();
+            if (format.equalsIgnoreCase("csv")) {
+                for (String curName : firstLine.split(",")) {
+                    names.add(curName.trim().replace("\"", ""));
+                }
+            } else {
+                names.addAll(JsonLinesCopyReader.parseLine(firstLine).keySet());
+            }
+
+            List<Attribute> columns = new ArrayList<>();
+            List<String> ignoredCols = new ArrayList<>();
+            for (String curName : names) {
+                Attribute curAttr = attributes.get(curName);
+                if (curAttr != null) {
+                    columns.add(curAttr);
+                } else {
+                    ignoredCols.add(curName);
+                }
+            }
+            if (format.equalsIgnoreCase("csv") && !ignoredCols.isEmpty()) {
+                throw new DynException("Table >" + this.table + "< does not have the attributes >" + String.join(",", ignoredCols) + "<");
+            } else if (!ignoredCols.isEmpty()) {
+                this.warnings.add("Table >" + this.table + "< does not expect data for >" + String.join(",", ignoredCols) + "<");
+            }
+            if (columns.isEmpty()) {
+                throw new DynException("There is no data to insert");
+            }
+
+            String colsstr = columns.stream()
+                    .map(c -> "\"" + c.getName() + "\"")
+                    .collect(Collectors.joining(","));
+            String sql = "COPY \"" + this.schema + "\".\"" + this.table + "\" (" + colsstr + ") FROM STDIN WITH (FORMAT csv)";
+            Message msg = new Message("SQL: " + sql, MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+
+            Reader copyReader;
+            if (format.equalsIgnoreCase("csv")) {
+                copyReader = reader;
+            } else {
+                copyReader = new JsonLinesCopyReader(reader, firstLine, columns);
+            }
+            CopyManager copyManager = this.con.unwrap(PGConnection.class).getCopyAPI();
+            long copied = copyManager.copyIn(sql, copyReader, buffersize);
+            this.invalidateResults();
+            return copied;
+        } catch (IOException | SQLException ex) {
+            DynException de = new DynException("Could not bulk insert datasets: " + ex.getLocalizedMessage().replaceAll("[\\r\\n]", ""));
+            de.addSuppressed(ex);
+            throw de;
+        }
+    }
+
+    /**
+     * Inserts one chunk of records with the same attributes using a jdbc
+     * batch. The chunk is commited at once. If the batch fails the chunk is
+     * retried record by record, so that only the faulty records are left out.
+     *
+     * @param pstmtid Id of the prepared insert statement
+     * @param idcol Name of the identity column or null if there is none
+     * @param records All records of the request
+     * @param chunk Indices of the records to insert in this chunk
+     * @param ids Array where to note the ids of the new records (by index)
+     * @throws DynException
+     */
+    private void createChunk(String pstmtid, String idcol, List<JsonObject> records, List<Integer> chunk, Object[] ids) throws DynException {
+        String stmt = this.getUsedTemplate(pstmtid).getSql();
+        try {
+            this.con.setAutoCommit(false);
+            List<Integer> added = new ArrayList<>();
+            try (PreparedStatement pstmt = this.prepareInsertStatement(stmt, idcol)) {
+                for (Integer curIndex : chunk) {
+                    try {
+                        this.setInsertValues(pstmt, pstmtid, records.get(curIndex));
+                        pstmt.addBatch();
+                        added.add(curIndex);
+                    } catch (DynException ex) {
+                        this.warnings.add("Could not save record >" + curIndex + "<: " + ex.getLocalizedMessage());
+                    }
+                }
+                if (added.isEmpty()) {
+                    return;
+                }
+                int[] counts = pstmt.executeBatch();
+                if (idcol != null) {
+                    List<Object> keys = new ArrayList<>(added.size());
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        while (rs.next()) {
+                            keys.add(rs.getObject(1));
+                        }
+                    }
+                    // Ignored records (count 0) return no key
+                    List<Integer> written = new ArrayList<>(added.size());
+                    for (int i = 0; i < added.size(); i++) {
+                        if (i >= counts.length || counts[i] != 0) {
+                            written.add(added.get(i));
+                        }
+                    }
+                    if (keys.size() == written.size()) {
+                        for (int i = 0; i < written.size(); i++) {
+                            ids[written.get(i)] = keys.get(i);
+                        }
+                    } else {
+                        this.warnings.add("The ids of the saved records could not be determined.");
+                    }
+                }
+                this.noteIgnored(counts);
+                this.con.commit();
+            } catch (SQLException ex) {
+                try {
+                    this.con.rollback();
+                } catch (SQLException ex1) {
+                    Message msg = new Message("Could not rollback: " + ex1.getLocalizedMessage(),
+                            MessageLevel.ERROR);
+                    Logger.addDebugMessage(msg);
+                }
+                Message msg = new Message("Batch insert into >" + this.schema + "." + this.table
+                        + "< failed, retrying record by record: " + ex.getLocalizedMessage(), MessageLevel.INFO);
+                Logger.addDebugMessage(msg);
+                for (Integer curIndex : added) {
+                    ids[curIndex] = null;
+                }
+                this.createChunkSingle(stmt, pstmtid, idcol, records, added, ids);
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not save datasets: " + ex.getLocalizedMessage().replaceAll("[\\r\\n]", ""));
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            try {
+                this.con.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Message msg = new Message("Could not reset autocomit mode to true!",
+                        MessageLevel.ERROR);
+                Logger.addDebugMessage(msg);
+            }
+            this.invalidateResults();
+        }
+    }
+
+    /**
+     * Inserts the records of a chunk one by one within one transaction. Every
+     * record is protected by a savepoint, so a faulty record does not abort
+     * the other ones.
+     *
+     * @param stmt SQL of the insert statement
+     * @param pstmtid Id of the prepared insert statement
+     * @param idcol Name of the identity column or null if there is none
+     * @param records All records of the request
+     * @param chunk Indices of the records to insert
+     * @param ids Array where to note the ids of the new records (by index)
+     * @throws SQLException
+     */
+    private void createChunkSingle(String stmt, String pstmtid, String idcol, List<JsonObject> records, List<Integer> chunk, Object[] ids) throws SQLException {
+        try (PreparedStatement pstmt = this.prepareInsertStatement(stmt, idcol)) {
+            for (Integer curIndex : chunk) {
+                Savepoint sp = this.con.setSavepoint();
+                try {
+                    this.setInsertValues(pstmt, pstmtid, records.get(curIndex));
+                    int count = pstmt.executeUpdate();
+                    this.noteIgnored(new int[]{count});
+                    if (count > 0 && idcol != null) {
+                        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                            if (keys.next()) {
+                                ids[curIndex] = keys.getObject(1);
+                            }
+                        }
+                    }
+                    this.con.releaseSavepoint(sp);
+                } catch (SQLException | DynException ex) {
+                    this.con.rollback(sp);
+                    Long existingId = null;
+                    if (ex instanceof SQLException && this.conflictHandling == null && isUniqueViolation((SQLException) ex)) {
+                        existingId = this.updateExistingRecord(records.get(curIndex), curIndex);
+                    }
+                    if (existingId != null) {
+                        ids[curIndex] = existingId;
+                        this.warnings.add("Updated record >" + curIndex + "< because it allready exists. Set id: >" + existingId + "<");
+                    } else {
+                        this.warnings.add("Could not save record >" + curIndex + "<: " + ex.getLocalizedMessage().replaceAll("[\\r\\n]", ""));
+                    }
+                }
+            }
+            this.con.commit();
+        }
+    }
+
+    /**
+     * Checks if an insert failed because of an unique constraint violation
+     *
+     * @param ex Exception of the insert
+     * @return true if an unique constraint was violated
+     */
+    private static boolean isUniqueViolation(SQLException ex) {
+        return ex.getMessage() != null
+                && (ex.getMessage().contains("violates unique constraint") || ex.getMessage().contains("Unique-Constraint"));
+    }
+
+    /**
+     * Updates the existing dataset with the same ts as the given one. Used
+     * when inserting failed because of an unique constraint violation and no
+     * conflict handling was requested.
+     *
+     * @param json Dataset that could not be inserted
+     * @return Id of the updated dataset or null if there is none
+     * @throws SQLException
+     * @throws DynException
+     */
+    private Long updateExisting(JsonObject json) throws SQLException, DynException {
+        Attribute tsColumn = this.dyncollection.getAttributes().get("ts");
+        if (tsColumn == null) {
+            return null;
+        }
+        // Get id of existing dataset
+        String selorig = "SELECT id FROM \"" + this.schema + "\".\"" + this.table + "\" WHERE ts=?";
+        long id = 0;
+        try (PreparedStatement selstmt = this.con.prepareStatement(selorig)) {
+            this.setPlaceholder(selstmt, 1, tsColumn, json.get("ts"));
+            try (ResultSet rs = selstmt.executeQuery()) {
+                while (rs.next()) {
+                    id = rs.getLong("id");
+                }
+            }
+        }
+        if (id <= 0) {
+            return null;
+        }
+        this.update(json, id);
+        return id;
+    }
+
+    /**
+     * Updates the existing dataset for a record of a batch, protected by its
+     * own savepoint within the batch transaction.
+     *
+     * @param json Record that could not be inserted
+     * @param index Index of the record in the request
+     * @return Id of the updated dataset or null if there is none
+     * @throws SQLException
+     */
+    private Long updateExistingRecord(JsonObject json, int index) throws SQLException {
+        Savepoint sp = this.con.setSavepoint();
+        try {
+            Long id = this.updateExisting(json);
+            this.con.releaseSavepoint(sp);
+            return id;
+        } catch (SQLException | DynException ex) {
+            this.con.rollback(sp);
+            Message msg = new Message("Could not update existing dataset for record >" + index + "<: "
+                    + ex.getLocalizedMessage(), MessageLevel.INFO);
+            Logger.addDebugMessage(msg);
+            return null;
+        }
+    }
+
+    /**
+     * Notes records that were ignored because of conflicts as warning
+     *
+     * @param counts Update counts of the executed inserts
+     */
+    private void noteIgnored(int[] counts) {
+        if (this.conflictHandling == null || this.conflictHandling.isUpdate()) {
+            return;
+        }
+        long ignored = Arrays.stream(counts).filter(c -> c == 0).count();
+        if (ignored == 0) {
+            return;
+        }
+        // Sum up with previous chunks
+        String prefix = "Records ignored because they already exist: ";
+        for (int i = 0; i < this.warnings.size(); i++) {
+            if (this.warnings.get(i).startsWith(prefix)) {
+                ignored += Long.parseLong(this.warnings.get(i).substring(prefix.length()));
+                this.warnings.remove(i);
+                break;
+            }
+        }
+        this.warnings.add(prefix + ignored);
+    }
+
+    /**
+     * Prepares an insert statement, that returns the generated id if there is
+     * an identity column.
+     *
+     * @param stmt SQL of the insert statement
+     * @param idcol Name of the identity column or null if there is none
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    private PreparedStatement prepareInsertStatement(String stmt, String idcol) throws SQLException {
+        if (idcol != null) {
+            return this.con.prepareStatement(stmt, new String[]{idcol});
+        }
+        return this.con.prepareStatement(stmt);
+    }
+
+    /**
+     * Sets the values of one record to a prepared insert statement
+     *
+     * @param pstmt Prepared insert statement
+     * @param pstmtid Id of the prepared insert statement
+     * @param json Record to insert
+     * @throws DynException If a value could not be set or is missing
+     */
+    private void setInsertValues(PreparedStatement pstmt, String pstmtid, JsonObject json) throws DynException {
+        Map<String, Integer> placeholders = this.getUsedTemplate(pstmtid).getPlaceholders();
+        Map<String, Attribute> columns = this.dyncollection.getAttributes();
+        List<String> ignoredCols = new ArrayList<>();
+        List<String> setCols = new ArrayList<>();
+        for (Map.Entry<String, JsonValue> curEntry : json.entrySet()) {
+            String jkey = curEntry.getKey();
+            // Check if table expects that data
+            if (!placeholders.containsKey(jkey)) {
+                ignoredCols.add(jkey);
+                continue;
+            }
+            int pindex = placeholders.get(jkey);
+
+            // Get column information
+            Attribute curColumn = columns.get(jkey);
+            Logger.addDebugMessage(new Message("Set value >" + curEntry.getValue() + "< for attribute >" + curColumn.getName() + "<", MessageLevel.INFO));
+            this.setPlaceholder(pstmt, pindex, curColumn, curEntry.getValue());
+            setCols.add(jkey);
+        }
+        // Check if all expected columns are set
+        List<String> missingCols = new ArrayList<>();
+        for (String expectedCol : placeholders.keySet()) {
+            if (!setCols.contains(expectedCol)) {
+                missingCols.add(expectedCol);
+            }
+        }
+        if (!missingCols.isEmpty()) {
+            throw new DynException("The attributes >" + String.join(", ", missingCols) + "< have no values set.");
+        }
+        // Check ignored columns
+        if (!ignoredCols.isEmpty()) {
+            String ignoredColStr = String.join(",", ignoredCols);
+            String warning = "Table >" + this.table + "< does not expect data for >" + ignoredColStr + "<";
+            if (!this.warnings.contains(warning)) {
+                this.warnings.add(warning);
+            }
+        }
+    }
+
     /**
      * Converts a geosjon Feature into one simple json dataset, converting geo
      * informations into WKT.
@@ -795,6 +2110,18 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
      * @throws DynException
      */
     public Object createFromGeojson(JsonObject geojsonobj) throws DynException {
+        return this.create(this.convertGeojsonFeature(geojsonobj));
+    }
+
+    /**
+     * Converts a geosjon Feature into one simple json dataset, converting geo
+     * informations into WKT.
+     *
+     * @param geojsonobj Geojson Feature object
+     * @return Simple json dataset
+     * @throws DynException
+     */
+    private JsonObject convertGeojsonFeature(JsonObject geojsonobj) throws DynException {
         JsonObjectBuilder databuilder = Json.createObjectBuilder();
         // Check if geojson is valid
         String featurestring = geojsonobj.getString("type");
@@ -869,7 +2196,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             }
         }
 
-        return this.create(databuilder.build());
+        return databuilder.build();
     }
 
     @Override
@@ -878,74 +2205,48 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             throw new DynException("Given json is empty");
         }
         String pstmtid = this.getPreparedInsert(json);
-        String stmt = preparedStatements.get(pstmtid);
+        String stmt = this.getUsedTemplate(pstmtid).getSql();
+
+        String idcol = null;
+        List<Attribute> idattrs = this.dyncollection.getIdentityAttributes();
+        if (idattrs != null && !idattrs.isEmpty()) {
+            idcol = idattrs.get(0).getName();
+        }
 
         Logger.addDebugMessage(new Message("Build create statement >" + stmt + "<", MessageLevel.INFO));
-        try (PreparedStatement pstmt = this.con.prepareStatement(stmt);) {
-            Map<String, Integer> placeholders = preparedPlaceholders.get(pstmtid);
+        String[] keyColumns = idcol != null ? new String[]{idcol} : null;
+        try (StatementHandleCache.Lease lease = StatementHandleCache.prepare(this.con, pstmtid, stmt, keyColumns)) {
+            PreparedStatement pstmt = lease.getStatement();
             Map<String, Attribute> columns = this.dyncollection.getAttributes();
-            List<String> ignoredCols = new ArrayList<>();
-            List<String> setCols = new ArrayList<>();
-            for (Map.Entry<String, JsonValue> curEntry : json.entrySet()) {
-                String jkey = curEntry.getKey();
-                // Check if table expects that data
-                if (!placeholders.containsKey(jkey)) {
-                    ignoredCols.add(jkey);
-                    continue;
-                }
-                int pindex = placeholders.get(jkey);
-
-                // Get column information
-                Attribute curColumn = columns.get(jkey);
-                Logger.addDebugMessage(new Message("Set value >" + curEntry.getValue() + "< for attribute >" + curColumn.getName() + "<", MessageLevel.INFO));
-                this.setPlaceholder(pstmt, pindex, curColumn, curEntry.getValue());
-                setCols.add(jkey);
-            }
-            // Check if all expected columns are set
-            List<String> missingCols = new ArrayList<>();
-            for (String expectedCol : placeholders.keySet()) {
-                if (!setCols.contains(expectedCol)) {
-                    missingCols.add(expectedCol);
-                }
-            }
-            if (!missingCols.isEmpty()) {
-                throw new DynException("The attributes >" + String.join(", ", missingCols) + "< have no values set.");
-            }
-            // Check ignored columns
-            if (!ignoredCols.isEmpty()) {
-                String ignoredColStr = String.join(",", ignoredCols);
-                String warning = "Table >" + this.table + "< does not expect data for >" + ignoredColStr + "<";
-                if (!this.warnings.contains(warning)) {
-                    this.warnings.add(warning);
-                }
-            }
-            // Prevent process form accessing manual comit mode, if other process
-            // is in manual comit mode (on any other location)
-            commitlock.acquire();
+            this.setInsertValues(pstmt, pstmtid, json);
+            Object newid = null;
+            // Each request uses its own connection, so the transaction isolates
+            // the insert from other processes
             try {
                 this.con.setAutoCommit(false);
-                pstmt.executeUpdate();
-                pstmt.close();
+                long execStart = System.nanoTime();
+                int count = pstmt.executeUpdate();
+                lease.executed(System.nanoTime() - execStart);
+                if (count == 0 && this.conflictHandling != null) {
+                    this.warnings.add("Dataset was ignored because it already exists.");
+                } else if (idcol != null) {
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            newid = keys.getObject(1);
+                        }
+                    }
+                }
                 this.con.commit();
+                this.invalidateResults();
             } catch (SQLException ex) {
                 this.warnings.add("Exception occured: " + ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage());
-                // Try fix unique constraint violation
-                if (ex.getMessage().contains("violates unique constraint") || ex.getMessage().contains("Unique-Constraint")) {
-                    // Get id of existing dataset
-                    String selorig = "SELECT id FROM \"" + this.schema + "\".\"" + this.table + "\" WHERE ts=?";
+                // Try fix unique constraint violation (only if no explicit conflict handling is requested)
+                if (this.conflictHandling == null && isUniqueViolation(ex)) {
                     this.con.setAutoCommit(true);
-                    PreparedStatement selstmt = this.con.prepareStatement(selorig);
-                    Attribute curColumn = columns.get("ts");
-                    if (curColumn != null) {
-                        this.setPlaceholder(selstmt, 1, curColumn, json.get("ts"));
-                        ResultSet rs = selstmt.executeQuery();
-                        long id = 0;
-                        while (rs.next()) {
-                            id = rs.getLong("id");
-                        }
-                        // Create update statement
-                        if (id > 0) {
-                            this.update(json, id);
+                    if (columns.get("ts") != null) {
+                        Long id = this.updateExisting(json);
+                        if (id != null) {
+                            newid = id;
                             String upWarn = "Updated set because it allready exists. Set id: >" + id + "<";
                             this.warnings.add(upWarn);
                         }
@@ -976,18 +2277,9 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                     Logger.addDebugMessage(msg);
                 }
             }
-            // Request primary key
-            String idstmt = preparedStatements.get("id_" + pstmtid);
-            if (idstmt != null) {
-                try (PreparedStatement idpstmt = this.con.prepareStatement(idstmt)) {
-                    if (idpstmt != null) {
-                        try (ResultSet prs = idpstmt.executeQuery()) {
-                            if (prs.next()) {
-                                return prs.getObject(1);
-                            }
-                        }
-                    }
-                }
+            // Primary key is returned by the insert itself
+            if (idcol != null) {
+                return newid;
             } else {
                 String warning = "Table >" + this.table + "< does not have a primary key. You should add a primary key to get id in response when creating new datasets.";
                 if (!this.warnings.contains(warning)) {
@@ -1006,18 +2298,15 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             de.addSuppressed(ex);
             ex.printStackTrace();
             throw de;
-        } finally {
-            commitlock.release();
         }
     }
 
     @Override
     public String getPreparedUpdate(JsonObject json, Long id) throws DynException {
-        String pstmtid = "update_" + String.join("_", json.keySet());
+        String pstmtid = "update_" + this.schema + '_' + this.table + "_" + getAttributesKey(json.keySet());
         this.lastStmtId = pstmtid;
 
-        if (!this.preparedStatements.containsKey(pstmtid)) {
-            this.preparedWarnings.put(pstmtid, new ArrayList<>());
+        if (!this.useCachedTemplate(pstmtid)) {
             Map<String, Attribute> columns = this.dyncollection.getAttributes();
             Map<String, Integer> placeholders = new HashMap<>();
 
@@ -1036,7 +2325,6 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             int foundCols = 0;
             String identitycol = null;
             for (String curKey : json.keySet()) {
-                pstmtid += curKey;
                 // Check if table expects that data
                 if (!columns.containsKey(curKey)) {
                     continue;
@@ -1092,8 +2380,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
             Message msg = new Message("SQL: " + sql, MessageLevel.INFO);
             Logger.addDebugMessage(msg);
 
-            this.preparedStatements.put(pstmtid, sql);
-            this.preparedPlaceholders.put(pstmtid, placeholders);
+            this.cacheTemplate(pstmtid, sql, placeholders, new ArrayList<>());
         }
         return pstmtid;
     }
@@ -1132,9 +2419,10 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
     @Override
     public Long update(JsonObject json, Long id) throws DynException {
         String pstmtid = this.getPreparedUpdate(json, id);
-        String stmt = this.preparedStatements.get(pstmtid);
+        StatementCache.Template template = this.getUsedTemplate(pstmtid);
+        String stmt = template.getSql();
         try (PreparedStatement pstmt = this.con.prepareStatement(stmt)) {
-            Map<String, Integer> placeholders = this.preparedPlaceholders.get(pstmtid);
+            Map<String, Integer> placeholders = template.getPlaceholders();
             Map<String, Attribute> columns = this.dyncollection.getAttributes();
 
             int usedPlaceholders = 1;
@@ -1174,6 +2462,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
                 }
             }
             int modifieds = pstmt.executeUpdate();
+            this.invalidateResults();
             if (modifieds == 0) {
                 DynException de = new DynException("Dataset with id >" + id + "< not found.");
                 throw de;
@@ -1404,6 +2693,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
 
         try (Statement stmt = this.con.createStatement()) {
             stmt.executeUpdate(sql);
+            this.invalidateResults();
             return null;
         } catch (SQLException ex) {
             String msg = "Could not update dataset: " + ex.getLocalizedMessage().replaceAll("[\\r\\n]", "");
@@ -1433,6 +2723,7 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
 
         try (Statement stmt = this.con.createStatement()) {
             stmt.executeUpdate(sql);
+            this.invalidateResults();
         } catch (SQLException ex) {
             String msg = "Could not update dataset: " + ex.getLocalizedMessage().replaceAll("[\\r\\n]", "");
             Message msga = new Message(msg, MessageLevel.ERROR);
@@ -1447,9 +2738,9 @@ public final class DynRecordsPostgres extends DynPostgres implements DynRecords
     @Override
     public List<String> getWarnings() {
         List<String> allwarns = this.warnings;
-        List<String> stmtwarns = this.preparedWarnings.get(this.lastStmtId);
-        if (stmtwarns != null) {
-            allwarns.addAll(stmtwarns);
+        StatementCache.Template template = this.usedTemplates.get(this.lastStmtId);
+        if (template != null) {
+            allwarns.addAll(template.getWarnings());
         }
         return allwarns;
     }
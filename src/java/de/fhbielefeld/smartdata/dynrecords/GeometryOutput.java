@@ -0,0 +1,104 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import java.util.Set;
+
+/**
+ * Options for reducing delivered geometries: simplification with a fixed
+ * tolerance or a tolerance fitting a map zoom level and reduction of the
+ * number of decimal digits.
+ *
+ * @author Florian Fehring
+ */
+public class GeometryOutput {
+
+    // Reference systems with coordinates in degrees, all others are taken as meters
+    private static final Set<Integer> GEOGRAPHIC_SRIDS = Set.of(4326, 4979, 4674, 4258, 4269, 4171);
+    // Size of a 256px tile at zoom 0
+    private static final double WORLD_DEGREES = 360.0;
+    private static final double WORLD_METERS = 40075016.686;
+
+    private final Double simplify;
+    private final Integer zoom;
+    private final Integer precision;
+
+    /**
+     * Creates geometry output options
+     *
+     * @param simplify Tolerance for simplification in units of the output
+     * reference system, or null
+     * @param zoom Zoom level to derive the tolerance from (one pixel of a 256px
+     * tile), or null
+     * @param precision Number of decimal digits, or null
+     * @throws DynException If the options are not valid
+     */
+    public GeometryOutput(Double simplify, Integer zoom, Integer precision) throws DynException {
+        if (simplify != null && zoom != null) {
+            throw new DynException("Use simplify or zoom, not both.");
+        }
+        if (simplify != null && (simplify < 0 || simplify.isNaN() || simplify.isInfinite())) {
+            throw new DynException("The simplify tolerance >" + simplify + "< must be a positive number.");
+        }
+        if (zoom != null && (zoom < 0 || zoom > 30)) {
+            throw new DynException("The zoom level >" + zoom + "< must be between 0 and 30.");
+        }
+        if (precision != null && (precision < 0 || precision > 15)) {
+            throw new DynException("The precision >" + precision + "< must be between 0 and 15.");
+        }
+        this.simplify = simplify;
+        this.zoom = zoom;
+        this.precision = precision;
+    }
+
+    public Integer getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Gets the part of the statement id for this options
+     *
+     * @return Statement id part
+     */
+    public String getStatementId() {
+        return "_simp" + this.simplify + "_zoom" + this.zoom + "_prec" + this.precision;
+    }
+
+    /**
+     * Gets the tolerance for simplification
+     *
+     * @param srid Reference system the geometry is simplified in
+     * @return Tolerance or null if no simplification is requested
+     */
+    public Double getTolerance(Integer srid) {
+        if (this.simplify != null) {
+            return this.simplify;
+        }
+        if (this.zoom != null) {
+            double world = srid != null && GEOGRAPHIC_SRIDS.contains(srid) ? WORLD_DEGREES : WORLD_METERS;
+            return world / (256.0 * Math.pow(2, this.zoom));
+        }
+        return null;
+    }
+
+    /**
+     * Wraps a geometry expression with simplification and precision
+     * reduction
+     *
+     * @param geomExpr Sql expression of the geometry
+     * @param srid Reference system of the expression
+     * @param reducePrecision If the precision should be reduced (not needed if
+     * the output function has an own precision argument)
+     * @return Sql expression
+     */
+    public String wrap(String geomExpr, Integer srid, boolean reducePrecision) {
+        String expr = geomExpr;
+        Double tolerance = this.getTolerance(srid);
+        if (tolerance != null && tolerance > 0) {
+            expr = "ST_SimplifyPreserveTopology(" + expr + ", " + tolerance + ")";
+        }
+        if (reducePrecision && this.precision != null) {
+            expr = "ST_ReducePrecision(" + expr + ", " + Math.pow(10, -this.precision) + ")";
+        }
+        return expr;
+    }
+}
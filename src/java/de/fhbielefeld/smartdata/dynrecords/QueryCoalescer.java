@@ -0,0 +1,124 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent queries. The first caller executes the
+ * query, callers with the same key arriving while it is running wait for
+ * and share its result instead of using an own database connection.
+ *
+ * Can be disabled with coalescing.enabled=false. Waiting callers wait at most
+ * coalescing.timeout seconds (default 30) and then execute the query on
+ * their own, so a hanging query does not block all its followers.
+ *
+ * @author Florian Fehring
+ */
+public class QueryCoalescer {
+
+    /**
+     * Loads the result of a query
+     *
+     * @param <T> Type of the result
+     */
+    public interface Loader<T> {
+
+        public T load() throws DynException;
+    }
+
+    private static final Map<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    private static final AtomicLong executions = new AtomicLong();
+    private static final AtomicLong coalesced = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong timeouts = new AtomicLong();
+
+    private QueryCoalescer() {
+    }
+
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty("coalescing.enabled", true);
+    }
+
+    private static int timeout() {
+        return Math.max(Configuration.getInstance().getIntProperty("coalescing.timeout", 30), 1);
+    }
+
+    /**
+     * Executes the query or waits for the result of an identical query
+     * allready running.
+     *
+     * @param <T> Type of the result
+     * @param key Normalized key of the query, must contain everything that
+     * influences the result (including rights of the user)
+     * @param loader Loader executing the query
+     * @return Result of the query
+     * @throws DynException
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T execute(String key, Loader<T> loader) throws DynException {
+        if (!isEnabled()) {
+            return loader.load();
+        }
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, own);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) running.get(timeout(), TimeUnit.SECONDS);
+            } catch (TimeoutException ex) {
+                timeouts.incrementAndGet();
+                return loader.load();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                DynException de = new DynException("Interrupted while waiting for identical query: " + ex.getLocalizedMessage());
+                de.addSuppressed(ex);
+                throw de;
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                DynException de = new DynException(cause.getLocalizedMessage());
+                de.addSuppressed(cause);
+                throw de;
+            }
+        }
+
+        executions.incrementAndGet();
+        try {
+            T result = loader.load();
+            own.complete(result);
+            return result;
+        } catch (DynException | RuntimeException ex) {
+            failures.incrementAndGet();
+            own.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            if (!own.isDone()) {
+                own.completeExceptionally(new IllegalStateException("Query for >" + key + "< aborted"));
+            }
+            inflight.remove(key, own);
+        }
+    }
+
+    /**
+     * Gets the statistics of the coalescing
+     *
+     * @return Map with statistics
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("inflight", inflight.size());
+        stats.put("executions", executions.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+}
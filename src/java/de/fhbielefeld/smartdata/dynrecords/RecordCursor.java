@@ -0,0 +1,63 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Cursor over the datasets of a query. Datasets are fetched from database in
+ * chunks while iterating, so only a small part of the result is held in
+ * memory. Must be closed after use.
+ *
+ * @author Florian Fehring
+ */
+public class RecordCursor implements AutoCloseable {
+
+    /**
+     * Action executed when the cursor is closed
+     */
+    public interface CloseAction {
+
+        public void close() throws DynException;
+    }
+
+    private final ResultSet rs;
+    private final CloseAction onClose;
+
+    public RecordCursor(ResultSet rs, CloseAction onClose) {
+        this.rs = rs;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Moves to the next dataset
+     *
+     * @return false if there are no more datasets
+     * @throws SQLException
+     */
+    public boolean next() throws SQLException {
+        return this.rs.next();
+    }
+
+    /**
+     * Gets the result set positioned on the current dataset
+     *
+     * @return ResultSet
+     */
+    public ResultSet getResultSet() {
+        return this.rs;
+    }
+
+    @Override
+    public void close() throws DynException {
+        try {
+            this.rs.close();
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not close cursor: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            this.onClose.close();
+        }
+    }
+}
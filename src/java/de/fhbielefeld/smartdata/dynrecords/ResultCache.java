@@ -0,0 +1,248 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Application wide cache for query results. Results are cached per statement
+ * and bound values and removed when datasets of one of the involved
+ * collections are written through SmartData. The cache is bounded by the
+ * size of the cached results, least recently used results are evicted first.
+ *
+ * Writes that bypass SmartData (other clients, COPY outside the bulk
+ * endpoint, triggers) can not be noticed. Their datasets stay invisible until
+ * the result expires after resultcache.ttl seconds (default 60). Therefore
+ * the cache is disabled by default and has to be enabled with
+ * resultcache.enabled=true, where this staleness is acceptable. The maximum
+ * size is configured with resultcache.maxbytes (default 64 MB).
+ *
+ * @author Florian Fehring
+ */
+public class ResultCache {
+
+    /**
+     * Cached result
+     */
+    public static class Entry {
+
+        private final String json;
+        private final Set<String> collections;
+        private final long created;
+        private final long bytes;
+        private final String etag;
+
+        private Entry(String json, Set<String> collections) {
+            this.json = json;
+            this.collections = collections;
+            this.created = System.currentTimeMillis();
+            this.bytes = json.length() * 2L;
+            CRC32 crc = new CRC32();
+            crc.update(json.getBytes(StandardCharsets.UTF_8));
+            this.etag = Long.toHexString(crc.getValue()) + Integer.toHexString(json.length());
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        /**
+         * Gets the time the result was fetched from database
+         *
+         * @return Time in milliseconds
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * Gets a tag identifying the content of the result
+         *
+         * @return Tag usable as ETag
+         */
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Write counter per collection, used to detect writes while a query is running
+    private static final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private static long usedBytes = 0;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    private ResultCache() {
+    }
+
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty("resultcache.enabled", false);
+    }
+
+    private static long ttl() {
+        return Configuration.getInstance().getIntProperty("resultcache.ttl", 60) * 1000L;
+    }
+
+    private static long maxBytes() {
+        return Configuration.getInstance().getIntProperty("resultcache.maxbytes", 64 * 1024 * 1024);
+    }
+
+    private static String collectionKey(String schema, String table) {
+        return schema + "." + table;
+    }
+
+    /**
+     * Gets a cached result
+     *
+     * @param key Key of the query (statement id and bound values)
+     * @return Entry or null if not cached or expired
+     */
+    public static synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.created > ttl()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Gets the write version of the given collections. Must be read before
+     * executing the query, that should be cached.
+     *
+     * @param schema Name of the schema
+     * @param tables Names of the tables involved in the query
+     * @return Sum of the write counters
+     */
+    public static long getVersion(String schema, Collection<String> tables) {
+        long version = 0;
+        for (String curTable : tables) {
+            version += versions.computeIfAbsent(collectionKey(schema, curTable), k -> new AtomicLong()).get();
+        }
+        return version;
+    }
+
+    /**
+     * Adds a result to the cache. The result is not cached if one of the
+     * collections was written since the version was read.
+     *
+     * @param key Key of the query (statement id and bound values)
+     * @param schema Name of the schema
+     * @param tables Names of the tables involved in the query
+     * @param version Version read before executing the query
+     * @param json Result
+     * @return Cached entry, or null if the result was not cached
+     */
+    public static synchronized Entry put(String key, String schema, Collection<String> tables, long version, String json) {
+        if (getVersion(schema, tables) != version) {
+            return null;
+        }
+        long max = maxBytes();
+        // Do not let one result displace large parts of the cache
+        if (json.length() * 2L > max / 16) {
+            return null;
+        }
+        Set<String> collections = ConcurrentHashMap.newKeySet();
+        for (String curTable : tables) {
+            collections.add(collectionKey(schema, curTable));
+        }
+        remove(key);
+        Entry entry = new Entry(json, collections);
+        entries.put(key, entry);
+        usedBytes += entry.bytes;
+        // Evict least recently used results
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > max && it.hasNext()) {
+            Entry curEntry = it.next();
+            it.remove();
+            usedBytes -= curEntry.bytes;
+            evictions.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private static void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            usedBytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Removes all results that involve the collection. Must be called after
+     * datasets of the collection were written.
+     *
+     * @param schema Name of the schema
+     * @param table Name of the table (null for all tables of the schema)
+     */
+    public static synchronized void invalidate(String schema, String table) {
+        String prefix = schema + ".";
+        for (Map.Entry<String, AtomicLong> curVersion : versions.entrySet()) {
+            if (table == null ? curVersion.getKey().startsWith(prefix)
+                    : curVersion.getKey().equals(collectionKey(schema, table))) {
+                curVersion.getValue().incrementAndGet();
+            }
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry curEntry = it.next();
+            boolean affected = false;
+            for (String curCol : curEntry.collections) {
+                if (table == null ? curCol.startsWith(prefix) : curCol.equals(collectionKey(schema, table))) {
+                    affected = true;
+                    break;
+                }
+            }
+            if (affected) {
+                it.remove();
+                usedBytes -= curEntry.bytes;
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all results
+     */
+    public static synchronized void invalidateAll() {
+        for (AtomicLong curVersion : versions.values()) {
+            curVersion.incrementAndGet();
+        }
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Gets the statistics of the cache
+     *
+     * @return Map with statistics
+     */
+    public static synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("size", entries.size());
+        stats.put("bytes", usedBytes);
+        stats.put("maxBytes", maxBytes());
+        stats.put("ttl_s", ttl() / 1000);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+}
@@ -0,0 +1,759 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.scl.logger.Logger;
+import de.fhbielefeld.scl.logger.message.Message;
+import de.fhbielefeld.scl.logger.message.MessageLevel;
+import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.converter.DataConverter;
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dbo.Rollup;
+import de.fhbielefeld.smartdata.dyn.DynFactory;
+import de.fhbielefeld.smartdata.dyncollection.DynCollection;
+import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
+import de.fhbielefeld.smartdata.dynstorage.DynStorage;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+
+/**
+ * Manages rollups: tables with datasets of a collection pre-aggregated into
+ * time buckets.
+ *
+ * Writes to the collection mark the touched buckets as dirty in the table
+ * [rollup]_dirty (by statement level triggers, so bulk inserts mark each
+ * bucket once). A background job recalculates only the dirty buckets every
+ * rollup.refreshinterval seconds (default 60). Can be disabled with
+ * rollup.enabled=false.
+ *
+ * Bucket queries (see DynRecords.getBuckets()) are answered from a rollup, if
+ * the bucket size is a multiple of the rollups bucket size, all aggregates
+ * can be derived from the rollup and all filters are on the bucket or group
+ * attributes. Buckets not recalculated yet are aggregated from the
+ * collection, so results are always up to date. Routing can be disabled with
+ * rollup.routing=false.
+ *
+ * Dropping partitions of the collection does not change the rollups, so
+ * aggregates are kept after the datasets were removed by retention.
+ *
+ * @author Florian Fehring
+ */
+@WebListener
+public class RollupManager implements ServletContextListener {
+
+    private static class Entry {
+
+        private final List<Rollup> rollups;
+        private final long loaded;
+
+        private Entry(List<Rollup> rollups) {
+            this.rollups = rollups;
+            this.loaded = System.currentTimeMillis();
+        }
+    }
+
+    // Prefix of the table comment marking a table as rollup
+    private static final String ROLLUP_COMMENT = "smartdata.rollup=";
+    private static final Map<String, Entry> registry = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService scheduler = null;
+    private static final AtomicLong refreshes = new AtomicLong();
+    private static final AtomicLong refreshedBuckets = new AtomicLong();
+    private static final AtomicLong routedQueries = new AtomicLong();
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        Configuration conf = Configuration.getInstance();
+        if (!conf.getBooleanProperty("rollup.enabled", true) || conf.isMongo()) {
+            return;
+        }
+        int interval = Math.max(conf.getIntProperty("rollup.refreshinterval", 60), 1);
+        synchronized (RollupManager.class) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "SmartData-RollupManager");
+                    t.setDaemon(true);
+                    return t;
+                });
+                scheduler.scheduleWithFixedDelay(RollupManager::refreshAll, interval, interval, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        synchronized (RollupManager.class) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Recalculates the dirty buckets of all rollups
+     */
+    public static void refreshAll() {
+        Map<String, List<String>> collections;
+        try (DynStorage dyns = DynFactory.getDynStorage()) {
+            collections = dyns.getCollectionsWithRollups();
+        } catch (DynException ex) {
+            Message msg = new Message("Could not get collections with rollups: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+            Logger.addMessage(msg);
+            return;
+        }
+        for (Map.Entry<String, List<String>> curStorage : collections.entrySet()) {
+            for (String curCollection : curStorage.getValue()) {
+                try (DynCollection dync = DynFactory.getDynCollection(curStorage.getKey(), curCollection)) {
+                    dync.refreshRollups();
+                } catch (DynException ex) {
+                    Message msg = new Message("Could not refresh rollups of >" + curStorage.getKey() + "."
+                            + curCollection + "<: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                    Logger.addMessage(msg);
+                }
+            }
+        }
+    }
+
+    private static String key(String schema, String table) {
+        return schema + "." + table;
+    }
+
+    /**
+     * Gets the rollups of a collection
+     *
+     * @param con Connection to use
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @return List of rollups
+     * @throws DynException
+     */
+    public static List<Rollup> getRollups(Connection con, String schema, String table) throws DynException {
+        long ttl = Configuration.getInstance().getIntProperty("metadatacache.ttl", 300) * 1000L;
+        Entry entry = registry.get(key(schema, table));
+        if (entry != null && System.currentTimeMillis() - entry.loaded <= ttl) {
+            return entry.rollups;
+        }
+        List<Rollup> rollups = new ArrayList<>();
+        String sql = "SELECT c.relname, obj_description(c.oid, 'pg_class') AS comment FROM pg_class c "
+                + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE n.nspname = ? AND c.relkind = 'r' AND obj_description(c.oid, 'pg_class') LIKE ?";
+        try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+            pstmt.setString(1, schema);
+            pstmt.setString(2, ROLLUP_COMMENT + "%");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String[] parts = rs.getString("comment").substring(ROLLUP_COMMENT.length()).split(";", -1);
+                    if (parts.length < 4 || !parts[0].equals(table)) {
+                        continue;
+                    }
+                    Rollup rollup = new Rollup(rs.getString("relname"), parts[1]);
+                    if (!parts[2].isEmpty()) {
+                        rollup.getGroupBy().addAll(Arrays.asList(parts[2].split(",")));
+                    }
+                    if (!parts[3].isEmpty()) {
+                        rollup.getValues().addAll(Arrays.asList(parts[3].split(",")));
+                    }
+                    rollups.add(rollup);
+                }
+            }
+        } catch (SQLException ex) {
+            DynException de = new DynException("Could not get rollups of >" + schema + "." + table + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        }
+        registry.put(key(schema, table), new Entry(rollups));
+        return rollups;
+    }
+
+    /**
+     * Removes the cached rollup definitions of a collection
+     *
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     */
+    public static void invalidate(String schema, String table) {
+        registry.remove(key(schema, table));
+        DynRecordsPostgres.invalidateStatements(schema, table);
+    }
+
+    /**
+     * Gets the attribute describing the bucket column of a rollup (dates are
+     * bucketed as timestamps)
+     */
+    static Attribute getBucketColumn(Rollup rollup, Map<String, Attribute> attributes) throws DynException {
+        Attribute bucketAttr = attributes.get(rollup.getBucketAttribute());
+        if (bucketAttr == null) {
+            throw new DynException("The bucket attribute >" + rollup.getBucketAttribute() + "< does not exist.");
+        }
+        if (bucketAttr.getType().equals("date")) {
+            return new Attribute(bucketAttr.getName(), "timestamp");
+        }
+        return bucketAttr;
+    }
+
+    /**
+     * Creates the select aggregating datasets of the collection for a rollup
+     *
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @param attributes Attributes of the collection
+     * @param rollup Rollup
+     * @param dirtyOnly If true only the buckets marked as dirty are
+     * aggregated
+     * @return Sql select
+     * @throws DynException
+     */
+    static String getAggregateSelect(String schema, String table, Map<String, Attribute> attributes, Rollup rollup, boolean dirtyOnly) throws DynException {
+        Attribute bucketAttr = attributes.get(rollup.getBucketAttribute());
+        if (bucketAttr == null) {
+            throw new DynException("The bucket attribute >" + rollup.getBucketAttribute() + "< does not exist.");
+        }
+        String bucketCol = "\"" + table + "\".\"" + bucketAttr.getName() + "\"";
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(DynRecordsPostgres.getTypedBucketExpression(rollup.getBucketInterval(), bucketCol, bucketAttr));
+        sb.append(" AS \"").append(bucketAttr.getName()).append("\"");
+        for (String curGroup : rollup.getGroupBy()) {
+            sb.append(", \"").append(table).append("\".\"").append(curGroup).append("\"");
+        }
+        sb.append(", COUNT(*) AS \"count\"");
+        for (String curValue : rollup.getValues()) {
+            String col = "\"" + table + "\".\"" + curValue + "\"";
+            sb.append(", MIN(").append(col).append(") AS \"min_").append(curValue).append("\"");
+            sb.append(", MAX(").append(col).append(") AS \"max_").append(curValue).append("\"");
+            sb.append(", SUM(").append(col).append(") AS \"sum_").append(curValue).append("\"");
+            sb.append(", COUNT(").append(col).append(") AS \"count_").append(curValue).append("\"");
+        }
+        sb.append(" FROM \"").append(schema).append("\".\"").append(table).append("\"");
+        if (dirtyOnly) {
+            // Range join, so the collection is read through its indexes or partitions
+            sb.append(" JOIN (SELECT DISTINCT \"bucket\" FROM \"").append(schema).append("\".\"")
+                    .append(rollup.getName()).append("_dirty\") d ON ").append(bucketCol).append(" >= d.\"bucket\" AND ")
+                    .append(bucketCol).append(" < d.\"bucket\" + ").append(DynRecordsPostgres.getBucketInterval(rollup.getBucketInterval()));
+        }
+        sb.append(" GROUP BY 1");
+        for (int i = 0; i < rollup.getGroupBy().size(); i++) {
+            sb.append(", ").append(i + 2);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks a rollup definition against the attributes of the collection
+     *
+     * @param table Name of the collection
+     * @param attributes Attributes of the collection
+     * @param rollup Rollup definition, gets a generated name if none is given
+     * @throws DynException If the definition is not valid
+     */
+    public static void checkRollup(String table, Map<String, Attribute> attributes, Rollup rollup) throws DynException {
+        if (rollup.getBucketAttribute() == null) {
+            throw new DynException("The bucket definition >" + rollup.getBucket() + "< is not valid. Use attribute,interval (e.g. ts,1h).");
+        }
+        DynRecordsPostgres.getTypedBucketExpression(rollup.getBucketInterval(), "x", getBucketColumn(rollup, attributes));
+        if (rollup.getName() == null || rollup.getName().isBlank()) {
+            String name = table + "_rollup_" + rollup.getBucketInterval();
+            rollup.setName(name.length() > 57 ? name.substring(0, 57) : name);
+        }
+        // Leave space for the suffixes of the dirty table and triggers
+        if (!rollup.getName().matches("[A-Za-z0-9_]{1,57}")) {
+            throw new DynException("The rollup name >" + rollup.getName() + "< is not valid. Use up to 57 letters, digits or underscores.");
+        }
+        Set<String> columns = new HashSet<>();
+        columns.add(rollup.getBucketAttribute());
+        columns.add("count");
+        for (String curGroup : rollup.getGroupBy()) {
+            if (!attributes.containsKey(curGroup)) {
+                throw new DynException("The group attribute >" + curGroup + "< does not exist.");
+            }
+            if (!columns.add(curGroup)) {
+                throw new DynException("The group attribute >" + curGroup + "< is used twice.");
+            }
+        }
+        if (rollup.getValues().isEmpty()) {
+            throw new DynException("The rollup does not contain values.");
+        }
+        for (String curValue : rollup.getValues()) {
+            Attribute attr = attributes.get(curValue);
+            if (attr == null) {
+                throw new DynException("The value attribute >" + curValue + "< does not exist.");
+            }
+            if (!DynRecordsPostgres.isNumericType(attr.getType())) {
+                throw new DynException("The value attribute >" + curValue + "< of type >" + attr.getType() + "< is not numeric.");
+            }
+            for (String curPrefix : List.of("min_", "max_", "sum_", "count_")) {
+                if (!columns.add(curPrefix + curValue)) {
+                    throw new DynException("The rollup column >" + curPrefix + curValue + "< collides with another column.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a rollup with its dirty table and triggers and calculates it
+     *
+     * @param con Connection to use
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @param attributes Attributes of the collection
+     * @param rollup Rollup definition
+     * @return Name of the rollup
+     * @throws DynException
+     */
+    public static String create(Connection con, String schema, String table, Map<String, Attribute> attributes, Rollup rollup) throws DynException {
+        checkRollup(table, attributes, rollup);
+        String name = rollup.getName();
+        String rollupTable = "\"" + schema + "\".\"" + name + "\"";
+        String dirtyTable = "\"" + schema + "\".\"" + name + "_dirty\"";
+        String markFunction = "\"" + schema + "\".\"" + name + "_mark\"";
+        String source = "\"" + schema + "\".\"" + table + "\"";
+        Attribute bucketAttr = attributes.get(rollup.getBucketAttribute());
+        Attribute bucketCol = getBucketColumn(rollup, attributes);
+        String markBucket = DynRecordsPostgres.getTypedBucketExpression(rollup.getBucketInterval(),
+                "t.\"" + bucketAttr.getName() + "\"", bucketAttr);
+        String markSql = "INSERT INTO " + dirtyTable + " (\"bucket\") SELECT DISTINCT " + markBucket
+                + " FROM %s t WHERE t.\"" + bucketAttr.getName() + "\" IS NOT NULL;";
+
+        StringBuilder index = new StringBuilder("\"" + bucketAttr.getName() + "\"");
+        for (String curGroup : rollup.getGroupBy()) {
+            index.append(", \"").append(curGroup).append("\"");
+        }
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE TABLE " + rollupTable + " AS " + getAggregateSelect(schema, table, attributes, rollup, false) + " WITH NO DATA");
+        statements.add("COMMENT ON TABLE " + rollupTable + " IS '" + ROLLUP_COMMENT + table + ";" + rollup.getBucket()
+                + ";" + String.join(",", rollup.getGroupBy()) + ";" + String.join(",", rollup.getValues()) + "'");
+        statements.add("CREATE INDEX ON " + rollupTable + " (" + index + ")");
+        statements.add("CREATE TABLE " + dirtyTable + " (\"bucket\" " + bucketCol.getType() + " NOT NULL)");
+        statements.add("CREATE FUNCTION " + markFunction + "() RETURNS trigger LANGUAGE plpgsql AS $$ BEGIN "
+                + String.format(markSql, "changed_rows")
+                + " IF TG_OP = 'UPDATE' THEN " + String.format(markSql, "old_rows") + " END IF;"
+                + " RETURN NULL; END $$");
+        statements.add("CREATE TRIGGER \"" + name + "_ins\" AFTER INSERT ON " + source
+                + " REFERENCING NEW TABLE AS changed_rows FOR EACH STATEMENT EXECUTE FUNCTION " + markFunction + "()");
+        statements.add("CREATE TRIGGER \"" + name + "_upd\" AFTER UPDATE ON " + source
+                + " REFERENCING OLD TABLE AS old_rows NEW TABLE AS changed_rows FOR EACH STATEMENT EXECUTE FUNCTION " + markFunction + "()");
+        statements.add("CREATE TRIGGER \"" + name + "_del\" AFTER DELETE ON " + source
+                + " REFERENCING OLD TABLE AS changed_rows FOR EACH STATEMENT EXECUTE FUNCTION " + markFunction + "()");
+
+        try {
+            con.setAutoCommit(false);
+            try (Statement stmt = con.createStatement()) {
+                for (String curSql : statements) {
+                    Message msg = new Message("SQL: " + curSql, MessageLevel.INFO);
+                    Logger.addDebugMessage(msg);
+                    stmt.executeUpdate(curSql);
+                }
+            }
+            con.commit();
+        } catch (SQLException ex) {
+            try {
+                con.rollback();
+            } catch (SQLException rex) {
+                ex.addSuppressed(rex);
+            }
+            DynException de = new DynException("Could not create rollup >" + name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            try {
+                con.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Message msg = new Message("RollupManager/create", MessageLevel.ERROR, "Could not reset autocomit mode to true!");
+                Logger.addDebugMessage(msg);
+            }
+        }
+        invalidate(schema, table);
+        // Initial calculation of all buckets
+        refresh(con, schema, table, attributes, rollup, true);
+        return name;
+    }
+
+    /**
+     * Deletes a rollup with its dirty table and triggers
+     *
+     * @param con Connection to use
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @param name Name of the rollup
+     * @throws DynException
+     */
+    public static void drop(Connection con, String schema, String table, String name) throws DynException {
+        boolean found = false;
+        for (Rollup curRollup : getRollups(con, schema, table)) {
+            if (curRollup.getName().equals(name)) {
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new DynException("The rollup >" + name + "< does not exist on >" + schema + "." + table + "<.");
+        }
+        String source = "\"" + schema + "\".\"" + table + "\"";
+        try {
+            con.setAutoCommit(false);
+            try (Statement stmt = con.createStatement()) {
+                for (String curSuffix : List.of("_ins", "_upd", "_del")) {
+                    stmt.executeUpdate("DROP TRIGGER IF EXISTS \"" + name + curSuffix + "\" ON " + source);
+                }
+                stmt.executeUpdate("DROP FUNCTION IF EXISTS \"" + schema + "\".\"" + name + "_mark\"()");
+                stmt.executeUpdate("DROP TABLE IF EXISTS \"" + schema + "\".\"" + name + "_dirty\"");
+                stmt.executeUpdate("DROP TABLE IF EXISTS \"" + schema + "\".\"" + name + "\"");
+            }
+            con.commit();
+        } catch (SQLException ex) {
+            try {
+                con.rollback();
+            } catch (SQLException rex) {
+                ex.addSuppressed(rex);
+            }
+            DynException de = new DynException("Could not delete rollup >" + name + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            try {
+                con.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Message msg = new Message("RollupManager/drop", MessageLevel.ERROR, "Could not reset autocomit mode to true!");
+                Logger.addDebugMessage(msg);
+            }
+        }
+        invalidate(schema, table);
+    }
+
+    /**
+     * Recalculates the buckets of a rollup. Runs in a repeatable read
+     * transaction, so dirty marks written while refreshing are kept for the
+     * next refresh. Skips if the rollup is refreshed by another instance.
+     *
+     * @param con Connection to use
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @param attributes Attributes of the collection
+     * @param rollup Rollup to refresh
+     * @param all If true all buckets are recalculated, otherwise only the
+     * dirty ones
+     * @return Number of recalculated buckets, -1 for all
+     * @throws DynException
+     */
+    public static int refresh(Connection con, String schema, String table, Map<String, Attribute> attributes, Rollup rollup, boolean all) throws DynException {
+        String rollupTable = "\"" + schema + "\".\"" + rollup.getName() + "\"";
+        String dirtyTable = "\"" + schema + "\".\"" + rollup.getName() + "_dirty\"";
+        String bucketName = "\"" + rollup.getBucketAttribute() + "\"";
+        int buckets = -1;
+        int isolation = Connection.TRANSACTION_READ_COMMITTED;
+        try {
+            isolation = con.getTransactionIsolation();
+            con.setAutoCommit(false);
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (Statement stmt = con.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_xact_lock(hashtext('" + schema + "." + rollup.getName() + "')) AS locked")) {
+                    if (!rs.next() || !rs.getBoolean("locked")) {
+                        con.rollback();
+                        return 0;
+                    }
+                }
+                if (all) {
+                    stmt.executeUpdate("DELETE FROM " + rollupTable);
+                    stmt.executeUpdate("INSERT INTO " + rollupTable + " " + getAggregateSelect(schema, table, attributes, rollup, false));
+                } else {
+                    try (ResultSet rs = stmt.executeQuery("SELECT COUNT(DISTINCT \"bucket\") AS buckets FROM " + dirtyTable)) {
+                        rs.next();
+                        buckets = rs.getInt("buckets");
+                    }
+                    if (buckets == 0) {
+                        con.rollback();
+                        return 0;
+                    }
+                    stmt.executeUpdate("DELETE FROM " + rollupTable + " r USING (SELECT DISTINCT \"bucket\" FROM "
+                            + dirtyTable + ") d WHERE r." + bucketName + " = d.\"bucket\"");
+                    stmt.executeUpdate("INSERT INTO " + rollupTable + " " + getAggregateSelect(schema, table, attributes, rollup, true));
+                }
+                // Only removes the marks visible in this snapshot
+                stmt.executeUpdate("DELETE FROM " + dirtyTable);
+            }
+            con.commit();
+        } catch (SQLException ex) {
+            try {
+                con.rollback();
+            } catch (SQLException rex) {
+                ex.addSuppressed(rex);
+            }
+            DynException de = new DynException("Could not refresh rollup >" + rollup.getName() + "<: " + ex.getLocalizedMessage());
+            de.addSuppressed(ex);
+            throw de;
+        } finally {
+            try {
+                con.setTransactionIsolation(isolation);
+                con.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Message msg = new Message("RollupManager/refresh", MessageLevel.ERROR, "Could not reset autocomit mode to true!");
+                Logger.addDebugMessage(msg);
+            }
+        }
+        refreshes.incrementAndGet();
+        if (buckets > 0) {
+            refreshedBuckets.addAndGet(buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Gets the length of a bucket size in seconds (months and years with
+     * their average length)
+     */
+    // Origin of fixed size buckets (2000-01-01 00:00 UTC) in epoch seconds
+    private static final long BUCKET_ORIGIN = 946684800L;
+
+    private static long getSeconds(String interval) {
+        Matcher matcher = DynRecordsPostgres.BUCKET_INTERVAL.matcher(interval.trim());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        long count = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "s":
+                return count;
+            case "m":
+                return count * 60;
+            case "h":
+                return count * 3600;
+            case "d":
+                return count * 86400;
+            case "w":
+                return count * 604800;
+            case "mon":
+                return count * 2629746;
+            default:
+                return count * 31556952;
+        }
+    }
+
+    /**
+     * Checks if buckets of the requested size can be combined from buckets of
+     * the rollup. Fixed sizes are binned from the same origin, so multiples
+     * share their bucket bounds.
+     */
+    private static boolean isCompatible(String rollupInterval, String requestedInterval, String bucketType) {
+        String rollupI = rollupInterval.trim();
+        String requestedI = requestedInterval.trim();
+        if (rollupI.equals(requestedI)) {
+            return true;
+        }
+        long rollupSecs = getSeconds(rollupI);
+        long requestedSecs = getSeconds(requestedI);
+        if (rollupSecs <= 0 || requestedSecs <= 0) {
+            return false;
+        }
+        boolean rollupCalendar = rollupI.endsWith("mon") || rollupI.endsWith("y");
+        boolean requestedCalendar = requestedI.endsWith("mon") || requestedI.endsWith("y");
+        if (rollupCalendar) {
+            return rollupI.equals("1mon") && requestedI.equals("1y");
+        }
+        if (requestedCalendar) {
+            // Months start at local midnight, bins of timestamptz at midnight UTC
+            return !bucketType.equals("timestamptz") && 86400 % rollupSecs == 0;
+        }
+        return requestedSecs % rollupSecs == 0;
+    }
+
+    /**
+     * Finds the rollup that can answer a bucket query with the fewest rows
+     *
+     * @param rollups Rollups of the collection
+     * @param bucket Requested bucket definition (attribute,interval)
+     * @param aggregates Requested aggregates
+     * @param filters Filters of the query
+     * @param attributes Attributes of the collection
+     * @return Rollup or null if no rollup fits
+     */
+    static Rollup findRollup(List<Rollup> rollups, String bucket, String aggregates, Collection<Filter> filters, Map<String, Attribute> attributes) {
+        if (rollups.isEmpty() || !Configuration.getInstance().getBooleanProperty("rollup.routing", true)) {
+            return null;
+        }
+        String[] bucketParts = bucket.split(",");
+        if (bucketParts.length != 2 || !attributes.containsKey(bucketParts[0])) {
+            return null;
+        }
+        Rollup best = null;
+        for (Rollup curRollup : rollups) {
+            if (!bucketParts[0].equals(curRollup.getBucketAttribute())
+                    || !isCompatible(curRollup.getBucketInterval(), bucketParts[1], attributes.get(bucketParts[0]).getType())
+                    || !canAggregate(curRollup, aggregates)) {
+                continue;
+            }
+            boolean filtersFit = true;
+            if (filters != null) {
+                for (Filter curFilter : filters) {
+                    String attr = curFilter.getAttribute();
+                    if (attr == null) {
+                        filtersFit = false;
+                    } else if (attr.equals(curRollup.getBucketAttribute())) {
+                        filtersFit = isOnBucketBound(curFilter, curRollup.getBucketInterval(), attributes.get(attr).getType());
+                    } else {
+                        filtersFit = curRollup.getGroupBy().contains(attr);
+                    }
+                    if (!filtersFit) {
+                        break;
+                    }
+                }
+            }
+            if (filtersFit && (best == null || getSeconds(curRollup.getBucketInterval()) > getSeconds(best.getBucketInterval()))) {
+                best = curRollup;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks if a filter on the bucket attribute selects whole rollup
+     * buckets. Only then filtering the bucket starts gives the same result as
+     * filtering the datasets. This is the case for ge and lt (and their
+     * negations) with a value on a bucket bound, e.g. ts,ge,2024-01-01T01:00
+     * for a 1h rollup but not ts,ge,2024-01-01T00:30.
+     *
+     * @param filter Filter on the bucket attribute
+     * @param rollupInterval Bucket size of the rollup
+     * @param bucketType Type of the bucket attribute
+     * @return true if the filter only selects whole buckets
+     */
+    private static boolean isOnBucketBound(Filter filter, String rollupInterval, String bucketType) {
+        String[] parts = filter.getFiltercode() != null ? filter.getFiltercode().split(",") : new String[0];
+        if (parts.length != 3 || !Arrays.asList("ge", "lt", "nge", "nlt").contains(parts[1])) {
+            return false;
+        }
+        Matcher matcher = DynRecordsPostgres.BUCKET_INTERVAL.matcher(rollupInterval.trim());
+        if (!matcher.matches()) {
+            return false;
+        }
+        LocalDateTime bound;
+        try {
+            bound = DataConverter.objectToLocalDateTime(parts[2]);
+        } catch (DynException ex) {
+            return false;
+        }
+        switch (matcher.group(2)) {
+            case "mon":
+                return bound.equals(bound.toLocalDate().withDayOfMonth(1).atStartOfDay());
+            case "y":
+                return bound.equals(bound.toLocalDate().withDayOfYear(1).atStartOfDay());
+            default:
+                // Fixed sizes are binned from 2000-01-01, in UTC for timestamptz
+                long seconds;
+                if (bucketType.equals("timestamptz") || bucketType.equals("timestamp with timezone")) {
+                    // Values without zone are interpreted in the session time zone
+                    seconds = Timestamp.valueOf(bound).toInstant().getEpochSecond();
+                } else {
+                    seconds = bound.toEpochSecond(ZoneOffset.UTC);
+                }
+                return bound.getNano() == 0
+                        && Math.floorMod(seconds - BUCKET_ORIGIN, getSeconds(rollupInterval)) == 0;
+        }
+    }
+
+    private static boolean canAggregate(Rollup rollup, String aggregates) {
+        for (String curAgg : aggregates.split(",")) {
+            Matcher matcher = DynRecordsPostgres.AGGREGATE.matcher(curAgg.trim().toLowerCase());
+            if (!matcher.matches()) {
+                return false;
+            }
+            String attrname = curAgg.trim().substring(matcher.group(1).length() + 1, curAgg.trim().length() - 1).trim();
+            if (!attrname.equals("*") && !rollup.getValues().contains(attrname)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the sql expression for an aggregate derived from the rollup
+     * columns
+     *
+     * @param aggregate Aggregate (e.g. avg(value) or count(*))
+     * @param table Alias of the rollup rows
+     * @return Sql expression named like the aggregate on the collection
+     */
+    static String getRollupAggregateExpression(String aggregate, String table) {
+        Matcher matcher = DynRecordsPostgres.AGGREGATE.matcher(aggregate.toLowerCase());
+        matcher.matches();
+        String function = matcher.group(1);
+        String attrname = aggregate.substring(function.length() + 1, aggregate.length() - 1).trim();
+        String prefix = "\"" + table + "\".\"";
+        if (attrname.equals("*")) {
+            return "SUM(" + prefix + "count\")::bigint AS \"count\"";
+        }
+        String alias = " AS \"" + function + "_" + attrname + "\"";
+        switch (function) {
+            case "min":
+                return "MIN(" + prefix + "min_" + attrname + "\")" + alias;
+            case "max":
+                return "MAX(" + prefix + "max_" + attrname + "\")" + alias;
+            case "sum":
+                return "SUM(" + prefix + "sum_" + attrname + "\")" + alias;
+            case "count":
+                return "SUM(" + prefix + "count_" + attrname + "\")::bigint" + alias;
+            default:
+                return "(SUM(" + prefix + "sum_" + attrname + "\")::float8 / NULLIF(SUM(" + prefix + "count_" + attrname + "\"), 0))" + alias;
+        }
+    }
+
+    /**
+     * Creates the sql for the rows of a rollup, with buckets not
+     * recalculated yet aggregated from the collection
+     *
+     * @param schema Name of the schema
+     * @param table Name of the collection
+     * @param attributes Attributes of the collection
+     * @param rollup Rollup
+     * @return Sql select with the same columns as the rollup table
+     * @throws DynException
+     */
+    static String getRollupRows(String schema, String table, Map<String, Attribute> attributes, Rollup rollup) throws DynException {
+        String rollupTable = "\"" + schema + "\".\"" + rollup.getName() + "\"";
+        String dirtyTable = "\"" + schema + "\".\"" + rollup.getName() + "_dirty\"";
+        return "SELECT r.* FROM " + rollupTable + " r WHERE NOT EXISTS (SELECT 1 FROM " + dirtyTable
+                + " d WHERE d.\"bucket\" = r.\"" + rollup.getBucketAttribute() + "\") UNION ALL "
+                + getAggregateSelect(schema, table, attributes, rollup, true);
+    }
+
+    /**
+     * Notes a bucket query answered from a rollup
+     */
+    static void countRouted() {
+        routedQueries.incrementAndGet();
+    }
+
+    /**
+     * Gets the statistics of the rollups
+     *
+     * @return Map with statistics
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", scheduler != null);
+        stats.put("routing", Configuration.getInstance().getBooleanProperty("rollup.routing", true));
+        stats.put("refreshes", refreshes.get());
+        stats.put("refreshedBuckets", refreshedBuckets.get());
+        stats.put("routedQueries", routedQueries.get());
+        return stats;
+    }
+}
@@ -0,0 +1,164 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe, size bounded cache for sql statement templates. Least recently
+ * used templates are evicted when the maximum size is reached.
+ *
+ * @author Florian Fehring
+ */
+public class StatementCache {
+
+    /**
+     * Cached sql statement with the positions of its placeholders
+     */
+    public static class Template {
+
+        private final String schema;
+        private final String table;
+        private final String sql;
+        private final Map<String, Integer> placeholders;
+        private final List<String> warnings;
+
+        public Template(String schema, String table, String sql, Map<String, Integer> placeholders, List<String> warnings) {
+            this.schema = schema;
+            this.table = table;
+            this.sql = sql;
+            this.placeholders = placeholders;
+            this.warnings = warnings;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public Map<String, Integer> getPlaceholders() {
+            return placeholders;
+        }
+
+        public List<String> getWarnings() {
+            return warnings;
+        }
+    }
+
+    private final int maxSize;
+    private final Map<String, Template> templates;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxSize Maximum number of cached templates
+     */
+    public StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a template and counts the access as hit or miss
+     *
+     * @param stmtId Id of the statement
+     * @return Template or null if not cached
+     */
+    public synchronized Template get(String stmtId) {
+        Template template = this.templates.get(stmtId);
+        if (template != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return template;
+    }
+
+    /**
+     * Gets a template without counting the access
+     *
+     * @param stmtId Id of the statement
+     * @return Template or null if not cached
+     */
+    public synchronized Template peek(String stmtId) {
+        if (stmtId == null) {
+            return null;
+        }
+        return this.templates.get(stmtId);
+    }
+
+    /**
+     * Adds a template to the cache
+     *
+     * @param stmtId Id of the statement
+     * @param template Template to cache
+     */
+    public synchronized void put(String stmtId, Template template) {
+        this.templates.put(stmtId, template);
+    }
+
+    /**
+     * Removes all templates of a collection. Should be called whenever the
+     * structure of the collection changes.
+     *
+     * @param schema Name of the schema
+     * @param table Name of the table (null for all tables of the schema)
+     * @return Number of removed templates
+     */
+    public synchronized int invalidate(String schema, String table) {
+        int removed = 0;
+        Iterator<Template> it = this.templates.values().iterator();
+        while (it.hasNext()) {
+            Template curTemplate = it.next();
+            if (curTemplate.getSchema().equals(schema)
+                    && (table == null || curTemplate.getTable().equals(table))) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all templates
+     */
+    public synchronized void clear() {
+        this.templates.clear();
+    }
+
+    /**
+     * Gets the statistics of the cache
+     *
+     * @return Map with size, maxSize, hits, misses and evictions
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", this.templates.size());
+        stats.put("maxSize", this.maxSize);
+        stats.put("hits", this.hits.get());
+        stats.put("misses", this.misses.get());
+        stats.put("evictions", this.evictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,148 @@
+package de.fhbielefeld.smartdata.dynrecords;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application wide cache for vector tiles. The cache is bounded by the size
+ * of the cached tiles, least recently used tiles are evicted first.
+ *
+ * Tiles are stored with the write version of their collection (see
+ * ResultCache.getVersion()), so all tiles of a collection become invalid as
+ * soon as datasets of the collection are written through SmartData. The
+ * invalidation is per collection and not limited to the tiles covering the
+ * written geometries, because these are not known where writes are noticed.
+ *
+ * Writes that bypass SmartData can not be noticed, like in the ResultCache.
+ * Their datasets are missing from cached tiles until the tiles expire after
+ * tilecache.ttl seconds (default 300). Therefore the cache is disabled by
+ * default and has to be enabled with tilecache.enabled=true, where this
+ * staleness is acceptable. The maximum size is configured with
+ * tilecache.maxbytes (default 32 MB).
+ *
+ * @author Florian Fehring
+ */
+public class TileCache {
+
+    private static class Entry {
+
+        private final byte[] tile;
+        private final long version;
+        private final long created;
+
+        private Entry(byte[] tile, long version) {
+            this.tile = tile;
+            this.version = version;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long usedBytes = 0;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private TileCache() {
+    }
+
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty("tilecache.enabled", false);
+    }
+
+    private static long ttl() {
+        return Configuration.getInstance().getIntProperty("tilecache.ttl", 300) * 1000L;
+    }
+
+    private static long maxBytes() {
+        return Configuration.getInstance().getIntProperty("tilecache.maxbytes", 32 * 1024 * 1024);
+    }
+
+    /**
+     * Gets a cached tile
+     *
+     * @param key Key of the tile (statement id, tile coordinates and bound
+     * values)
+     * @param schema Name of the schema
+     * @param tables Names of the tables the tile was read from
+     * @return Tile or null if not cached, expired or the collection was
+     * written since
+     */
+    public static synchronized byte[] get(String key, String schema, Collection<String> tables) {
+        Entry entry = entries.get(key);
+        if (entry != null && (System.currentTimeMillis() - entry.created > ttl()
+                || entry.version != ResultCache.getVersion(schema, tables))) {
+            remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.tile;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a tile to the cache
+     *
+     * @param key Key of the tile
+     * @param version Write version of the collection, read before the tile
+     * was created
+     * @param tile Tile
+     */
+    public static synchronized void put(String key, long version, byte[] tile) {
+        long max = maxBytes();
+        if (tile.length > max / 16) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(tile, version));
+        usedBytes += tile.length;
+        // Evict least recently used tiles
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > max && it.hasNext()) {
+            Entry curEntry = it.next();
+            it.remove();
+            usedBytes -= curEntry.tile.length;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            usedBytes -= old.tile.length;
+        }
+    }
+
+    /**
+     * Removes all tiles
+     */
+    public static synchronized void invalidateAll() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Gets the statistics of the cache
+     *
+     * @return Map with statistics
+     */
+    public static synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("size", entries.size());
+        stats.put("bytes", usedBytes);
+        stats.put("maxBytes", maxBytes());
+        stats.put("ttl_s", ttl() / 1000);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
@@ -13,6 +13,10 @@ import de.fhbielefeld.smartdata.dyncollection.DynCollection;
 /**
  * Filter class for bounding box filters
  *
+ * The box is transformed into the reference system of the column, so a GiST
+ * index on the column can be used for a bounding box prefilter before the
+ * exact test.
+ *
  * @author Lukas Stoll
  */
 public class BoundingBoxFilter extends Filter {
@@ -24,6 +28,8 @@ public class BoundingBoxFilter extends Filter {
     private Object ymax;
     private Object srid;
     private Object table_srid;
+    // Reference system of the column, null if unknown
+    private Integer columnSrid;
 
     public BoundingBoxFilter(DynCollection table) {
         super(table);
@@ -56,6 +62,12 @@ public class BoundingBoxFilter extends Filter {
                     this.ymax = DataConverter.objectToDouble(parts[5]);
                     this.srid = DataConverter.objectToInteger(parts[6]);
                     this.table_srid = DataConverter.objectToInteger(parts[7]);
+                    if (col.getSrid() != null && col.getSrid() > 0) {
+                        this.columnSrid = col.getSrid();
+                        if (!this.columnSrid.equals(this.table_srid)) {
+                            this.warnings.add("The given srid >" + this.table_srid + "< differs from the srid >" + this.columnSrid + "< of >" + this.attribute + "<, using the srid of the attribute.");
+                        }
+                    }
                     break;
                 default:
                     Message msg = new Message(
@@ -73,7 +85,12 @@ public class BoundingBoxFilter extends Filter {
 
     @Override
     public String getPrepareCode() {
-        return "\"" + this.collection.getName() + "\".\"" + this.attribute + "\"" +"@ ST_Transform((ST_MakeEnvelope( ?, ?, ?, ?, ?)), ?)";
+        String column = "\"" + this.collection.getName() + "\".\"" + this.attribute + "\"";
+        if (this.columnSrid == null) {
+            return column + " @ ST_Transform((ST_MakeEnvelope( ?, ?, ?, ?, ?)), ?)";
+        }
+        String box = "ST_Transform(ST_MakeEnvelope(?, ?, ?, ?, ?), " + this.columnSrid + ")";
+        return "(" + column + " && " + box + " AND ST_CoveredBy(" + column + ", " + box + "))";
     }
 
     @Override
@@ -85,7 +102,16 @@ public class BoundingBoxFilter extends Filter {
             pstmt.setDouble(pos+2, (Double) this.xmax);
             pstmt.setDouble(pos+3 , (Double) this.ymax); 
             pstmt.setInt(pos+4, (Integer) this.srid);
-            pstmt.setInt(pos+5, (Integer) this.table_srid);
+            if (this.columnSrid == null) {
+                pstmt.setInt(pos+5, (Integer) this.table_srid);
+            } else {
+                // Values for the exact test
+                pstmt.setDouble(pos+5, (Double) this.xmin);
+                pstmt.setDouble(pos+6, (Double) this.ymin);
+                pstmt.setDouble(pos+7, (Double) this.xmax);
+                pstmt.setDouble(pos+8, (Double) this.ymax);
+                pstmt.setInt(pos+9, (Integer) this.srid);
+            }
                   
         } catch (SQLException ex) {
             FilterException fex = new FilterException("Could not set value");
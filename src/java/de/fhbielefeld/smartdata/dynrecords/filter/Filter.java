@@ -34,6 +34,15 @@ public abstract class Filter {
         return filtercode;
     }
     
+    /**
+     * Gets the name of the filtered attribute
+     *
+     * @return Attribute name
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
     /**
      * Parses the filtercode and creates the filter rule.
      *
@@ -0,0 +1,255 @@
+package de.fhbielefeld.smartdata.dynrecords.filter;
+
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dyncollection.DynCollection;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Filter for keyset (seek) pagination. Selects the datasets behind a cursor
+ * position given by the value of the order attribute and the identity
+ * attribute of the last delivered dataset. Unlike OFFSET the database does not
+ * have to read the skipped datasets, so every page costs the same.
+ *
+ * Datasets without a value for the order attribute are ordered as if null
+ * was the greatest value (NULLS LAST ascending, NULLS FIRST descending, the
+ * postgres default that fits plain indexes), the identity attribute breaks
+ * ties between them.
+ *
+ * The filter is not created by the FilterParser, it is build from the order
+ * and the cursor token (see after parameter of the records list).
+ *
+ * @author Florian Fehring
+ */
+public class KeysetFilter extends Filter {
+
+    private String idattribute;
+    private boolean descending = true;
+    private String[] values;
+
+    public KeysetFilter(DynCollection collection) {
+        super(collection);
+    }
+
+    /**
+     * Parses the keyset definition
+     *
+     * @param filtercode Order attribute, order kind and cursor token
+     * (attribute,[ASC|DESC],token) the token may be empty for the first page
+     * @throws FilterException
+     */
+    @Override
+    public void parse(String filtercode) throws FilterException {
+        this.filtercode = filtercode;
+        String[] parts = filtercode.split(",", 3);
+        this.attribute = parts[0];
+        try {
+            Attribute col = this.collection.getAttribute(this.attribute);
+            if (col == null) {
+                throw new FilterException("The Column >" + this.attribute + "< does not exists.");
+            }
+            List<Attribute> idattrs = this.collection.getIdentityAttributes();
+            if (idattrs.isEmpty()) {
+                throw new FilterException("The collection >" + this.collection.getName() + "< has no identity attribute, keyset pagination is not possible.");
+            }
+            this.idattribute = idattrs.get(0).getName();
+        } catch (DynException ex) {
+            FilterException fex = new FilterException("Could not parse KeysetFilter: " + ex.getLocalizedMessage());
+            fex.addSuppressed(ex);
+            throw fex;
+        }
+        if (parts.length > 1) {
+            this.descending = !parts[1].equalsIgnoreCase("ASC");
+        }
+        if (parts.length > 2 && !parts[2].isEmpty()) {
+            this.values = decodeCursor(parts[2]);
+            if (this.values.length != (this.isIdOrder() ? 1 : 2) || this.values[this.values.length - 1] == null) {
+                throw new FilterException("The cursor >" + parts[2] + "< does not match the order >" + this.attribute + "<.");
+            }
+        }
+    }
+
+    /**
+     * Checks if the datasets are ordered by the identity attribute only
+     *
+     * @return true if order attribute is the identity attribute
+     */
+    private boolean isIdOrder() {
+        return this.attribute.equals(this.idattribute);
+    }
+
+    /**
+     * Gets the name of the identity attribute used as tie breaker
+     *
+     * @return Name of the identity attribute
+     */
+    public String getIdAttribute() {
+        return idattribute;
+    }
+
+    /**
+     * Gets the order kind
+     *
+     * @return DESC or ASC
+     */
+    public String getOrderKind() {
+        return this.descending ? "DESC" : "ASC";
+    }
+
+    /**
+     * Gets the position of datasets without order value, as expected by the
+     * cursor conditions
+     *
+     * @return NULLS FIRST or NULLS LAST
+     */
+    public String getNullsOrder() {
+        return this.descending ? "NULLS FIRST" : "NULLS LAST";
+    }
+
+    @Override
+    public String getPrepareCode() {
+        // First page has no restriction
+        if (this.values == null) {
+            return "";
+        }
+        String op = this.descending ? " < " : " > ";
+        String table = "\"" + this.collection.getName() + "\".";
+        String idcol = table + "\"" + this.idattribute + "\"";
+        if (this.isIdOrder()) {
+            return idcol + op + "?";
+        }
+        String ordercol = table + "\"" + this.attribute + "\"";
+        // Nulls are the greatest values: last when ascending, first when descending
+        if (this.values[0] == null) {
+            if (this.descending) {
+                return "((" + ordercol + " IS NULL AND " + idcol + op + "?) OR " + ordercol + " IS NOT NULL)";
+            }
+            return "(" + ordercol + " IS NULL AND " + idcol + op + "?)";
+        }
+        String rowcmp = "(" + ordercol + ", " + idcol + ")" + op + "(?, ?)";
+        if (this.descending) {
+            return rowcmp;
+        }
+        return "(" + rowcmp + " OR " + ordercol + " IS NULL)";
+    }
+
+    @Override
+    public PreparedStatement setFilterValue(PreparedStatement pstmt) throws FilterException {
+        int pos = this.firstPlaceholder;
+        try {
+            // Let the database convert the values to the types of the columns
+            for (String curValue : this.values) {
+                // A null order value is part of the condition, not a placeholder
+                if (curValue != null) {
+                    pstmt.setObject(pos++, curValue, Types.OTHER);
+                }
+            }
+        } catch (SQLException ex) {
+            FilterException fex = new FilterException("Could not set value");
+            fex.addSuppressed(ex);
+            throw fex;
+        }
+        return pstmt;
+    }
+
+    /**
+     * Creates the cursor token pointing behind the given dataset
+     *
+     * @param lastRecord Last delivered dataset
+     * @return Cursor token or null if the dataset does not contain the order
+     * or identity attribute (noted as warning)
+     */
+    public String createCursor(JsonObject lastRecord) {
+        JsonArrayBuilder jab = Json.createArrayBuilder();
+        if (!this.isIdOrder()) {
+            if (!lastRecord.containsKey(this.attribute)) {
+                this.warnings.add("Could not create cursor for next page: the order attribute >" + this.attribute + "< is not delivered.");
+                return null;
+            }
+            String ordervalue = valueToString(lastRecord.get(this.attribute));
+            if (ordervalue == null) {
+                jab.addNull();
+            } else {
+                jab.add(ordervalue);
+            }
+        }
+        String idvalue = valueToString(lastRecord.get(this.idattribute));
+        if (idvalue == null) {
+            this.warnings.add("Could not create cursor for next page: the identity attribute >" + this.idattribute + "< is not delivered.");
+            return null;
+        }
+        jab.add(idvalue);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(jab.build().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates the cursor token pointing behind the last dataset of a json
+     * array
+     *
+     * @param records Json array of datasets
+     * @param size Requested number of datasets
+     * @return Cursor token or null if there are no more datasets
+     */
+    public String createCursor(String records, int size) {
+        try (JsonReader reader = Json.createReader(new StringReader(records))) {
+            JsonArray arr = reader.readArray();
+            if (arr.isEmpty() || arr.size() < size) {
+                return null;
+            }
+            return this.createCursor(arr.getJsonObject(arr.size() - 1));
+        } catch (JsonException | IllegalStateException | ClassCastException ex) {
+            this.warnings.add("Could not create cursor for next page: " + ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private static String valueToString(JsonValue value) {
+        if (value == null || value.getValueType() == JsonValue.ValueType.NULL) {
+            return null;
+        }
+        if (value.getValueType() == JsonValue.ValueType.STRING) {
+            return ((JsonString) value).getString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Decodes a cursor token
+     *
+     * @param token Token created by createCursor
+     * @return Values of the cursor
+     * @throws FilterException
+     */
+    private static String[] decodeCursor(String token) throws FilterException {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            try (JsonReader reader = Json.createReader(new StringReader(json))) {
+                JsonArray arr = reader.readArray();
+                String[] values = new String[arr.size()];
+                for (int i = 0; i < arr.size(); i++) {
+                    values[i] = arr.isNull(i) ? null : arr.getString(i);
+                }
+                return values;
+            }
+        } catch (IllegalArgumentException | JsonException | IllegalStateException | ClassCastException ex) {
+            FilterException fex = new FilterException("The cursor >" + token + "< is not valid.");
+            fex.addSuppressed(ex);
+            throw fex;
+        }
+    }
+}
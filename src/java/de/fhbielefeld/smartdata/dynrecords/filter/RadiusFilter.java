@@ -13,6 +13,10 @@ import de.fhbielefeld.smartdata.dyncollection.DynCollection;
 /**
  * Filter class for radius filters
  *
+ * The search point is transformed into the reference system of the column,
+ * so a GiST index on the column can be used for a bounding box prefilter.
+ * The exact distance is only calculated for datasets within the box.
+ *
  * @author Lukas Stoll
  */
 public class RadiusFilter extends Filter {
@@ -22,6 +26,8 @@ public class RadiusFilter extends Filter {
     private Object latitude;
     private Object srid;
     private Object radius;
+    // Reference system of the column, null if unknown
+    private Integer columnSrid;
     
 
     public RadiusFilter(DynCollection table) {
@@ -53,6 +59,11 @@ public class RadiusFilter extends Filter {
                     this.latitude = DataConverter.objectToDouble(parts[3]);
                     this.srid = DataConverter.objectToInteger(parts[4]);
                     this.radius = DataConverter.objectToDouble(parts[5]);
+                    if (col.getSrid() != null && col.getSrid() > 0) {
+                        this.columnSrid = col.getSrid();
+                    } else {
+                        this.warnings.add("The reference system of >" + this.attribute + "< is unknown, radius filter can not use an index.");
+                    }
                     break;
                 default:
                     Message msg = new Message(
@@ -70,7 +81,17 @@ public class RadiusFilter extends Filter {
 
     @Override
     public String getPrepareCode() {
-        return "ST_DWithin(geography(ST_Transform("+ "\"" + this.collection.getName() + "\".\"" + this.attribute + "\"" +",4326)),geography(ST_Transform(ST_SetSRID(ST_MakePoint(?, ?), ?),4326)), ?)";
+        String column = "\"" + this.collection.getName() + "\".\"" + this.attribute + "\"";
+        String point = "geography(ST_Transform(ST_SetSRID(ST_MakePoint(?, ?), ?),4326))";
+        if (this.columnSrid == null) {
+            return "ST_DWithin(geography(ST_Transform(" + column + ",4326))," + point + ", ?)";
+        }
+        String columnGeog = this.columnSrid == 4326 ? "geography(" + column + ")" : "geography(ST_Transform(" + column + ",4326))";
+        // Box around the circle in the reference system of the column. The
+        // buffer polygon lies inside the circle between its vertices, so it
+        // is enlarged slightly.
+        return "(" + column + " && ST_Transform(ST_Buffer(" + point + ", ?::float8 * 1.01)::geometry, " + this.columnSrid + ")"
+                + " AND ST_DWithin(" + columnGeog + "," + point + ", ?))";
     }
 
     @Override
@@ -81,6 +102,13 @@ public class RadiusFilter extends Filter {
             pstmt.setDouble(pos+1 , (Double) this.latitude);  
             pstmt.setInt(pos+2, (Integer) this.srid);
             pstmt.setDouble(pos+3, (Double) this.radius);
+            if (this.columnSrid != null) {
+                // Values for the exact test
+                pstmt.setDouble(pos+4, (Double) this.longitude);
+                pstmt.setDouble(pos+5, (Double) this.latitude);
+                pstmt.setInt(pos+6, (Integer) this.srid);
+                pstmt.setDouble(pos+7, (Double) this.radius);
+            }
                   
         } catch (SQLException ex) {
             FilterException fex = new FilterException("Could not set value");
@@ -96,4 +96,21 @@ public interface DynStorage extends Dyn {
      * @throws DynException 
      */
     public boolean deleteStorage(String name) throws DynException;
+
+    /**
+     * Returns the collections that are partitioned by SmartData, for all
+     * storages
+     *
+     * @return Map of storage names to collection names
+     * @throws DynException
+     */
+    public Map<String, List<String>> getPartitionedCollections() throws DynException;
+
+    /**
+     * Returns the collections that have rollups, for all storages
+     *
+     * @return Map of storage names to collection names
+     * @throws DynException
+     */
+    public Map<String, List<String>> getCollectionsWithRollups() throws DynException;
 }
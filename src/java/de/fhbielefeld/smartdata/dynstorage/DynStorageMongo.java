@@ -102,4 +102,16 @@ public class DynStorageMongo extends DynMongo implements DynStorage {
         }
         return false;
     }
+
+    @Override
+    public Map<String, List<String>> getPartitionedCollections() throws DynException {
+        // MongoDB has no partitioning, collections are sharded instead
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<String, List<String>> getCollectionsWithRollups() throws DynException {
+        // Rollups are not supported on MongoDB
+        return new HashMap<>();
+    }
 }
@@ -5,6 +5,9 @@ import de.fhbielefeld.scl.logger.message.Message;
 import de.fhbielefeld.scl.logger.message.MessageLevel;
 import de.fhbielefeld.smartdata.dbo.DataCollection;
 import de.fhbielefeld.smartdata.dyn.DynPostgres;
+import de.fhbielefeld.smartdata.dyncollection.MetadataCache;
+import de.fhbielefeld.smartdata.dynrecords.DynRecordsPostgres;
+import de.fhbielefeld.smartdata.dynrecords.ResultCache;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -16,6 +19,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Methods for getting informations and createing global structures to a
@@ -132,8 +136,9 @@ public class DynStoragePostgres extends DynPostgres implements DynStorage {
         // Check if storage exists
         boolean storageExists = this.storageExists(name);
         if (!storageExists) {
+            Lock lock = null;
             try {
-                commitlock.acquire();
+                lock = lockCollection(name, null);
                 this.con.setAutoCommit(true);
                 try (Statement stmt = this.con.createStatement()) {
                     stmt.executeUpdate("CREATE SCHEMA " + name);
@@ -157,7 +162,7 @@ public class DynStoragePostgres extends DynPostgres implements DynStorage {
                             MessageLevel.ERROR, "Could not reset autocomit mode to true!");
                     Logger.addDebugMessage(msg);
                 }
-                commitlock.release();
+                unlockCollection(lock);
             }
         }
         return created;
@@ -222,8 +227,9 @@ public class DynStoragePostgres extends DynPostgres implements DynStorage {
         // Check if storage exists
         boolean storageExists = this.storageExists(name);
         if (storageExists) {
+            Lock lock = null;
             try {
-                commitlock.acquire();
+                lock = lockCollection(name, null);
                 this.con.setAutoCommit(true);
                 try (Statement stmt = this.con.createStatement()) {
                     stmt.executeUpdate("DROP SCHEMA " + name + " CASCADE");
@@ -247,9 +253,48 @@ public class DynStoragePostgres extends DynPostgres implements DynStorage {
                             MessageLevel.ERROR, "Could not reset autocomit mode to true!");
                     Logger.addDebugMessage(msg);
                 }
-                commitlock.release();
+                DynRecordsPostgres.invalidateStatements(name, null);
+                MetadataCache.invalidate(name, null);
+                ResultCache.invalidate(name, null);
+                unlockCollection(lock);
             }
         }
         return deleted;
     }
+
+    @Override
+    public Map<String, List<String>> getPartitionedCollections() throws DynException {
+        Map<String, List<String>> collections = new HashMap<>();
+        String sql = "SELECT n.nspname, c.relname FROM pg_partitioned_table p "
+                + "JOIN pg_class c ON c.oid = p.partrelid JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE obj_description(c.oid, 'pg_class') LIKE 'smartdata.partitioning=%'";
+        try (Statement stmt = this.con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                collections.computeIfAbsent(rs.getString("nspname"), k -> new ArrayList<>()).add(rs.getString("relname"));
+            }
+        } catch (SQLException ex) {
+            DynException dex = new DynException("Could not get partitioned collections: " + ex.getLocalizedMessage());
+            dex.addSuppressed(ex);
+            throw dex;
+        }
+        return collections;
+    }
+
+    @Override
+    public Map<String, List<String>> getCollectionsWithRollups() throws DynException {
+        Map<String, List<String>> collections = new HashMap<>();
+        String sql = "SELECT DISTINCT n.nspname, split_part(substr(obj_description(c.oid, 'pg_class'), 18), ';', 1) AS source "
+                + "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE c.relkind = 'r' AND obj_description(c.oid, 'pg_class') LIKE 'smartdata.rollup=%'";
+        try (Statement stmt = this.con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                collections.computeIfAbsent(rs.getString("nspname"), k -> new ArrayList<>()).add(rs.getString("source"));
+            }
+        } catch (SQLException ex) {
+            DynException dex = new DynException("Could not get collections with rollups: " + ex.getLocalizedMessage());
+            dex.addSuppressed(ex);
+            throw dex;
+        }
+        return collections;
+    }
 }
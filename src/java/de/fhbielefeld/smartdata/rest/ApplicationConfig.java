@@ -30,6 +30,7 @@ public class ApplicationConfig extends Application {
         resources.add(de.fhbielefeld.scl.rest.util.CORSFilter.class);
         resources.add(de.fhbielefeld.scl.rest.util.MirrorRequestFilter.class);
         resources.add(de.fhbielefeld.smartdata.rest.CollectionResource.class);
+        resources.add(de.fhbielefeld.smartdata.rest.CompressionInterceptor.class);
         resources.add(de.fhbielefeld.smartdata.rest.ProxyResource.class);
         resources.add(de.fhbielefeld.smartdata.rest.RecordsResource.class);
         resources.add(de.fhbielefeld.smartdata.rest.StorageResource.class);
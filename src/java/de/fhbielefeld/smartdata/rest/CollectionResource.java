@@ -6,8 +6,12 @@ import de.fhbielefeld.scl.rest.util.ResponseObjectBuilder;
 import de.fhbielefeld.smartdata.config.Configuration;
 import de.fhbielefeld.smartdata.dbo.Attribute;
 import de.fhbielefeld.smartdata.dbo.DataCollection;
+import de.fhbielefeld.smartdata.dbo.Index;
+import de.fhbielefeld.smartdata.dbo.Partitioning;
+import de.fhbielefeld.smartdata.dbo.Rollup;
 import de.fhbielefeld.smartdata.dyn.DynFactory;
 import de.fhbielefeld.smartdata.dyncollection.DynCollection;
+import de.fhbielefeld.smartdata.dyncollection.IndexAdvisor;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import de.fhbielefeld.smartuser.annotations.SmartUserAuth;
 import jakarta.json.Json;
@@ -17,6 +21,7 @@ import jakarta.json.JsonValue.ValueType;
 import jakarta.json.stream.JsonParser;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
@@ -28,6 +33,7 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import java.io.StringReader;
 import java.util.List;
+import java.util.Map;
 import javax.naming.NamingException;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import static org.eclipse.microprofile.openapi.annotations.enums.SchemaType.STRING;
@@ -43,6 +49,7 @@ import org.eclipse.microprofile.openapi.annotations.tags.Tag;
  * @author Florian Fehring
  */
 @Path("collection")
+@Compressed
 @Tag(name = "Collection", description = "Create and modify collections")
 public class CollectionResource {
 
@@ -50,7 +57,7 @@ public class CollectionResource {
         // Init logging
         try {
             String moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            Configuration conf = new Configuration();
+            Configuration conf = Configuration.getInstance();
             Logger.getInstance("SmartData", moduleName);
             Logger.setDebugMode(Boolean.parseBoolean(conf.getProperty("debugmode")));
         } catch (LoggerException | NamingException ex) {
@@ -174,6 +181,51 @@ public class CollectionResource {
             return rob.toResponse();
         }
 
+        // Indexes to create with the collection
+        JsonArray indexdefs = root.getJsonArray("indexes");
+        if (indexdefs != null) {
+            for (int i = 0; i < indexdefs.size(); i++) {
+                JsonObject indexdef = indexdefs.getJsonObject(i);
+                if (indexdef == null) {
+                    continue;
+                }
+                JsonArray indexattrs = indexdef.getJsonArray("attributes");
+                if (indexattrs == null || indexattrs.isEmpty()) {
+                    rob.setStatus(Response.Status.BAD_REQUEST);
+                    rob.addErrorMessage(">attributes< is missing for index.");
+                    return rob.toResponse();
+                }
+                Index index = new Index();
+                for (int j = 0; j < indexattrs.size(); j++) {
+                    index.getAttributes().add(indexattrs.getString(j));
+                }
+                if (indexdef.containsKey("name")) {
+                    index.setName(indexdef.getString("name"));
+                }
+                if (indexdef.containsKey("method")) {
+                    index.setMethod(indexdef.getString("method"));
+                }
+                if (indexdef.containsKey("isUnique")) {
+                    index.setIsUnique(indexdef.getBoolean("isUnique"));
+                }
+                collectiondef.addIndex(index);
+            }
+        }
+
+        // Partitioning by ranges of a timestamp attribute
+        JsonObject partdef = root.getJsonObject("partitioning");
+        if (partdef != null) {
+            if (!partdef.containsKey("attribute")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage(">attribute< is missing for partitioning.");
+                return rob.toResponse();
+            }
+            Partitioning partitioning = new Partitioning(partdef.getString("attribute"), partdef.getString("interval", "month"));
+            partitioning.setPremake(partdef.getInt("premake", 3));
+            partitioning.setRetention(partdef.getInt("retention", 0));
+            collectiondef.setPartitioning(partitioning);
+        }
+
         try ( DynCollection dync = DynFactory.getDynCollection(storage, collectiondef.getName())) {
             // Get attributes
             boolean created = dync.create(collectiondef);
@@ -232,6 +284,10 @@ public class CollectionResource {
             rob.add("name", collection);
             rob.add("storage", storage);
             rob.add("attributes", dync.getAttributes().values());
+            Partitioning partitioning = dync.getPartitioning();
+            if (partitioning != null) {
+                rob.add("partitioning", partitioning);
+            }
             rob.setStatus(Response.Status.OK);
         } catch (DynException ex) {
             System.out.println(ex.getLocalizedMessage());
@@ -480,4 +536,425 @@ public class CollectionResource {
         }
         return rob.toResponse();
     }
+
+    @GET
+    @Path("{collection}/indexes")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Gets the indexes of a collection",
+            description = "Lists all indexes of the collection with name, attributes and method (btree, brin, gist, trgm, ...).")
+    @APIResponse(
+            responseCode = "200",
+            description = "Objects with index informations",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"indexes\" : [ { \"name\" : \"mycollection_ts_brin_idx\", \"attributes\" : [\"ts\"], \"method\" : \"brin\"} ]}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not get indexes: Because of ... \"]}"))
+    public Response getIndexes(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("indexes", dync.getIndexes());
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get indexes: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @POST
+    @Path("{collection}/indexes")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Creates an index",
+            description = "Creates an index on the collection. Supported methods are btree (default), "
+            + "brin (for timestamps in insertion order), gist (for geometries) and trgm (for cs, sw and ew filters). "
+            + "By default the index is created concurrently, so the collection is not locked for writing.")
+    @APIResponse(
+            responseCode = "201",
+            description = "Index created, name of the index")
+    @APIResponse(
+            responseCode = "400",
+            description = "Index definition is invalid")
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not create index: Because of ... \"]}"))
+    public Response createIndex(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage,
+            @Parameter(description = "Create the index without locking the collection",
+                    schema = @Schema(defaultValue = "true")) @QueryParam("concurrently") @DefaultValue("true") boolean concurrently,
+            Index index) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        if (index == null || index.getAttributes() == null || index.getAttributes().isEmpty()) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("The index definition does not contain attributes.");
+            return rob.toResponse();
+        }
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("name", dync.createIndex(index, concurrently));
+            for (String curWarning : dync.getWarnings()) {
+                rob.addWarningMessage(curWarning);
+            }
+            rob.setStatus(Response.Status.CREATED);
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("not supported") || ex.getLocalizedMessage().contains("does not exist")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not create index: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @DELETE
+    @Path("{collection}/indexes/{index}")
+    @SmartUserAuth
+    @Operation(summary = "Deletes an index",
+            description = "Deletes the index from the collection. The primary key can not be deleted.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Index deleted")
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not delete index: Because of ... \"]}"))
+    public Response deleteIndex(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Index name", required = true, example = "mycollection_ts_brin_idx") @PathParam("index") String index,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            dync.dropIndex(index);
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("does not exist")) {
+                rob.setStatus(Response.Status.NOT_FOUND);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not delete index >" + index + "<: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @GET
+    @Path("{collection}/indexes/advice")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Gets index recommendations",
+            description = "Lists indexes recommended for attributes that were used in at least indexadvisor.minusage "
+            + "filtered queries since startup and that are not covered by an existing index.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Recommended indexes",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"recommendations\" : [ { \"attribute\" : \"name\", \"method\" : \"trgm\", \"usage\" : 1520, \"sql\" : \"CREATE INDEX CONCURRENTLY ...\"} ]}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not get index recommendations: Because of ... \"]}"))
+    public Response getIndexAdvice(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("recommendations", IndexAdvisor.getRecommendations(storage, dync));
+            rob.add("advisor", IndexAdvisor.getStatistics());
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get index recommendations: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @POST
+    @Path("{collection}/partitions/maintain")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Maintains the partitions",
+            description = "Creates the partitions needed ahead and drops partitions outside the retention time of "
+            + "a partitioned collection now. This is also done periodically in background.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Names of created and dropped partitions",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"created\" : [\"mycollection_p20261101\"], \"dropped\" : [\"mycollection_p20250901\"], \"failed\" : []}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not maintain partitions: Because of ... \"]}"))
+    public Response maintainPartitions(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            Map<String, List<String>> changes = dync.maintainPartitions();
+            rob.add("created", changes.get("created"));
+            rob.add("dropped", changes.get("dropped"));
+            rob.add("failed", changes.get("failed"));
+            if (changes.get("failed").isEmpty()) {
+                for (String curWarning : dync.getWarnings()) {
+                    rob.addWarningMessage(curWarning);
+                }
+                rob.setStatus(Response.Status.OK);
+            } else {
+                for (String curWarning : dync.getWarnings()) {
+                    rob.addErrorMessage(curWarning);
+                }
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("not partitioned")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not maintain partitions: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @GET
+    @Path("{collection}/rollups")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Gets the rollups of a collection",
+            description = "Lists all rollups of the collection with name, bucket definition, group attributes and value attributes.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Objects with rollup informations",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"rollups\" : [ { \"name\" : \"mycollection_rollup_1h\", \"bucket\" : \"ts,1h\", \"groupBy\" : [\"sensor\"], \"values\" : [\"value\"]} ]}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not get rollups: Because of ... \"]}"))
+    public Response getRollups(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("rollups", dync.getRollups());
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get rollups: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @POST
+    @Path("{collection}/rollups")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Creates a rollup",
+            description = "Creates a rollup storing min, max, sum and count of the value attributes per time bucket "
+            + "and group. The rollup is calculated from the existing datasets and kept up to date in background. "
+            + "Bucket queries on the collection are answered from the rollup where possible.")
+    @APIResponse(
+            responseCode = "201",
+            description = "Rollup created, name of the rollup")
+    @APIResponse(
+            responseCode = "400",
+            description = "Rollup definition is invalid")
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not create rollup: Because of ... \"]}"))
+    public Response createRollup(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage,
+            Rollup rollup) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        if (rollup == null || rollup.getBucket() == null) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("The rollup definition does not contain a bucket.");
+            return rob.toResponse();
+        }
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("name", dync.createRollup(rollup));
+            rob.setStatus(Response.Status.CREATED);
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("not valid") || ex.getLocalizedMessage().contains("does not exist")
+                    || ex.getLocalizedMessage().contains("not numeric") || ex.getLocalizedMessage().contains("does not contain")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not create rollup: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @DELETE
+    @Path("{collection}/rollups/{rollup}")
+    @SmartUserAuth
+    @Operation(summary = "Deletes a rollup",
+            description = "Deletes the rollup with its change tracking.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Rollup deleted")
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not delete rollup: Because of ... \"]}"))
+    public Response deleteRollup(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Rollup name", required = true, example = "mycollection_rollup_1h") @PathParam("rollup") String rollup,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            dync.deleteRollup(rollup);
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("does not exist")) {
+                rob.setStatus(Response.Status.NOT_FOUND);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not delete rollup >" + rollup + "<: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
+
+    @POST
+    @Path("{collection}/rollups/refresh")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Refreshes the rollups",
+            description = "Recalculates the changed buckets of all rollups of the collection now. This is also done periodically in background.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Number of recalculated buckets per rollup",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"refreshed\" : {\"mycollection_rollup_1h\" : 3}}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not refresh rollups: Because of ... \"]}"))
+    public Response refreshRollups(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name", required = false,
+                    schema = @Schema(type = STRING, defaultValue = "public"),
+                    example = "mystorage") @QueryParam("storage") String storage) {
+
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        try ( DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            rob.add("refreshed", dync.refreshRollups());
+            rob.setStatus(Response.Status.OK);
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not refresh rollups: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+        }
+        return rob.toResponse();
+    }
 }
@@ -0,0 +1,19 @@
+package de.fhbielefeld.smartdata.rest;
+
+import jakarta.ws.rs.NameBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks resources whose responses are compressed and whose compressed
+ * request bodies are decoded by the CompressionInterceptor.
+ *
+ * @author Florian Fehring
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Compressed {
+}
@@ -0,0 +1,227 @@
+package de.fhbielefeld.smartdata.rest;
+
+import de.fhbielefeld.smartdata.config.Configuration;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.ReaderInterceptor;
+import jakarta.ws.rs.ext.ReaderInterceptorContext;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses responses with gzip or deflate, as negotiated with the
+ * Accept-Encoding header of the request. The response is compressed while
+ * it is written, so streamed responses stay streamed. Responses smaller than
+ * compression.minsize bytes (default 1024) are delivered uncompressed.
+ * Compression can be disabled with compression.enabled=false.
+ *
+ * Request bodies with Content-Encoding gzip or deflate are decoded.
+ *
+ * @author Florian Fehring
+ */
+@Provider
+@Compressed
+public class CompressionInterceptor implements WriterInterceptor, ReaderInterceptor {
+
+    @Context
+    private HttpHeaders requestHeaders;
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Configuration conf = Configuration.getInstance();
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        if (!conf.getBooleanProperty("compression.enabled", true)
+                || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = negotiate(this.requestHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        ThresholdOutputStream out = new ThresholdOutputStream(context.getOutputStream(), headers,
+                encoding, conf.getIntProperty("compression.minsize", 1024));
+        context.setOutputStream(out);
+        try {
+            context.proceed();
+        } finally {
+            out.finish();
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (encoding != null) {
+            switch (encoding.trim().toLowerCase()) {
+                case "gzip":
+                case "x-gzip":
+                    context.setInputStream(new GZIPInputStream(context.getInputStream(), 65536));
+                    context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+                    break;
+                case "deflate":
+                    context.setInputStream(new InflaterInputStream(context.getInputStream()));
+                    context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+                    break;
+                default:
+                    // identity or unknown encodings are left to the resource
+                    break;
+            }
+        }
+        return context.proceed();
+    }
+
+    /**
+     * Selects the encoding from the Accept-Encoding header. Gzip is prefered
+     * over deflate if both have the same quality.
+     *
+     * @param acceptEncoding Value of the Accept-Encoding header
+     * @return gzip, deflate or null if no supported encoding is accepted
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String curPart : acceptEncoding.split(",")) {
+            String[] params = curPart.split(";");
+            String name = params[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (name) {
+                case "gzip":
+                case "x-gzip":
+                    gzip = quality;
+                    break;
+                case "deflate":
+                    deflate = quality;
+                    break;
+                case "*":
+                    any = quality;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? "gzip" : "deflate";
+    }
+
+    /**
+     * Holds back the first bytes of the response. If the response gets
+     * larger than the threshold, the Content-Encoding header is set (before
+     * anything is written, so before the headers are send) and all further
+     * bytes are compressed. Otherwise the bytes are written uncompressed on
+     * finish.
+     */
+    private static class ThresholdOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private final MultivaluedMap<String, Object> headers;
+        private final String encoding;
+        private final int threshold;
+        private ByteArrayOutputStream buffer;
+        private DeflaterOutputStream compressed = null;
+        private boolean finished = false;
+
+        private ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> headers, String encoding, int threshold) {
+            this.target = target;
+            this.headers = headers;
+            this.encoding = encoding;
+            this.threshold = Math.max(threshold, 0);
+            this.buffer = new ByteArrayOutputStream(Math.min(this.threshold, 65536) + 1);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.compressed != null) {
+                this.compressed.write(b, off, len);
+                return;
+            }
+            this.buffer.write(b, off, len);
+            if (this.buffer.size() > this.threshold) {
+                this.startCompression();
+            }
+        }
+
+        private void startCompression() throws IOException {
+            this.headers.putSingle(HttpHeaders.CONTENT_ENCODING, this.encoding);
+            this.headers.remove(HttpHeaders.CONTENT_LENGTH);
+            if ("gzip".equals(this.encoding)) {
+                this.compressed = new GZIPOutputStream(this.target, 65536, true);
+            } else {
+                this.compressed = new DeflaterOutputStream(this.target, new Deflater(), 65536, true);
+            }
+            this.buffer.writeTo(this.compressed);
+            this.buffer = null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Small responses are held back until finish
+            if (this.compressed != null) {
+                this.compressed.flush();
+            }
+        }
+
+        /**
+         * Writes the held back bytes or ends the compressed stream
+         */
+        private void finish() throws IOException {
+            if (this.finished) {
+                return;
+            }
+            this.finished = true;
+            if (this.compressed != null) {
+                this.compressed.finish();
+            } else {
+                this.buffer.writeTo(this.target);
+            }
+            this.target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.finish();
+            this.target.close();
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class ProxyResource {
     public ProxyResource() {
         try {
             String moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            Configuration conf = new Configuration();
+            Configuration conf = Configuration.getInstance();
             Logger.getInstance("UniversalProxy", moduleName);
             Logger.setDebugMode(Boolean.parseBoolean(conf.getProperty("debugmode")));
         } catch (LoggerException | NamingException ex) {
@@ -7,6 +7,10 @@ import de.fhbielefeld.scl.logger.message.MessageLevel;
 import de.fhbielefeld.scl.rest.util.JSONFormatter;
 import de.fhbielefeld.scl.rest.util.ResponseObjectBuilder;
 import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.converter.ColumnarRecordWriter;
+import de.fhbielefeld.smartdata.converter.CompactJsonRecordWriter;
+import de.fhbielefeld.smartdata.converter.CsvRecordWriter;
+import de.fhbielefeld.smartdata.converter.JsonLinesCopyReader;
 import de.fhbielefeld.smartdata.dbo.Attribute;
 import de.fhbielefeld.smartdata.dyn.DynFactory;
 import de.fhbielefeld.smartdata.dyncollection.DynCollection;
@@ -15,11 +19,19 @@ import de.fhbielefeld.smartdata.dynrecords.filter.EqualsFilter;
 import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
 import de.fhbielefeld.smartdata.dynrecords.filter.FilterException;
 import de.fhbielefeld.smartdata.dynrecords.filter.FilterParser;
+import de.fhbielefeld.smartdata.dynrecords.filter.KeysetFilter;
 import de.fhbielefeld.smartdata.dyncollection.DynCollectionPostgres;
+import de.fhbielefeld.smartdata.dynrecords.ConflictHandling;
 import de.fhbielefeld.smartdata.dynrecords.DynRecords;
+import de.fhbielefeld.smartdata.dynrecords.GeometryOutput;
+import de.fhbielefeld.smartdata.dynrecords.QueryCoalescer;
+import de.fhbielefeld.smartdata.dynrecords.RecordCursor;
+import de.fhbielefeld.smartdata.dynrecords.ResultCache;
 import de.fhbielefeld.smartdata.exceptions.DynException;
 import de.fhbielefeld.smartuser.annotations.SmartUserAuth;
 import de.fhbielefeld.smartuser.securitycontext.SmartPrincipal;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
@@ -31,11 +43,22 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -59,9 +82,12 @@ import org.json.JSONArray;
  * @author Florian Fehring
  */
 @Path("records")
+@Compressed
 @Tag(name = "Records", description = "Accessing, inserting, updateing and deleting datasets.")
 public class RecordsResource {
 
+    private static final String MVT_MEDIA_TYPE = "application/vnd.mapbox-vector-tile";
+
     private static Map<String, DynCollection> dynColCache = new HashMap<>();
     private static Map<String, DynRecords> dynRecCache = new HashMap<>();
 
@@ -69,7 +95,7 @@ public class RecordsResource {
         // Init logging
         try {
             String moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            Configuration conf = new Configuration();
+            Configuration conf = Configuration.getInstance();
             Logger.getInstance("SmartData", moduleName);
             Logger.setDebugMode(Boolean.parseBoolean(conf.getProperty("debugmode")));
         } catch (LoggerException | NamingException ex) {
@@ -100,6 +126,10 @@ public class RecordsResource {
             @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
             @Parameter(description = "Storage name",
                     schema = @Schema(type = STRING, defaultValue = "public")) @QueryParam("storage") String storage,
+            @Parameter(description = "Handling of datasets conflicting with existing ones: update (upsert) or ignore. Without, conflicts are errors.",
+                    schema = @Schema(type = STRING)) @QueryParam("onconflict") String onconflict,
+            @Parameter(description = "Attributes of the unique constraint to check for conflicts, comata separated. Default is the primary key.",
+                    example = "ts,sensor") @QueryParam("conflictkey") String conflictkey,
             @Parameter(description = "Dataset in json format", required = true, example = "{\"value\" : 12.4}") String json) {
         long startTime = System.currentTimeMillis();
         if (storage == null) {
@@ -122,14 +152,28 @@ public class RecordsResource {
             return rob.toResponse();
         }
 
-        Configuration conf = new Configuration();
+        ConflictHandling conflict = null;
+        if (onconflict != null) {
+            try {
+                conflict = new ConflictHandling(onconflict, conflictkey);
+            } catch (DynException ex) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage(ex.getLocalizedMessage());
+                return rob.toResponse();
+            }
+        }
+
+        Configuration conf = Configuration.getInstance();
         try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
+            if (conflict != null) {
+                dynr.setConflictHandling(conflict);
+            }
             List<Object> ids = dynr.create(json);
             // Use TreeQL specification extension
             if (conf.getProperty("spec.version") != null
                     && conf.getProperty("spec.version").equals("2020fhbi")) {
                 DynCollection dync;
-                if (conf.getProperty("mongo.url") != null) {
+                if (conf.isMongo()) {
                     dync = new DynCollectionMongo(storage, collection);
                 } else {
                     dync = new DynCollectionPostgres(storage, collection);
@@ -170,6 +214,71 @@ public class RecordsResource {
         return rob.toResponse();
     }
 
+    @POST
+    @Path("{collection}/bulk")
+    @Consumes({"application/x-ndjson", "application/jsonl", "text/csv"})
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Creates many datasets",
+            description = "Streams datasets into the database without buffering the whole request. "
+            + "Accepts csv with a header line or json-lines (one json object per line). "
+            + "All json lines must contain the same attributes, geometries are given as WKT or EWKT.")
+    @APIResponse(
+            responseCode = "201",
+            description = "Number of created datasets",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"created\" : 1000000}"
+            ))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error mesage",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Could not create datasets: Because of ... \"]}"))
+    public Response createBulk(
+            @Parameter(description = "Collections name", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Storage name",
+                    schema = @Schema(type = STRING, defaultValue = "public")) @QueryParam("storage") String storage,
+            @Context HttpHeaders headers,
+            @Parameter(description = "Datasets as csv or json-lines", required = true) InputStream data) {
+        long startTime = System.currentTimeMillis();
+        if (storage == null) {
+            storage = "public";
+        }
+
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        String format = "jsonl";
+        MediaType mediaType = headers.getMediaType();
+        if (mediaType != null && mediaType.isCompatible(new MediaType("text", "csv"))) {
+            format = "csv";
+        }
+
+        try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
+            long created = dynr.createBulk(data, format);
+            rob.add("created", created);
+            for (String curWarning : dynr.getWarnings()) {
+                rob.addWarningMessage(curWarning);
+            }
+            rob.setStatus(Response.Status.CREATED);
+        } catch (DynException ex) {
+            if (ex.getLocalizedMessage().contains("does not exists")) {
+                rob.setStatus(Response.Status.NOT_FOUND);
+            } else if (ex.getLocalizedMessage().contains("does not have the attributes")
+                    || ex.getLocalizedMessage().contains("no data to insert")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+            } else {
+                rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            rob.addErrorMessage("Could not create datasets: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+        long endTime = System.currentTimeMillis();
+        rob.add("usedTime_ms", endTime - startTime);
+        return rob.toResponse();
+    }
+
     @GET
     @Path("{collection}/{id}")
     @Produces({MediaType.APPLICATION_JSON, "text/csv"})
@@ -198,7 +307,11 @@ public class RecordsResource {
                     schema = @Schema(type = STRING)) @QueryParam("geojsonattr") String geojsonattr,
             @Parameter(description = "Coordinate system in which geometry information schould be deliverd. Can be an EPSG code or 'latlon'") @QueryParam("geotransform") String geotransform,
             @Parameter(description = "Package values into datasets") @QueryParam("deflatt") boolean deflatt,
-            @Context ContainerRequestContext requestContext) {
+            @Parameter(description = "Tolerance for simplifying geometries, in units of the delivered coordinate system") @QueryParam("simplify") Double simplify,
+            @Parameter(description = "Map zoom level, geometries are simplified to the size of one pixel. Alternative to simplify.", example = "10") @QueryParam("zoom") Integer zoom,
+            @Parameter(description = "Number of decimal digits of delivered coordinates", example = "6") @QueryParam("precision") Integer precision,
+            @Context ContainerRequestContext requestContext,
+            @Context Request request) {
         long startTime = System.currentTimeMillis();
         if (storage == null) {
             storage = "public";
@@ -210,6 +323,16 @@ public class RecordsResource {
 //        double neededInitAccess = stopInitAccess - startInitAccess;
 //        double neededInitAccessA = neededInitAccess / 1000 / 1000;
 //        System.out.println("Time for initAccess: " + neededInitAccessA + " ms");
+        GeometryOutput geomOutput = null;
+        if (simplify != null || zoom != null || precision != null) {
+            try {
+                geomOutput = new GeometryOutput(simplify, zoom, precision);
+            } catch (DynException ex) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage(ex.getLocalizedMessage());
+                return rob.toResponse();
+            }
+        }
         List<Filter> filters = new ArrayList<>();
         // Init collection access
 //        long startIdFilter = System.nanoTime();
@@ -245,16 +368,23 @@ public class RecordsResource {
 //        double neededIdFilterB = neededIdFilter / 1000 / 1000;
 //        System.out.println("Time for IdFilter: " + neededIdFilterB + " ms");
 
+        // Deliver text/csv if requested
+        if (geojsonattr == null && requestContext.getAcceptableMediaTypes().contains(new MediaType("text", "csv"))) {
+            return this.streamRows(storage, collection, includes, filters, 1, null, null, geotransform, null, geomOutput, false);
+        }
+
 //        long startBuildResponse=0;
 //        long startGetData = System.nanoTime();
+        ResultCache.Entry cached;
         try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
+            if (geomOutput != null) {
+                dynr.setGeometryOutput(geomOutput);
+            }
             String json = dynr.get(includes, filters, 1, null, null, false, null, deflatt, geojsonattr, geotransform, new ArrayList<>());
-
-            // Deliver text/csv if requested
-            if (requestContext.getAcceptableMediaTypes().contains(new MediaType("text", "csv"))) {
-                JSONArray ja = new JSONArray(json);
-                String csvString = CDL.toString(ja);
-                return Response.ok(csvString).build();
+            cached = dynr.getCachedResult();
+            Response notModified = evaluateCachePreconditions(request, cached);
+            if (notModified != null) {
+                return notModified;
             }
 
 //            long finishGetData = System.nanoTime();
@@ -273,7 +403,7 @@ public class RecordsResource {
                 if (id > 1) {
                     rob.addLink("records/" + collection + "/" + (id - 1), "prev");
                 }
-                return rb.build();
+                return withCacheHeaders(rb.build(), cached);
             } else {
                 rob.add("records", new String(u8));
             }
@@ -294,12 +424,12 @@ public class RecordsResource {
 //        double finishDouble = finish - start;
 //        double needetFinish = finishDouble / 1000 / 1000;
 //        System.out.println("Time until response: " + needetFinish + " ms");
-        return rob.toResponseStream();
+        return withCacheHeaders(rob.toResponseStream(), cached);
     }
 
     @GET
     @Path("{collection}/")
-    @Produces({MediaType.APPLICATION_JSON, "text/csv"})
+    @Produces({MediaType.APPLICATION_JSON, "text/csv", ColumnarRecordWriter.MEDIA_TYPE})
     @SmartUserAuth
     @Operation(summary = "Lists datasets from database",
             description = "Lists datasets from database that are matching the parameters.")
@@ -328,12 +458,24 @@ public class RecordsResource {
             @Parameter(description = "Page no to recive", example = "1") @QueryParam("page") String page,
             @Parameter(description = "Datasets order column and order kind", example = "column[,desc]") @QueryParam("order") String order,
             @Parameter(description = "If datasets should only be counted") @QueryParam("countonly") boolean countonly,
+            @Parameter(description = "How datasets are counted: exact (default with filters), estimate (from database statistics) or auto (default without filters, estimate for large numbers, otherwise exact)",
+                    schema = @Schema(type = STRING)) @QueryParam("countmode") String countmode,
             @Parameter(description = "Attribute to get uniqe values for", example = "value") @QueryParam("unique") String unique,
             @Parameter(description = "Name of the geo column that contains geo information, for reciving the data in geojson format") @QueryParam("geojsonattr") String geojsonattr,
             @Parameter(description = "Coordinate system in which geometry information schould be deliverd. Can be an EPSG code or 'latlon'") @QueryParam("geotransform") String geotransform,
             @Parameter(description = "Names of join tables, to make natural join.", example = "bindtable,endtable") @QueryParam("join") List<String> joins,
+            @Parameter(description = "If the datasets should be streamed from database, recommended for large results") @QueryParam("stream") boolean stream,
+            @Parameter(description = "Timestamp attribute and bucket size for aggregating datasets into time buckets. Units: s, m, h, d, w, mon, y", example = "ts,15m") @QueryParam("bucket") String bucket,
+            @Parameter(description = "Aggregates calculated for each bucket (avg, min, max, sum, count), default is count(*)", example = "avg(value),max(value)") @QueryParam("agg") String agg,
+            @Parameter(description = "Number of points to reduce the datasets to, for charts. The order attribute is used as x, the one attribute in includes as y. Optional method lttb (default) or minmax.", example = "2000,lttb") @QueryParam("downsample") String downsample,
+            @Parameter(description = "Cursor for keyset pagination. Give it empty for the first page, the response contains the cursor for the next page as >next<. Alternative to page.") @QueryParam("after") String after,
+            @Parameter(description = "Format of the datasets: records (default, one object per dataset) or compact (names and types once as columns, datasets as arrays of values in rows)",
+                    schema = @Schema(type = STRING, defaultValue = "records")) @QueryParam("format") String format,
+            @Parameter(description = "Tolerance for simplifying geometries, in units of the delivered coordinate system") @QueryParam("simplify") Double simplify,
+            @Parameter(description = "Map zoom level, geometries are simplified to the size of one pixel. Alternative to simplify.", example = "10") @QueryParam("zoom") Integer zoom,
+            @Parameter(description = "Number of decimal digits of delivered coordinates", example = "6") @QueryParam("precision") Integer precision,
             @Context ContainerRequestContext requestContext,
-            @Context HttpHeaders headers) {
+            @Context Request request) {
         long startTime = System.currentTimeMillis();
         if (storage == null) {
             storage = "public";
@@ -346,6 +488,104 @@ public class RecordsResource {
 
         ResponseObjectBuilder rob = new ResponseObjectBuilder();
         List<Filter> filters = new ArrayList<>();
+        KeysetFilter keyset = null;
+        // The cursor is build from the order and identity attribute of the last delivered dataset
+        if (after != null) {
+            if (page != null || countonly || unique != null || geojsonattr != null || downsample != null) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("Keyset pagination (after) can not be combined with page, countonly, unique, geojsonattr or downsample.");
+                return rob.toResponse();
+            }
+            // There is no place for the cursor of the next page in these formats
+            List<MediaType> accepted = requestContext.getAcceptableMediaTypes();
+            if (accepted.contains(new MediaType("text", "csv"))
+                    || accepted.contains(MediaType.valueOf(ColumnarRecordWriter.MEDIA_TYPE))) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("Keyset pagination (after) is not available for csv and the columnar format, use page.");
+                return rob.toResponse();
+            }
+        }
+        if (bucket != null && (page != null || after != null || countonly || unique != null || geojsonattr != null)) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Bucket aggregation can not be combined with page, after, countonly, unique or geojsonattr.");
+            return rob.toResponse();
+        }
+        if (countmode != null && !countmode.equals("exact") && !countmode.equals("estimate") && !countmode.equals("auto")) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("The countmode >" + countmode + "< is not supported. Use exact, estimate or auto.");
+            return rob.toResponse();
+        }
+        // Unfiltered counts of large collections are estimated by default
+        if (countonly && countmode == null && (filtersStrings == null || filtersStrings.isEmpty())) {
+            countmode = "auto";
+        }
+        boolean estimate = countonly && countmode != null && !countmode.equals("exact");
+        boolean compact = "compact".equals(format);
+        GeometryOutput geomOutput = null;
+        if (simplify != null || zoom != null || precision != null) {
+            try {
+                geomOutput = new GeometryOutput(simplify, zoom, precision);
+            } catch (DynException ex) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage(ex.getLocalizedMessage());
+                return rob.toResponse();
+            }
+        }
+        if (format != null && !compact && !format.equals("records")) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("The format >" + format + "< is not supported. Use records or compact.");
+            return rob.toResponse();
+        }
+        if (compact && (countonly || unique != null || geojsonattr != null || bucket != null || downsample != null)) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("The compact format can not be combined with countonly, unique, geojsonattr, bucket or downsample.");
+            return rob.toResponse();
+        }
+        int downsamplePoints = 0;
+        String downsampleMethod = null;
+        if (downsample != null) {
+            if (bucket != null || page != null || after != null || countonly || unique != null || geojsonattr != null) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("Downsampling can not be combined with bucket, page, after, countonly, unique or geojsonattr.");
+                return rob.toResponse();
+            }
+            if (order == null || includes == null || includes.contains(",")) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("Downsampling needs the x attribute as order and exactly one y attribute as includes.");
+                return rob.toResponse();
+            }
+            String[] downsampleParts = downsample.split(",");
+            try {
+                downsamplePoints = Integer.parseInt(downsampleParts[0].trim());
+            } catch (NumberFormatException ex) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("The number of points >" + downsampleParts[0] + "< for downsampling is not a number.");
+                return rob.toResponse();
+            }
+            if (downsamplePoints < 3) {
+                rob.setStatus(Response.Status.BAD_REQUEST);
+                rob.addErrorMessage("Downsampling needs at least 3 points.");
+                return rob.toResponse();
+            }
+            if (downsampleParts.length > 1) {
+                downsampleMethod = downsampleParts[1].trim();
+                if (!downsampleMethod.equalsIgnoreCase("lttb") && !downsampleMethod.equalsIgnoreCase("minmax")) {
+                    rob.setStatus(Response.Status.BAD_REQUEST);
+                    rob.addErrorMessage("The downsampling method >" + downsampleMethod + "< is not supported. Use lttb or minmax.");
+                    return rob.toResponse();
+                }
+            }
+        }
+        if (after != null) {
+            if (size == 0) {
+                size = 20;
+            }
+            // Size must be the real page size to detect the last page
+            Integer hardLimit = Configuration.getInstance().getHardLimit();
+            if (hardLimit != null && size > hardLimit) {
+                size = hardLimit;
+            }
+        }
         try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
             // Check if there is a request context and user has restricted rights
             if (requestContext != null) {
@@ -398,20 +638,114 @@ public class RecordsResource {
                     return rob.toResponse();
                 }
             }
+            // Build keyset filter for pagination
+            if (after != null) {
+                if (order == null) {
+                    List<Attribute> idattrs = dync.getIdentityAttributes();
+                    if (idattrs.isEmpty()) {
+                        rob.setStatus(Response.Status.BAD_REQUEST);
+                        rob.addErrorMessage("The collection >" + collection + "< has no identity attribute, keyset pagination is not possible.");
+                        return rob.toResponse();
+                    }
+                    order = idattrs.get(0).getName();
+                }
+                String orderkind = order.contains(",") ? order.split(",")[1] : "DESC";
+                try {
+                    keyset = new KeysetFilter(dync);
+                    keyset.parse(order.split(",")[0] + "," + orderkind + "," + after);
+                    filters.add(keyset);
+                } catch (FilterException ex) {
+                    rob.setStatus(Response.Status.BAD_REQUEST);
+                    rob.addErrorMessage("Could not use cursor: " + ex.getLocalizedMessage());
+                    rob.addException(ex);
+                    return rob.toResponse();
+                }
+            }
         } catch (DynException ex) {
             rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
             rob.addErrorMessage("Could not get identity column: " + ex.getClass().getSimpleName() + ": " + JSONFormatter.escapeForJson(ex.getLocalizedMessage()));
             return rob.toResponse();
         }
 
-        try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
-            String json = dynr.get(includes, filters, size, page, order, countonly, unique, false, geojsonattr, geotransform, joins);
+        boolean csv = requestContext.getAcceptableMediaTypes().contains(new MediaType("text", "csv"));
+        if (!countonly && unique == null && geojsonattr == null && bucket == null && downsample == null) {
+            boolean columnar = requestContext.getAcceptableMediaTypes().contains(MediaType.valueOf(ColumnarRecordWriter.MEDIA_TYPE));
+            // Deliver text/csv if requested
+            if (csv) {
+                return this.streamRows(storage, collection, includes, filters, size, page, order, geotransform, joins, geomOutput, false);
+            }
+            // Deliver columnar binary format if requested
+            if (columnar) {
+                return this.streamRows(storage, collection, includes, filters, size, page, order, geotransform, joins, geomOutput, true);
+            }
+            // Stream plain record lists, compact lists are allways streamed
+            if (stream || compact) {
+                return this.streamList(storage, collection, includes, filters, size, page, order, geotransform, joins, geomOutput, keyset, compact, startTime);
+            }
+        }
+
+        ResultCache.Entry cached;
+        try {
+            // Identical concurrent requests share one query execution
+            String qstorage = storage;
+            int qsize = size;
+            String qorder = order;
+            String queryKey = queryKey(storage, collection, includes, filters, size, page, order, countonly, unique, geojsonattr, geotransform, joins);
+            if (geomOutput != null) {
+                queryKey += "|geometry:" + geomOutput.getStatementId();
+            }
+            GeometryOutput qgeomOutput = geomOutput;
+            if (bucket != null) {
+                queryKey += "|bucket:" + bucket + "|agg:" + agg;
+            }
+            if (downsample != null) {
+                queryKey += "|downsample:" + downsample;
+            }
+            if (estimate) {
+                queryKey += "|countmode:" + countmode;
+            }
+            int qpoints = downsamplePoints;
+            String qmethod = downsampleMethod;
+            String qcountmode = countmode;
+            QueryResult result = QueryCoalescer.execute(queryKey, () -> {
+                try (DynRecords dynr = DynFactory.getDynRecords(qstorage, collection)) {
+                    String qjson;
+                    if (estimate) {
+                        long count = dynr.estimateCount(filters);
+                        // Small numbers are counted exactly in auto mode
+                        long exactLimit = Configuration.getInstance().getIntProperty("count.exactlimit", 100000);
+                        if (qcountmode.equals("estimate") || count > exactLimit) {
+                            qjson = "[{\"count\":" + count + "}]";
+                            return new QueryResult(qjson, new ArrayList<>(dynr.getWarnings()), null, true);
+                        }
+                    }
+                    if (bucket != null) {
+                        qjson = dynr.getBuckets(bucket, agg, filters, qsize);
+                    } else if (qpoints > 0) {
+                        qjson = dynr.getDownsampled(qorder.split(",")[0], includes, filters, qpoints, qmethod);
+                    } else {
+                        if (qgeomOutput != null) {
+                            dynr.setGeometryOutput(qgeomOutput);
+                        }
+                        qjson = dynr.get(includes, filters, qsize, page, qorder, countonly, unique, false, geojsonattr, geotransform, joins);
+                    }
+                    return new QueryResult(qjson, new ArrayList<>(dynr.getWarnings()), dynr.getCachedResult(), false);
+                }
+            });
+            String json = result.json;
+            cached = result.cached;
+            if (!csv) {
+                Response notModified = evaluateCachePreconditions(request, cached);
+                if (notModified != null) {
+                    return notModified;
+                }
+            }
             if (json.equals("{}")) {
                 json = "[]";
             }
 
-            // Deliver text/csv if requested
-            if (requestContext.getAcceptableMediaTypes().contains(new MediaType("text", "csv"))) {
+            // Deliver counts, unique values, buckets and downsampled series as text/csv if requested
+            if (csv) {
                 JSONArray ja = new JSONArray(json);
                 String csvString = CDL.toString(ja);
                 return Response.ok(csvString).build();
@@ -422,11 +756,23 @@ public class RecordsResource {
             if (geojsonattr != null) {
                 Response.ResponseBuilder rb = Response.status(Response.Status.OK);
                 rb.entity(json);
-                return rb.build();
+                return withCacheHeaders(rb.build(), cached);
             } else {
                 rob.add("records", new String(u8));
             }
-            for (String curWarn : dynr.getWarnings()) {
+            if (keyset != null) {
+                String next = keyset.createCursor(json, size);
+                if (next != null) {
+                    rob.add("next", next);
+                }
+                for (String curWarn : keyset.getWarnings()) {
+                    rob.addWarningMessage(curWarn);
+                }
+            }
+            if (countonly) {
+                rob.add("countEstimated", result.estimated);
+            }
+            for (String curWarn : result.warnings) {
                 rob.addWarningMessage(curWarn);
             }
         } catch (DynException ex) {
@@ -460,8 +806,341 @@ public class RecordsResource {
         rob.setStatus(Response.Status.OK);
         long endTime = System.currentTimeMillis();
         rob.add("usedTime_ms", endTime - startTime);
-        Response stream = rob.toResponseStream();
-        return stream;
+        return withCacheHeaders(rob.toResponseStream(), cached);
+    }
+
+    /**
+     * Result of a records query, shared between coalesced requests
+     */
+    private static class QueryResult {
+
+        private final String json;
+        private final List<String> warnings;
+        private final ResultCache.Entry cached;
+        private final boolean estimated;
+
+        private QueryResult(String json, List<String> warnings, ResultCache.Entry cached, boolean estimated) {
+            this.json = json;
+            this.warnings = warnings;
+            this.cached = cached;
+            this.estimated = estimated;
+        }
+    }
+
+    /**
+     * Creates a normalized key of a records query, used to detect identical
+     * concurrent requests. Filters contain the restrictions from the users
+     * rights, so requests of users with different rights get different keys.
+     *
+     * @return Key of the query
+     */
+    private static String queryKey(String storage, String collection, String includes, List<Filter> filters, int size, String page, String order, boolean countonly, String unique, String geojsonattr, String geotransform, List<String> joins) {
+        StringJoiner key = new StringJoiner("|");
+        key.add(storage).add(collection).add(String.valueOf(includes));
+        for (Filter curFilter : filters) {
+            key.add(curFilter.getClass().getSimpleName() + ":" + curFilter.getFiltercode());
+        }
+        key.add(Integer.toString(size)).add(String.valueOf(page)).add(String.valueOf(order))
+                .add(Boolean.toString(countonly)).add(String.valueOf(unique))
+                .add(String.valueOf(geojsonattr)).add(String.valueOf(geotransform))
+                .add(String.valueOf(joins));
+        return key.toString();
+    }
+
+    /**
+     * Checks the conditional request header If-None-Match against a cached
+     * result. Only the ETag is used, because Last-Modified has a precision of
+     * seconds and could hide writes within the same second.
+     *
+     * @param request Request
+     * @param cached Cached result, may be null
+     * @return 304 response if the client has the current result, otherwise null
+     */
+    private static Response evaluateCachePreconditions(Request request, ResultCache.Entry cached) {
+        if (cached == null || request == null) {
+            return null;
+        }
+        EntityTag tag = new EntityTag(cached.getEtag(), true);
+        Response.ResponseBuilder rb = request.evaluatePreconditions(tag);
+        if (rb == null) {
+            return null;
+        }
+        return rb.tag(tag).build();
+    }
+
+    /**
+     * Adds the ETag header for a cached result
+     *
+     * @param response Response to add headers to
+     * @param cached Cached result, may be null
+     * @return Response with headers
+     */
+    private static Response withCacheHeaders(Response response, ResultCache.Entry cached) {
+        if (cached == null) {
+            return response;
+        }
+        return Response.fromResponse(response)
+                .tag(new EntityTag(cached.getEtag(), true))
+                .build();
+    }
+
+    @GET
+    @Path("{collection}/tiles/{z}/{x}/{y}.mvt")
+    @Produces(MVT_MEDIA_TYPE)
+    @SmartUserAuth
+    @Operation(summary = "Gets a vector tile",
+            description = "Delivers the datasets intersecting the tile as Mapbox Vector Tile, for web maps.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Tile with one layer named like the collection, empty if there are no datasets in the tile")
+    @APIResponse(
+            responseCode = "400",
+            description = "Invalid tile coordinates or filters",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \" Invalid tile coordinates \"]}"))
+    public Response getTile(
+            @Parameter(description = "Name of the collection to get data from (Tablename, Documentspace)", required = true, example = "mycollection") @PathParam("collection") String collection,
+            @Parameter(description = "Zoom level", required = true, example = "12") @PathParam("z") int z,
+            @Parameter(description = "Tile column", required = true, example = "2138") @PathParam("x") int x,
+            @Parameter(description = "Tile row", required = true, example = "1369") @PathParam("y") int y,
+            @Parameter(description = "Name of the storage to look at (public, smartdata_xyz, ...)",
+                    schema = @Schema(type = STRING, defaultValue = "public")) @QueryParam("storage") String storage,
+            @Parameter(description = "Geometry attribute, default is the first geometry attribute") @QueryParam("geoattr") String geoattr,
+            @Parameter(description = "Attributes to add to the features, comata separated. Default is the identity attribute.", example = "id,value") @QueryParam("includes") String includes,
+            @Parameter(description = "Definition of an filter <a href=\"http://git04-ifm-min.ad.fh-bielefeld.de/forschung/smartecosystem/smartdata/-/wikis/Funktionen/Uebersicht\" target=\"_new\">See filter documentation</a>", example = "id,eq,1") @QueryParam("filter") List<String> filtersStrings,
+            @Context ContainerRequestContext requestContext) {
+        if (storage == null) {
+            storage = "public";
+        }
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+        if (z < 0 || z > 30 || x < 0 || y < 0 || x >= (1L << z) || y >= (1L << z)) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Invalid tile coordinates " + z + "/" + x + "/" + y);
+            return rob.toResponse();
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            // Restrict to the datasets the user has rights on
+            if (requestContext != null && requestContext.getSecurityContext() != null) {
+                SmartPrincipal sp = (SmartPrincipal) requestContext.getSecurityContext().getUserPrincipal();
+                if (sp != null) {
+                    boolean max_right = false;
+                    StringJoiner sb = new StringJoiner(",");
+                    for (Long curSet : sp.getContextRight().getIds()) {
+                        if (curSet == Long.MAX_VALUE) {
+                            max_right = true;
+                            break;
+                        }
+                        sb.add(curSet.toString());
+                    }
+                    Attribute idattr = dync.getIdentityAttributes().get(0);
+                    if (sb.length() > 0) {
+                        filtersStrings.add(idattr.getName() + ",in," + sb.toString());
+                    } else if (!max_right) {
+                        filtersStrings.add(idattr.getName() + ",in,-1");
+                    }
+                }
+            }
+            for (String curFilterStr : filtersStrings) {
+                Filter filt = FilterParser.parse(curFilterStr, dync);
+                if (filt != null) {
+                    filters.add(filt);
+                }
+            }
+        } catch (FilterException ex) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Could not parse filter rule >" + filtersStrings + "<: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get identity column: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+
+        try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
+            byte[] tile = dynr.getTile(geoattr, includes, filters, z, x, y);
+            return Response.ok(tile, MVT_MEDIA_TYPE).build();
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Could not get tile: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+    }
+
+    /**
+     * Delivers a list of datasets by streaming them from a database cursor.
+     * The datasets are written while fetched, so the response is never held
+     * in memory completely.
+     *
+     * @param keyset Keyset filter, if the cursor for the next page should be
+     * delivered, otherwise null
+     * @param geomOutput Simplification and precision of geometries, may be
+     * null
+     * @param compact If true the datasets are delivered as columns and rows
+     * instead of records
+     * @return Streaming response or error response
+     */
+    private Response streamList(String storage, String collection, String includes, List<Filter> filters, int size, String page, String order, String geotransform, List<String> joins, GeometryOutput geomOutput, KeysetFilter keyset, boolean compact, long startTime) {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+        DynRecords dynr = null;
+        RecordCursor cursor;
+        Map<String, Attribute> attributes = null;
+        try {
+            if (compact) {
+                // Types of the columns
+                try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+                    attributes = dync.getAttributes();
+                }
+            }
+            dynr = DynFactory.getDynRecords(storage, collection);
+            if (geomOutput != null) {
+                dynr.setGeometryOutput(geomOutput);
+            }
+            cursor = dynr.openCursor(includes, filters, size, page, order, geotransform, joins, !compact);
+        } catch (DynException ex) {
+            closeQuietly(dynr);
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get data: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+
+        final DynRecords sdynr = dynr;
+        final Map<String, Attribute> sattributes = attributes;
+        StreamingOutput output = (OutputStream out) -> {
+            try (cursor) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                String lastRow = null;
+                long rows = 0;
+                if (compact) {
+                    writer.write('{');
+                    CompactJsonRecordWriter cwriter = new CompactJsonRecordWriter(writer, sattributes);
+                    rows = cwriter.write(cursor);
+                    lastRow = cwriter.getLastRowAsObject();
+                } else {
+                    writer.write("{\"records\":[");
+                    while (cursor.next()) {
+                        if (lastRow != null) {
+                            writer.write(',');
+                        }
+                        lastRow = cursor.getResultSet().getString("json");
+                        writer.write(lastRow);
+                        rows++;
+                    }
+                    writer.write(']');
+                }
+                if (keyset != null && lastRow != null && rows >= size) {
+                    String next = keyset.createCursor(JsonLinesCopyReader.parseLine(lastRow));
+                    if (next != null) {
+                        writer.write(",\"next\":\"");
+                        writer.write(next);
+                        writer.write('"');
+                    }
+                }
+                writer.write(",\"warnings\":");
+                JsonArrayBuilder warnings = Json.createArrayBuilder();
+                for (String curWarn : sdynr.getWarnings()) {
+                    warnings.add(curWarn);
+                }
+                if (keyset != null) {
+                    for (String curWarn : keyset.getWarnings()) {
+                        warnings.add(curWarn);
+                    }
+                }
+                writer.write(warnings.build().toString());
+                writer.write(",\"usedTime_ms\":");
+                writer.write(Long.toString(System.currentTimeMillis() - startTime));
+                writer.write('}');
+                writer.flush();
+            } catch (SQLException | DynException ex) {
+                // Status is allready send, so the response can only be aborted
+                Message msg = new Message("Could not stream data: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                Logger.addDebugMessage(msg);
+                throw new IOException("Could not stream data: " + ex.getLocalizedMessage(), ex);
+            } finally {
+                closeQuietly(sdynr);
+            }
+        };
+        return Response.ok(output, MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Delivers datasets as csv or in columnar binary format, streamed from a
+     * database cursor.
+     *
+     * @param geomOutput Simplification and precision of geometries, may be
+     * null
+     * @param columnar If true the columnar binary format is delivered,
+     * otherwise csv
+     * @return Streaming response or error response
+     */
+    private Response streamRows(String storage, String collection, String includes, List<Filter> filters, int size, String page, String order, String geotransform, List<String> joins, GeometryOutput geomOutput, boolean columnar) {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+        DynRecords dynr = null;
+        RecordCursor cursor;
+        Map<String, Attribute> attributes = null;
+        try {
+            if (columnar) {
+                // Types of the columns
+                try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+                    attributes = dync.getAttributes();
+                }
+            }
+            dynr = DynFactory.getDynRecords(storage, collection);
+            if (geomOutput != null) {
+                dynr.setGeometryOutput(geomOutput);
+            }
+            cursor = dynr.openCursor(includes, filters, size, page, order, geotransform, joins, false);
+        } catch (DynException ex) {
+            closeQuietly(dynr);
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not get data: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+
+        final DynRecords sdynr = dynr;
+        final Map<String, Attribute> sattributes = attributes;
+        StreamingOutput output = (OutputStream out) -> {
+            try (cursor) {
+                if (columnar) {
+                    int batchsize = Configuration.getInstance().getIntProperty("columnar.batchsize", 65536);
+                    new ColumnarRecordWriter(new BufferedOutputStream(out, 65536), sattributes, batchsize).write(cursor);
+                } else {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+                    new CsvRecordWriter(writer).write(cursor);
+                }
+            } catch (SQLException | DynException ex) {
+                // Status is allready send, so the response can only be aborted
+                Message msg = new Message("Could not stream csv: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+                Logger.addDebugMessage(msg);
+                throw new IOException("Could not stream csv: " + ex.getLocalizedMessage(), ex);
+            } finally {
+                closeQuietly(sdynr);
+            }
+        };
+        return Response.ok(output, columnar ? ColumnarRecordWriter.MEDIA_TYPE : "text/csv; charset=UTF-8").build();
+    }
+
+    /**
+     * Closes a DynRecords object, only logging errors
+     *
+     * @param dynr DynRecords to close, may be null
+     */
+    private static void closeQuietly(DynRecords dynr) {
+        if (dynr == null) {
+            return;
+        }
+        try {
+            dynr.close();
+        } catch (DynException ex) {
+            Message msg = new Message("Could not close connection: " + ex.getLocalizedMessage(), MessageLevel.ERROR);
+            Logger.addDebugMessage(msg);
+        }
     }
 
     @PUT
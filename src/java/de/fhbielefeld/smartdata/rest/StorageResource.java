@@ -31,6 +31,7 @@ import jakarta.ws.rs.core.Response;
  * @author Florian Fehring
  */
 @Path("storage")
+@Compressed
 @Tag(name = "Storage", description = "Manage data storages")
 public class StorageResource {
 
@@ -41,7 +42,7 @@ public class StorageResource {
         // Init logging
         try {
             String moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            Configuration conf = new Configuration(); 
+            Configuration conf = Configuration.getInstance(); 
             Logger.getInstance("SmartData", moduleName);
             Logger.setDebugMode(Boolean.parseBoolean(conf.getProperty("debugmode")));
         } catch (LoggerException | NamingException ex) {
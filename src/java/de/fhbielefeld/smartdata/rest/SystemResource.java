@@ -6,26 +6,61 @@ import de.fhbielefeld.scl.logger.message.Message;
 import de.fhbielefeld.scl.logger.message.MessageLevel;
 import de.fhbielefeld.scl.rest.util.ResponseObjectBuilder;
 import de.fhbielefeld.smartdata.config.Configuration;
+import de.fhbielefeld.smartdata.dbo.Attribute;
+import de.fhbielefeld.smartdata.dbo.DataCollection;
+import de.fhbielefeld.smartdata.dyn.DynFactory;
+import de.fhbielefeld.smartdata.dyn.StatementHandleCache;
+import de.fhbielefeld.smartdata.dyncollection.DynCollection;
+import de.fhbielefeld.smartdata.dyncollection.MetadataCache;
+import de.fhbielefeld.smartdata.dynrecords.CountCache;
+import de.fhbielefeld.smartdata.dynrecords.DynRecords;
+import de.fhbielefeld.smartdata.dynrecords.DynRecordsPostgres;
+import de.fhbielefeld.smartdata.dynrecords.QueryCoalescer;
+import de.fhbielefeld.smartdata.dynrecords.ResultCache;
+import de.fhbielefeld.smartdata.dynrecords.RollupManager;
+import de.fhbielefeld.smartdata.dynrecords.TileCache;
+import de.fhbielefeld.smartdata.dynrecords.filter.Filter;
+import de.fhbielefeld.smartdata.dynrecords.filter.FilterException;
+import de.fhbielefeld.smartdata.dynrecords.filter.FilterParser;
+import de.fhbielefeld.smartdata.exceptions.DynException;
+import de.fhbielefeld.smartuser.annotations.SmartUserAuth;
+import de.fhbielefeld.smartuser.securitycontext.SmartPrincipal;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.naming.NamingException;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -49,7 +84,7 @@ public class SystemResource {
         // Init logging
         try {
             String moduleName = (String) new javax.naming.InitialContext().lookup("java:module/ModuleName");
-            Configuration conf = new Configuration();
+            Configuration conf = Configuration.getInstance();
             Logger.getInstance("SmartData", moduleName);
             Logger.setDebugMode(Boolean.parseBoolean(conf.getProperty("debugmode")));
         } catch (LoggerException | NamingException ex) {
@@ -78,7 +113,7 @@ public class SystemResource {
         ResponseObjectBuilder rob = new ResponseObjectBuilder();
 
         // Init config
-        Configuration conf = new Configuration();
+        Configuration conf = Configuration.getInstance();
 
         rob.add("modulname", conf.getModuleName());
         rob.add("filename", conf.getFileName());
@@ -91,6 +126,69 @@ public class SystemResource {
         return rob.toResponse();
     }
 
+    @GET
+    @Path("caches")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(summary = "Get cache statistics",
+            description = "Lists size, hits and misses of the internal caches.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Statistics for each cache",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"statements\" : {\"size\" : 12, \"maxSize\" : 1000, \"hits\" : 1234, \"misses\" : 12, \"evictions\" : 0}, \"statementhandles\" : {\"hits\" : 1200, \"misses\" : 34, \"estimatedPlanningSaved_ms\" : 420}, \"metadata\" : {\"size\" : 8, \"hits\" : 5321, \"misses\" : 8}}"
+            ))
+    public Response getCaches() {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+        rob.add("statements", DynRecordsPostgres.getStatementCacheStatistics());
+        rob.add("statementhandles", StatementHandleCache.getStatistics());
+        rob.add("metadata", MetadataCache.getStatistics());
+        rob.add("results", ResultCache.getStatistics());
+        rob.add("coalescing", QueryCoalescer.getStatistics());
+        rob.add("tiles", TileCache.getStatistics());
+        rob.add("counts", CountCache.getStatistics());
+        rob.add("rollups", RollupManager.getStatistics());
+        rob.setStatus(Response.Status.OK);
+        return rob.toResponse();
+    }
+
+    @POST
+    @Path("caches/invalidate")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Invalidate caches",
+            description = "Drops cached metadata, statements and results of a collection, a storage "
+            + "or (without parameters) of all collections. Use this after changing "
+            + "collections without the SmartData API.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Caches invalidated",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{}"
+            ))
+    public Response invalidateCaches(
+            @Parameter(description = "Storage name", example = "public") @QueryParam("storage") String storage,
+            @Parameter(description = "Collection name", example = "col1") @QueryParam("collection") String collection) {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+        if (storage == null && collection == null) {
+            MetadataCache.invalidateAll();
+            DynRecordsPostgres.invalidateAllStatements();
+            ResultCache.invalidateAll();
+            TileCache.invalidateAll();
+            CountCache.invalidateAll();
+        } else {
+            if (storage == null) {
+                storage = "public";
+            }
+            MetadataCache.invalidate(storage, collection);
+            DynRecordsPostgres.invalidateStatements(storage, collection);
+            ResultCache.invalidate(storage, collection);
+        }
+        rob.setStatus(Response.Status.OK);
+        return rob.toResponse();
+    }
+
     @GET
     @Path("info")
     @Produces(MediaType.APPLICATION_JSON)
@@ -112,7 +210,7 @@ public class SystemResource {
         ResponseObjectBuilder rob = new ResponseObjectBuilder();
 
         // Init config
-        Configuration conf = new Configuration();
+        Configuration conf = Configuration.getInstance();
 
         rob.add("version", "19.05.2023");
         // IP adress
@@ -251,4 +349,345 @@ public class SystemResource {
 
         return rob.toResponse();
     }
+
+    @POST
+    @Path("benchmark/ingest")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Benchmark concurrent ingest",
+            description = "Creates a temporary collection and inserts datasets from "
+            + "1, 2, 4, ... threads in parallel. Returns the throughput for each "
+            + "thread count. Must be enabled with benchmark.enabled=true in configuration. "
+            + "The number of threads is limited by benchmark.maxthreads (default 16), "
+            + "the number of datasets per thread by benchmark.maxrecords (default 100000).")
+    @APIResponse(
+            responseCode = "200",
+            description = "Throughput per thread count",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"results\" : [{\"threads\" : 1, \"records\" : 1000, \"time_ms\" : 812, \"records_per_s\" : 1231}]}"
+            ))
+    @APIResponse(
+            responseCode = "400",
+            description = "Invalid parameters",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \"Parameter threads must be greater than zero.\"]}"))
+    @APIResponse(
+            responseCode = "403",
+            description = "Benchmark is not enabled",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \"Benchmark is not enabled.\"]}"))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error message",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \"Could not run benchmark: ...\"]}"))
+    public Response benchmarkIngest(
+            @Parameter(description = "Storage to create the temporary collection in", example = "public") @QueryParam("storage") String storage,
+            @Parameter(description = "Maximum number of parallel threads", example = "8") @QueryParam("threads") Integer threads,
+            @Parameter(description = "Number of datasets per thread", example = "1000") @QueryParam("records") Integer records,
+            @Parameter(description = "Insert mode: single (one request per dataset) or batch", example = "single") @QueryParam("mode") String mode) {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        Configuration conf = Configuration.getInstance();
+        if (!conf.getBooleanProperty("benchmark.enabled", false)) {
+            rob.setStatus(Response.Status.FORBIDDEN);
+            rob.addErrorMessage("Benchmark is not enabled.");
+            return rob.toResponse();
+        }
+
+        if (storage == null) {
+            storage = "public";
+        }
+        if (threads == null) {
+            threads = 8;
+        }
+        if (records == null) {
+            records = 1000;
+        }
+        if (threads < 1 || records < 1) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Parameters threads and records must be greater than zero.");
+            return rob.toResponse();
+        }
+        int maxThreads = conf.getIntProperty("benchmark.maxthreads", 16);
+        if (threads > maxThreads) {
+            rob.addWarningMessage("Number of threads is limited to >" + maxThreads + "<.");
+            threads = maxThreads;
+        }
+        int maxRecords = conf.getIntProperty("benchmark.maxrecords", 100000);
+        if (records > maxRecords) {
+            rob.addWarningMessage("Number of datasets per thread is limited to >" + maxRecords + "<.");
+            records = maxRecords;
+        }
+        final boolean batchmode = "batch".equalsIgnoreCase(mode);
+        final String bstorage = storage;
+        final int brecords = records;
+        final String collection = "benchmark_ingest_" + System.currentTimeMillis();
+
+        // Create temporary collection
+        DataCollection colldef = new DataCollection(collection);
+        colldef.addAttribute(new Attribute("ts", "timestamp"));
+        colldef.addAttribute(new Attribute("value", "float8"));
+        colldef.addAttribute(new Attribute("sensor", "int4"));
+        try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            dync.create(colldef);
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not create benchmark collection: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int curThreads = 1; curThreads <= threads; curThreads *= 2) {
+                List<Callable<Integer>> tasks = new ArrayList<>();
+                for (int t = 0; t < curThreads; t++) {
+                    final int sensor = t;
+                    tasks.add(() -> {
+                        int saved = 0;
+                        try (DynRecords dynr = DynFactory.getDynRecords(bstorage, collection)) {
+                            if (batchmode) {
+                                List<JsonObject> set = new ArrayList<>(brecords);
+                                for (int i = 0; i < brecords; i++) {
+                                    set.add(this.benchmarkRecord(sensor, i));
+                                }
+                                for (Object curId : dynr.createBatch(set)) {
+                                    if (curId != null) {
+                                        saved++;
+                                    }
+                                }
+                            } else {
+                                for (int i = 0; i < brecords; i++) {
+                                    dynr.create(this.benchmarkRecord(sensor, i));
+                                    saved++;
+                                }
+                            }
+                        }
+                        return saved;
+                    });
+                }
+                long start = System.nanoTime();
+                int saved = 0;
+                for (Future<Integer> curResult : executor.invokeAll(tasks)) {
+                    saved += curResult.get();
+                }
+                long timeMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("threads", curThreads);
+                result.put("records", saved);
+                result.put("time_ms", timeMs);
+                result.put("records_per_s", saved * 1000L / timeMs);
+                results.add(result);
+            }
+            rob.add("mode", batchmode ? "batch" : "single");
+            rob.add("results", results);
+            rob.setStatus(Response.Status.OK);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Benchmark was interrupted.");
+        } catch (ExecutionException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not run benchmark: " + ex.getCause().getLocalizedMessage());
+            rob.addException(ex);
+        } finally {
+            executor.shutdownNow();
+            // Remove temporary collection
+            try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+                dync.delete(false);
+            } catch (DynException ex) {
+                rob.addWarningMessage("Could not delete benchmark collection >" + collection + "<: " + ex.getLocalizedMessage());
+            }
+        }
+
+        return rob.toResponse();
+    }
+
+    @GET
+    @Path("benchmark/query")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SmartUserAuth
+    @Operation(summary = "Benchmark a filtered query",
+            description = "Executes the query for a list of datasets with EXPLAIN ANALYZE several times. "
+            + "Returns the execution times and if an index was used, e.g. to check radius "
+            + "and bounding box filters. Must be enabled with benchmark.enabled=true in configuration. "
+            + "The number of executions is limited by benchmark.maxruns (default 50). "
+            + "Only datasets the user has rights on are queried.")
+    @APIResponse(
+            responseCode = "200",
+            description = "Execution times and plan nodes",
+            content = @Content(
+                    mediaType = "application/json",
+                    example = "{\"indexUsed\" : true, \"nodes\" : [\"Bitmap Heap Scan\", \"Bitmap Index Scan (points_geom_idx)\"], \"runs\" : [{\"execution_ms\" : 3.2, \"planning_ms\" : 0.4}]}"
+            ))
+    @APIResponse(
+            responseCode = "403",
+            description = "Benchmark is not enabled",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \"Benchmark is not enabled.\"]}"))
+    @APIResponse(
+            responseCode = "500",
+            description = "Error message",
+            content = @Content(mediaType = "application/json",
+                    example = "{\"errors\" : [ \"Could not run benchmark: ...\"]}"))
+    public Response benchmarkQuery(
+            @Parameter(description = "Storage of the collection", example = "public") @QueryParam("storage") String storage,
+            @Parameter(description = "Collection to query", required = true, example = "points") @QueryParam("collection") String collection,
+            @Parameter(description = "Attributes to include, comata separated", example = "id") @QueryParam("includes") String includes,
+            @Parameter(description = "Filters as for listing datasets", example = "pos,sir,8.53,52.02,4326,500") @QueryParam("filter") List<String> filtersStrings,
+            @Parameter(description = "Maximum number of datasets", example = "0") @QueryParam("size") int size,
+            @Parameter(description = "Number of executions", example = "5") @QueryParam("runs") Integer runs,
+            @Context ContainerRequestContext requestContext) {
+        ResponseObjectBuilder rob = new ResponseObjectBuilder();
+
+        Configuration conf = Configuration.getInstance();
+        if (!conf.getBooleanProperty("benchmark.enabled", false)) {
+            rob.setStatus(Response.Status.FORBIDDEN);
+            rob.addErrorMessage("Benchmark is not enabled.");
+            return rob.toResponse();
+        }
+        if (collection == null) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Parameter collection is missing.");
+            return rob.toResponse();
+        }
+        if (storage == null) {
+            storage = "public";
+        }
+        if (runs == null) {
+            runs = 5;
+        }
+        if (runs < 1) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Parameter runs must be greater than zero.");
+            return rob.toResponse();
+        }
+        int maxRuns = conf.getIntProperty("benchmark.maxruns", 50);
+        if (runs > maxRuns) {
+            rob.addWarningMessage("Number of executions is limited to >" + maxRuns + "<.");
+            runs = maxRuns;
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        try (DynCollection dync = DynFactory.getDynCollection(storage, collection)) {
+            // Check if there is a request context and user has restricted rights
+            if (requestContext != null) {
+                SecurityContext sc = requestContext.getSecurityContext();
+                if (sc == null) {
+                    Message msg = new Message("No SecurityContext in Requestcontext found!", MessageLevel.INFO);
+                    Logger.addDebugMessage(msg);
+                    rob.setStatus(Response.Status.UNAUTHORIZED);
+                    return rob.toResponse();
+                }
+                SmartPrincipal sp = (SmartPrincipal) sc.getUserPrincipal();
+                if (sp != null) {
+                    boolean max_right = false;
+                    StringJoiner sb = new StringJoiner(",");
+                    for (Long curSet : sp.getContextRight().getIds()) {
+                        if (curSet == Long.MAX_VALUE) {
+                            max_right = true;
+                            break;
+                        }
+                        sb.add(curSet.toString());
+                    }
+                    // Get identity column (only first identity supported)
+                    Attribute idattr = dync.getIdentityAttributes().get(0);
+                    if (sb.length() > 0) {
+                        filtersStrings.add(idattr.getName() + ",in," + sb.toString());
+                    } else if (!max_right) {
+                        // User has no right so shold query no datasets
+                        filtersStrings.add(idattr.getName() + ",in,-1");
+                    }
+                }
+            }
+            for (String curFilterStr : filtersStrings) {
+                Filter filt = FilterParser.parse(curFilterStr, dync);
+                if (filt != null) {
+                    filters.add(filt);
+                }
+            }
+        } catch (FilterException ex) {
+            rob.setStatus(Response.Status.BAD_REQUEST);
+            rob.addErrorMessage("Could not parse filter rule >" + filtersStrings + "<: " + ex.getLocalizedMessage());
+            return rob.toResponse();
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not access collection: " + ex.getLocalizedMessage());
+            return rob.toResponse();
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<String> nodes = new ArrayList<>();
+        try (DynRecords dynr = DynFactory.getDynRecords(storage, collection)) {
+            for (int i = 0; i < runs; i++) {
+                JsonObject explain;
+                try (JsonReader reader = Json.createReader(new StringReader(dynr.explain(includes, filters, size, null)))) {
+                    explain = reader.readArray().getJsonObject(0);
+                }
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("execution_ms", explain.getJsonNumber("Execution Time").doubleValue());
+                result.put("planning_ms", explain.getJsonNumber("Planning Time").doubleValue());
+                results.add(result);
+                if (i == 0) {
+                    this.collectPlanNodes(explain.getJsonObject("Plan"), nodes);
+                }
+            }
+            for (String curWarn : dynr.getWarnings()) {
+                rob.addWarningMessage(curWarn);
+            }
+        } catch (DynException ex) {
+            rob.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
+            rob.addErrorMessage("Could not run benchmark: " + ex.getLocalizedMessage());
+            rob.addException(ex);
+            return rob.toResponse();
+        }
+        boolean indexUsed = false;
+        for (String curNode : nodes) {
+            if (curNode.contains("Index")) {
+                indexUsed = true;
+            }
+        }
+        rob.add("indexUsed", indexUsed);
+        rob.add("nodes", nodes);
+        rob.add("runs", results);
+        rob.setStatus(Response.Status.OK);
+        return rob.toResponse();
+    }
+
+    /**
+     * Collects the node types (with used indexes) of a query plan
+     *
+     * @param plan Plan node
+     * @param nodes List to add the node descriptions to
+     */
+    private void collectPlanNodes(JsonObject plan, List<String> nodes) {
+        String node = plan.getString("Node Type");
+        if (plan.containsKey("Index Name")) {
+            node += " (" + plan.getString("Index Name") + ")";
+        }
+        nodes.add(node);
+        if (plan.containsKey("Plans")) {
+            for (JsonValue curPlan : plan.getJsonArray("Plans")) {
+                this.collectPlanNodes(curPlan.asJsonObject(), nodes);
+            }
+        }
+    }
+
+    /**
+     * Creates a dataset for the ingest benchmark
+     *
+     * @param sensor Number of the sensor (thread)
+     * @param i Number of the dataset
+     * @return Dataset
+     */
+    private JsonObject benchmarkRecord(int sensor, int i) {
+        JsonObjectBuilder set = Json.createObjectBuilder();
+        set.add("ts", LocalDateTime.now().toString());
+        set.add("value", Math.random() * 100);
+        set.add("sensor", sensor * 1000000 + i);
+        return set.build();
+    }
 }